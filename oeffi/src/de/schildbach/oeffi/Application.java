@@ -19,13 +19,17 @@ package de.schildbach.oeffi;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Color;
@@ -56,9 +60,11 @@ import de.schildbach.oeffi.directions.navigation.NotificationSoundManager;
 import de.schildbach.oeffi.mapview.OeffiMapView;
 import de.schildbach.oeffi.plans.PlansPickerActivity;
 import de.schildbach.oeffi.stations.FavoriteStationsProvider;
+import de.schildbach.oeffi.stations.LineBadgeCache;
 import de.schildbach.oeffi.stations.StationsActivity;
 import de.schildbach.oeffi.util.AppInstaller;
 import de.schildbach.oeffi.util.ErrorReporter;
+import de.schildbach.oeffi.util.Formats;
 import de.schildbach.oeffi.util.SpeechInput;
 import de.schildbach.oeffi.util.TimeZoneSelector;
 import de.schildbach.pte.NetworkId;
@@ -80,6 +86,8 @@ public class Application extends android.app.Application {
 
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:134.0) Gecko/20100101 Firefox/134.0";
 
+    private static final String PREFS_KEY_DARKMODE_SWITCH = "user_interface_darkmode_switch";
+
     private static Application instance;
 
     public static Application getInstance() {
@@ -99,6 +107,20 @@ public class Application extends android.app.Application {
     private String appName;
     private TimeZoneSelector systemTimeZoneSelector;
 
+    // held strongly, as shared preferences only keep weak references to their listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener lineBadgeInvalidator = (sharedPrefs, key) -> {
+        if (PREFS_KEY_DARKMODE_SWITCH.equals(key) || Constants.PREFS_KEY_NETWORK_PROVIDER.equals(key))
+            LineBadgeCache.invalidate();
+    };
+
+    // the 24 hour setting is not part of the configuration, changing it is announced as a time change
+    private final BroadcastReceiver formatsInvalidator = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            Formats.invalidateFormats();
+        }
+    };
+
     public Application() {
         instance = this;
     }
@@ -251,6 +273,8 @@ public class Application extends android.app.Application {
         this.appName = getString(R.string.app_name);
         log.info("=== Starting app version {} ({})", packageInfo.versionName, packageInfo.versionCode);
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        prefs.registerOnSharedPreferenceChangeListener(lineBadgeInvalidator);
+        registerReceiver(formatsInvalidator, new IntentFilter(Intent.ACTION_TIME_CHANGED));
 
         NotificationSoundManager.logAvailableTextToSpeechServices();
         SpeechInput.logAvailableSpeechRecognitionServices();
@@ -484,6 +508,23 @@ public class Application extends android.app.Application {
 //                R.drawable.ic_oeffi_stations_grey600_36dp);
     }
 
+    @Override
+    public void onConfigurationChanged(@NonNull final Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        // colors of ghosted badges depend on the night mode
+        LineBadgeCache.invalidate();
+        Formats.invalidateFormats();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND)
+            LineBadgeCache.invalidate();
+        else if (level >= TRIM_MEMORY_RUNNING_LOW)
+            LineBadgeCache.trimToHalf();
+    }
+
     private void createLauncherShortcut(
             final String shortcutId,
             final Class<?> sourceActivityClass,
@@ -500,7 +541,7 @@ public class Application extends android.app.Application {
     }
 
     public boolean isDarkMode() {
-        final String setting = prefs.getString("user_interface_darkmode_switch", "system");
+        final String setting = prefs.getString(PREFS_KEY_DARKMODE_SWITCH, "system");
         if ("system".equals(setting)) {
             // if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             //     return (getResources().getConfiguration().uiMode & android.content.res.Configuration.UI_MODE_NIGHT_MASK)
@@ -18,12 +18,21 @@
 package de.schildbach.oeffi;
 
 import de.schildbach.oeffi.stations.Station;
+import de.schildbach.oeffi.util.GeoGridIndex;
 
 import java.util.List;
 
 public interface StationsAware {
     List<Station> getStations();
 
+    /**
+     * @return spatial index over the stations that have coordinates, kept in sync with {@link #getStations()}, or
+     *         {@code null} if the stations should be scanned instead
+     */
+    default GeoGridIndex<Station> getStationsIndex() {
+        return null;
+    }
+
     Integer getFavoriteState(String stationId);
 
     void selectStation(Station station);
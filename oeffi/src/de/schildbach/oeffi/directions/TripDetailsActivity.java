@@ -131,6 +131,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -2757,20 +2758,8 @@ public class TripDetailsActivity extends OeffiActivity implements LocationListen
 
     public void onTripUpdated(final Trip updatedTrip) {
         if (updatedTrip == null) return;
-        tripRenderer = new TripRenderer(tripRenderer, updatedTrip, renderConfig.isJourney, new Date());
-        final List<Trip.Leg> updatedPublicLegs = new ArrayList<>();
-        for (final Trip.Leg leg : updatedTrip.legs) {
-            if (leg instanceof Trip.Public)
-                updatedPublicLegs.add(leg);
-        }
-        int iUpdatedLeg = 0;
-        for (final TripRenderer.LegContainer legC: tripRenderer.legs) {
-            if (legC.initialLeg != null) {
-                final Trip.Public updatedLeg = (Trip.Public) updatedPublicLegs.get(iUpdatedLeg);
-                legC.setCurrentLegState(updatedLeg);
-                iUpdatedLeg += 1;
-            }
-        }
+        final BitSet changedLegs = tripRenderer.update(updatedTrip, new Date());
+        log.info("trip update changed legs {}", changedLegs);
         updateGUI();
     }
 
@@ -34,6 +34,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.OeffiActivity;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.directions.QueryHistoryProvider;
+import de.schildbach.oeffi.stations.FavoriteStationsCache;
 import de.schildbach.oeffi.stations.FavoriteStationsProvider;
 import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.dto.Location;
@@ -50,6 +51,7 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
 
     private final Cursor cursor;
     private final ContentObserver contentObserver;
+    private final FavoriteStationsCache.Listener favoritesListener;
     private final int rowIdColumn;
     private final int fromTypeColumn;
     private final int fromIdColumn;
@@ -97,6 +99,11 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
             }
         };
         contentResolver.registerContentObserver(uri, true, contentObserver);
+        favoritesListener = networkName -> {
+            if (networkName == null || network == null || networkName.equals(network.name()))
+                notifyDataSetChanged();
+        };
+        FavoriteStationsCache.getInstance().addListener(favoritesListener);
         rowIdColumn = cursor.getColumnIndexOrThrow(BaseColumns._ID);
         fromTypeColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_TYPE);
         fromIdColumn = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_FROM_ID);
@@ -125,6 +132,7 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
 
     public void close() {
         contentResolver.unregisterContentObserver(contentObserver);
+        FavoriteStationsCache.getInstance().removeListener(favoritesListener);
         cursor.close();
     }
 
@@ -229,8 +237,8 @@ public class QueryHistoryAdapter extends RecyclerView.Adapter<QueryHistoryViewHo
         final boolean isFavorite = cursor.getInt(favoriteColumn) == 1;
         final long savedTripDepartureTime = cursor.getLong(savedTripDepartureTimeColumn);
         final byte[] serializedSavedTrip = cursor.getBlob(savedTripColumn);
-        final Integer fromFavState = FavoriteStationsProvider.favState(contentResolver, network, from);
-        final Integer toFavState = FavoriteStationsProvider.favState(contentResolver, network, to);
+        final Integer fromFavState = FavoriteStationsProvider.favState(network, from);
+        final Integer toFavState = FavoriteStationsProvider.favState(network, to);
         holder.bind(rowId, from, to, via,
                 isFavorite, savedTripDepartureTime, serializedSavedTrip, fromFavState, toFavState,
                 selectedRowId, clickListener, contextMenuItemListener);
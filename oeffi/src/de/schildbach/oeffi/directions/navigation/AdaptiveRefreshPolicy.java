@@ -0,0 +1,120 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.directions.navigation;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Adapts the intervals between journey reloads of the public legs of a trip to how much their delays move. Each reload
+ * feeds the change in delay of the leg since its previous state into an exponentially weighted moving average, the
+ * leg's volatility. Fixed reload intervals are scaled by how the volatility compares to
+ * {@link #REFERENCE_VOLATILITY_MS}: legs with stable delays are reloaded up to {@link #MAX_FACTOR} times less often,
+ * legs with jumping delays up to 1 / {@link #MIN_FACTOR} times more often, but never more often than every
+ * {@link #MIN_INTERVAL_MS}. Legs with too few reloads to tell keep the fixed intervals.
+ * <p>
+ * Also counts the reloads done and estimates those the fixed intervals would have caused in the same time, for logging
+ * the requests saved.
+ */
+public final class AdaptiveRefreshPolicy implements Serializable {
+    private static final long serialVersionUID = 5183960267703410874L;
+
+    private static final double WEIGHT = 0.4; // of the latest delay change
+    private static final long REFERENCE_VOLATILITY_MS = 60000;
+    private static final double MIN_FACTOR = 0.5;
+    private static final double MAX_FACTOR = 2;
+    private static final long MIN_INTERVAL_MS = 20000;
+
+    private final double[] volatilityMs; // per leg index
+    private final int[] numSamples; // per leg index
+    private int numReloads;
+    private double numFixedReloads;
+
+    public AdaptiveRefreshPolicy(final int numLegSlots) {
+        this.volatilityMs = new double[numLegSlots];
+        this.numSamples = new int[numLegSlots];
+    }
+
+    /**
+     * @return the given fixed reload interval, scaled to the volatility of the leg
+     */
+    public synchronized long interval(final int legIndex, final long fixedIntervalMs) {
+        final long intervalMs = Math.round(fixedIntervalMs * factor(legIndex));
+        return Math.max(Math.min(fixedIntervalMs, MIN_INTERVAL_MS), intervalMs);
+    }
+
+    private double factor(final int legIndex) {
+        if (legIndex < 0 || legIndex >= numSamples.length || numSamples[legIndex] < 2)
+            return 1;
+        final double volatility = volatilityMs[legIndex];
+        if (volatility <= REFERENCE_VOLATILITY_MS / MAX_FACTOR)
+            return MAX_FACTOR;
+        return Math.max(MIN_FACTOR, REFERENCE_VOLATILITY_MS / volatility);
+    }
+
+    /**
+     * Records a reload of a leg, updating its volatility by the change of the departure or arrival delay, whichever
+     * moved more.
+     */
+    public synchronized void onReloaded(final int legIndex, final Trip.Public oldLeg, final Trip.Public newLeg) {
+        numReloads++;
+        if (legIndex < 0 || legIndex >= numSamples.length)
+            return;
+        final long departureChange = Math.abs(delay(newLeg.departureStop.getDepartureDelay())
+                - delay(oldLeg.departureStop.getDepartureDelay()));
+        final long arrivalChange = Math.abs(delay(newLeg.arrivalStop.getArrivalDelay())
+                - delay(oldLeg.arrivalStop.getArrivalDelay()));
+        final long change = Math.max(departureChange, arrivalChange);
+        if (numSamples[legIndex] == 0)
+            volatilityMs[legIndex] = change;
+        else
+            volatilityMs[legIndex] = WEIGHT * change + (1 - WEIGHT) * volatilityMs[legIndex];
+        numSamples[legIndex]++;
+    }
+
+    // consistent copies while a refresh is updating the policy
+    private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    private static long delay(final Long delay) {
+        return delay != null ? delay : 0;
+    }
+
+    /**
+     * Records how many reloads the fixed intervals would have caused in the time covered by a reload.
+     */
+    public synchronized void onFixedReloads(final double numReloads) {
+        numFixedReloads += numReloads;
+    }
+
+    public synchronized int getNumReloads() {
+        return numReloads;
+    }
+
+    public synchronized double getNumFixedReloads() {
+        return numFixedReloads;
+    }
+
+    public synchronized double getVolatilityMs(final int legIndex) {
+        return legIndex >= 0 && legIndex < volatilityMs.length ? volatilityMs[legIndex] : 0;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.directions.navigation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Stop;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Geometry of a public leg for locating a point along it, precomputed once into primitive arrays. Coordinates are
+ * projected onto an equirectangular plane in meters around the leg's mean latitude, which is cheap and accurate enough
+ * for the extent of a leg. The stops are projected onto the leg's path, so that their distances along the path are in
+ * route order and the stops around any point can be found by binary search.
+ */
+final class LegGeometry {
+    private static final double METERS_PER_DEGREE = 6371009 * Math.PI / 180;
+
+    /** stops having a location and a planned time, in route order */
+    final Stop[] stops;
+    /** per stop, meters along the path, never decreasing */
+    final double[] stopAlong;
+    private final double[] stopX, stopY;
+    private final double[] pathX, pathY;
+    private final double[] pathAlong; // per path point, meters along the path
+    private final double originLat, originLon;
+    private final double metersPerDegreeLon;
+
+    LegGeometry(final Trip.Public leg) {
+        final List<Stop> stops = new ArrayList<>();
+        addStop(stops, leg.departureStop);
+        if (leg.intermediateStops != null)
+            for (final Stop stop : leg.intermediateStops)
+                addStop(stops, stop);
+        addStop(stops, leg.arrivalStop);
+        this.stops = stops.toArray(new Stop[0]);
+
+        final List<Point> path = leg.path != null && leg.path.size() >= 2 ? leg.path : null;
+        final int numPathPoints = path != null ? path.size() : this.stops.length;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numPathPoints; i++) {
+            final double lat = path != null ? path.get(i).getLatAsDouble()
+                    : this.stops[i].location.coord.getLatAsDouble();
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+        }
+        this.originLat = numPathPoints > 0 ? (minLat + maxLat) / 2 : 0;
+        this.originLon = numPathPoints > 0 ? (path != null ? path.get(0).getLonAsDouble()
+                : this.stops[0].location.coord.getLonAsDouble()) : 0;
+        this.metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLat));
+
+        final int numStops = this.stops.length;
+        this.stopX = new double[numStops];
+        this.stopY = new double[numStops];
+        for (int i = 0; i < numStops; i++) {
+            final Point coord = this.stops[i].location.coord;
+            stopX[i] = x(coord);
+            stopY[i] = y(coord);
+        }
+
+        if (path != null) {
+            this.pathX = new double[numPathPoints];
+            this.pathY = new double[numPathPoints];
+            for (int i = 0; i < numPathPoints; i++) {
+                final Point p = path.get(i);
+                pathX[i] = x(p);
+                pathY[i] = y(p);
+            }
+        } else {
+            // no path, so the stops are connected by straight lines
+            this.pathX = stopX;
+            this.pathY = stopY;
+        }
+        this.pathAlong = new double[numPathPoints];
+        for (int i = 1; i < numPathPoints; i++)
+            pathAlong[i] = pathAlong[i - 1] + Math.hypot(pathX[i] - pathX[i - 1], pathY[i] - pathY[i - 1]);
+
+        // project each stop onto the path, only searching onwards from the previous stop so that loops in the
+        // path can't reorder them
+        this.stopAlong = new double[numStops];
+        int fromSegment = 0;
+        double prevAlong = 0;
+        for (int i = 0; i < numStops; i++) {
+            final int segment = nearestSegment(stopX[i], stopY[i], fromSegment);
+            final double along = Math.max(prevAlong, alongSegment(stopX[i], stopY[i], segment));
+            stopAlong[i] = along;
+            prevAlong = along;
+            fromSegment = Math.max(segment, 0);
+        }
+    }
+
+    private static void addStop(final List<Stop> stops, final Stop stop) {
+        if (stop.plannedArrivalTime == null && stop.plannedDepartureTime == null)
+            return;
+        if (!stop.location.hasCoord())
+            return;
+        stops.add(stop);
+    }
+
+    /**
+     * @return meters along the path of the point on the path nearest to the given point
+     */
+    double locate(final Point point) {
+        final double x = x(point), y = y(point);
+        return alongSegment(x, y, nearestSegment(x, y, 0));
+    }
+
+    /**
+     * @return index of the last stop at or before the given distance along the path, or -1 if there is none
+     */
+    int stopIndexBefore(final double along) {
+        int low = 0, high = stopAlong.length - 1;
+        int index = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (stopAlong[mid] <= along) {
+                index = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return distance in meters between a stop and the given point
+     */
+    float distanceToStop(final int stopIndex, final Point point) {
+        return (float) Math.hypot(x(point) - stopX[stopIndex], y(point) - stopY[stopIndex]);
+    }
+
+    /**
+     * @return index of the path segment nearest to the given point, starting at the given segment; -1 if the path
+     *         is just a single point
+     */
+    private int nearestSegment(final double x, final double y, final int fromSegment) {
+        int nearest = -1;
+        double minDistanceSquared = Double.MAX_VALUE;
+        for (int i = fromSegment; i < pathX.length - 1; i++) {
+            final double t = projection(x, y, i);
+            final double dx = x - (pathX[i] + t * (pathX[i + 1] - pathX[i]));
+            final double dy = y - (pathY[i] + t * (pathY[i + 1] - pathY[i]));
+            final double distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared < minDistanceSquared) {
+                minDistanceSquared = distanceSquared;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    private double alongSegment(final double x, final double y, final int segment) {
+        if (segment < 0)
+            return 0;
+        return pathAlong[segment] + projection(x, y, segment) * (pathAlong[segment + 1] - pathAlong[segment]);
+    }
+
+    /**
+     * @return position of the given point projected onto a path segment, between 0 for its start and 1 for its end
+     */
+    private double projection(final double x, final double y, final int segment) {
+        final double dx = pathX[segment + 1] - pathX[segment];
+        final double dy = pathY[segment + 1] - pathY[segment];
+        final double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0)
+            return 0;
+        final double t = ((x - pathX[segment]) * dx + (y - pathY[segment]) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private double x(final Point point) {
+        return (point.getLonAsDouble() - originLon) * metersPerDegreeLon;
+    }
+
+    private double y(final Point point) {
+        return (point.getLatAsDouble() - originLat) * METERS_PER_DEGREE;
+    }
+}
@@ -218,8 +218,8 @@ public class NavigationAlarmManager {
     }
 
     private void refresh() {
-        refreshAt = NavigationNotification.refreshAllGuides(getContext());
-        log.info("refresh alarm: next notification refresh of all at {}", LOG_TIME_FORMAT.format(refreshAt));
+        refreshAt = NavigationNotification.refreshDueGuides(getContext());
+        log.info("refresh alarm: next guide due at {}", LOG_TIME_FORMAT.format(refreshAt));
         final long minNext = new Date().getTime() + MIN_PERIOD_MS;
         log.info("refresh alarm: not earlier than at {}", LOG_TIME_FORMAT.format(minNext));
         if (refreshAt < minNext) {
@@ -53,6 +53,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -330,14 +331,36 @@ public class NavigationNotification {
     public static long refreshAllGuides(final Context context) {
         final AtomicLong minRefreshAt = new AtomicLong(Long.MAX_VALUE);
         forAllActiveNotifications(context, "refresh", navigationNotification -> {
-            final long refreshAt = navigationNotification.refresh();
+            final long refreshAt = navigationNotification.refresh(0);
             if (refreshAt > 0 && refreshAt < minRefreshAt.get())
                 minRefreshAt.set(refreshAt);
             return true;
         });
+        NavigationScheduler.getInstance().setPrimed();
         return minRefreshAt.get();
     }
 
+    /**
+     * Refreshes only the guides that are due, including those due within the coalescing tolerance.
+     *
+     * @return when the next guide is due, or {@link Long#MAX_VALUE} if none is
+     */
+    public static long refreshDueGuides(final Context context) {
+        final NavigationScheduler scheduler = NavigationScheduler.getInstance();
+        if (!scheduler.isPrimed())
+            return refreshAllGuides(context);
+        final long now = System.currentTimeMillis();
+        for (final String tag : scheduler.pollDue(now + NavigationScheduler.COALESCE_TOLERANCE_MS)) {
+            final Notification notification = getActiveNotification(context, tag);
+            if (notification == null || notification.extras == null) {
+                log.info("refresh: notification with tag={} is gone", tag);
+                continue;
+            }
+            new NavigationNotification(notification, tag, null).refresh(NavigationScheduler.COALESCE_TOLERANCE_MS);
+        }
+        return scheduler.nextDueAt();
+    }
+
     public static boolean requestAction(
             final Context context,
             final boolean speakInstruction,
@@ -397,6 +420,27 @@ public class NavigationNotification {
             final int id = statusBarNotification.getId();
             notificationManager.cancel(tag, id);
         }
+        NavigationScheduler.getInstance().clear();
+        synchronized (tripRenderers) {
+            tripRenderers.clear();
+        }
+        synchronized (unpostedNotified) {
+            unpostedNotified.clear();
+        }
+    }
+
+    /**
+     * @return number of notification updates posted since the process started
+     */
+    public static long getNumUpdatesPosted() {
+        return numUpdatesPosted.get();
+    }
+
+    /**
+     * @return number of notification updates not posted since the process started, because nothing visible changed
+     */
+    public static long getNumUpdatesSkipped() {
+        return numUpdatesSkipped.get();
     }
 
     public static void remove(final OeffiActivity context, final Intent intent) {
@@ -626,11 +670,13 @@ public class NavigationNotification {
         public long[] currentTravelAlarmAtMsForLegDeparture;
         public long[] currentTravelAlarmAtMsForLegArrival;
         public EventLogEntry[] eventLogEntries;
+        public AdaptiveRefreshPolicy refreshPolicy;
 
         public ExtraData(final int numLegSlots) {
             currentTravelAlarmAtMsForLegDeparture = new long[numLegSlots];
             currentTravelAlarmAtMsForLegArrival = new long[numLegSlots];
             eventLogEntries = new EventLogEntry[0];
+            refreshPolicy = new AdaptiveRefreshPolicy(numLegSlots);
         }
     }
 
@@ -674,6 +720,12 @@ public class NavigationNotification {
         }
     }
 
+    private static final Map<String, TripRenderer> tripRenderers = new HashMap<>(); // by notification tag
+    // notification data of updates that were not posted because nothing visible changed, by notification tag
+    private static final Map<String, TripRenderer.NotificationData> unpostedNotified = new HashMap<>();
+    private static final AtomicLong numUpdatesPosted = new AtomicLong();
+    private static final AtomicLong numUpdatesSkipped = new AtomicLong();
+
     private final Application context;
     private final boolean isEventNotificationsEnabled;
     private final boolean isDriverMode;
@@ -715,7 +767,12 @@ public class NavigationNotification {
             this.intentData = (TripDetailsActivity.IntentData) Objects.deserialize(extras.getByteArray(EXTRA_INTENTDATA));
             this.configuration = (Configuration) Objects.deserialize(extras.getByteArray(EXTRA_CONFIGURATION));
             this.extraData = (ExtraData) Objects.deserialize(extras.getByteArray(EXTRA_DATA));
-            this.lastNotified = (TripRenderer.NotificationData) Objects.deserialize(extras.getByteArray(EXTRA_LASTNOTIFIED));
+            final TripRenderer.NotificationData unposted;
+            synchronized (unpostedNotified) {
+                unposted = unpostedNotified.get(notificationTag);
+            }
+            this.lastNotified = unposted != null ? unposted
+                    : (TripRenderer.NotificationData) Objects.deserialize(extras.getByteArray(EXTRA_LASTNOTIFIED));
         }
 
         this.isDriverMode = prefs.getBoolean(Constants.KEY_EXTRAS_DRIVERMODE_ENABLED, false);
@@ -776,16 +833,29 @@ public class NavigationNotification {
             final Context context, final Intent intent,
             final Trip trip, final Configuration configuration,
             final Runnable doneListener) {
+        updateFromForeground(context, intent, trip, configuration, null, doneListener);
+    }
+
+    public static void updateFromForeground(
+            final Context context, final Intent intent,
+            final Trip trip, final Configuration configuration,
+            final AdaptiveRefreshPolicy refreshPolicy,
+            final Runnable doneListener) {
         NavigationAlarmManager.runOnHandlerThread(() -> {
-            new NavigationNotification(intent).internUpdateFromForeground(trip, configuration);
+            new NavigationNotification(intent).internUpdateFromForeground(trip, configuration, refreshPolicy);
             if (doneListener != null)
                 doneListener.run();
         });
     }
 
-    private void internUpdateFromForeground(final Trip newTrip, final Configuration newConfiguration) {
+    private void internUpdateFromForeground(
+            final Trip newTrip,
+            final Configuration newConfiguration,
+            final AdaptiveRefreshPolicy newRefreshPolicy) {
         if (newConfiguration != null)
             this.configuration = newConfiguration;
+        if (newRefreshPolicy != null && extraData != null)
+            extraData.refreshPolicy = newRefreshPolicy;
         final Trip trip = newTrip != null ? newTrip : getTrip();
         update(trip, false);
         if (lastNotified != null) {
@@ -827,7 +897,7 @@ public class NavigationNotification {
         final long tripUpdatedAt = tripUpdatedAtDate.getTime();
         final Date now = new Date();
         final long nowTime = now.getTime();
-        final TripRenderer tripRenderer = new TripRenderer(null, trip, false, now);
+        final TripRenderer tripRenderer = getTripRenderer(trip, now);
         boolean refreshAllLegs = false;
         long nextRefreshTimeMs;
         String nextRefreshTimeReason;
@@ -889,12 +959,12 @@ public class NavigationNotification {
                 // last 4 minutes and after, 30 secs refresh interval
                 nextRefreshTimeReason = String.format("#1, timeLeft=%d", timeLeft);
                 nextRefreshTimeMs = nowTime + 30000;
-                nextTripReloadTimeMs = tripUpdatedAt + 60000;
+                nextTripReloadTimeMs = tripUpdatedAt + getTripReloadInterval(travelAlarmLegIndex, 60000);
             } else if (timeLeft < 600000) {
                 // last 10 minutes and after, 60 secs refresh interval
                 nextRefreshTimeReason = String.format("#2, timeLeft=%d", timeLeft);
                 nextRefreshTimeMs = nowTime + 60000;
-                nextTripReloadTimeMs = tripUpdatedAt + 120000;
+                nextTripReloadTimeMs = tripUpdatedAt + getTripReloadInterval(travelAlarmLegIndex, 120000);
             } else {
                 final Date prevEventLatestTime = tripRenderer.prevEventLatestTime;
                 final long prevEventLatestTimeValue = prevEventLatestTime != null ? prevEventLatestTime.getTime() : 0;
@@ -903,7 +973,7 @@ public class NavigationNotification {
                     // max 5 minutes after the beginning of the current action, 60 secs refresh interval
                     nextRefreshTimeReason = String.format("#3, timeLeft=%d, timeOver=%d, prevEventLatestTime=%s", timeLeft, timeOver, prevEventLatestTime);
                     nextRefreshTimeMs = nowTime + 60000;
-                    nextTripReloadTimeMs = nextRefreshTimeMs;
+                    nextTripReloadTimeMs = nowTime + getTripReloadInterval(travelAlarmLegIndex, 60000);
                 } else {
                     // approaching, refresh after 25% of the remaining time
                     nextRefreshTimeReason = String.format("#4, timeLeft=%d, timeOver=%d, prevEventLatestTime=%s", timeLeft, timeOver, prevEventLatestTime);
@@ -938,15 +1008,6 @@ public class NavigationNotification {
             remove();
             return false;
         }
-        final RemoteViews notificationLayout = new RemoteViews(context.getPackageName(), R.layout.navigation_notification);
-        setupNotificationView(notificationLayout, tripRenderer, now);
-        // final RemoteViews notificationLayoutExpanded = new RemoteViews(context.getPackageName(), R.layout.navigation_notification);
-        // setupNotificationView(context, notificationLayoutExpanded, tripRenderer, now, newNotified);
-        notificationLayout.setOnClickPendingIntent(R.id.navigation_notification_open_full,
-                getPendingActivityIntent(TripNavigatorActivity.DELETEREQUEST_NOT_REQUESTED,
-                        null, trip));
-        notificationLayout.setOnClickPendingIntent(R.id.navigation_notification_next_event,
-                getPendingActionIntent(ACTION_REFRESH, trip));
 
         final TripRenderer.NotificationData newNotified = tripRenderer.notificationData;
         boolean forceReminder = false;
@@ -962,7 +1023,8 @@ public class NavigationNotification {
             nextRefreshTimeReason = String.format("#7, nextRefreshTimeMs=%d, nextEventTimeLeftTo10MinsBoundaryMs=%d", nextRefreshTimeMs, nextEventTimeLeftTo10MinsBoundaryMs);
             nextRefreshTimeMs = nextEventTimeLeftTo10MinsBoundaryMs;
         }
-        if (lastNotified == null) {
+        final boolean isFirstNotification = lastNotified == null;
+        if (isFirstNotification) {
             log.info("first notification !!");
             addEventOutputNavigationStarted();
         }
@@ -1178,6 +1240,8 @@ public class NavigationNotification {
 
         newNotified.refreshNotificationRequiredAt = nextRefreshTimeMs;
         newNotified.refreshTripRequiredAt = nextTripReloadTimeMs;
+        newNotified.travelAlarmAt = travelAlarmAtMs > nowTime ? travelAlarmAtMs : 0;
+        NavigationScheduler.getInstance().schedule(notificationTag, newNotified);
 
         if (nextRefreshTimeMs > 0) {
             log.info("refreshing in {} secs at {} (reason: {}), reminder at {}, trip reload at {}",
@@ -1190,12 +1254,6 @@ public class NavigationNotification {
             log.info("stop refreshing");
         }
 
-        final Bundle extras = new Bundle();
-        extras.putByteArray(EXTRA_INTENTDATA, Objects.serialize(
-                new TripDetailsActivity.IntentData(intentData.network, trip, intentData.renderConfig)));
-        extras.putByteArray(EXTRA_LASTNOTIFIED, Objects.serialize(newNotified));
-        extras.putByteArray(EXTRA_CONFIGURATION, Objects.serialize(configuration));
-
         final ExtraData newExtraData = extraData != null ? Objects.clone(extraData) : new ExtraData(1 + trip.legs.size());
         newExtraData.refreshAllLegs = refreshAllLegs;
         if (travelAlarmIsForDeparture)
@@ -1212,6 +1270,90 @@ public class NavigationNotification {
             newExtraData.eventLogEntries = entries;
         }
 
+        newNotified.fingerprint = tripRenderer.getNotificationFingerprint();
+        final boolean postRequired = isFirstNotification
+                || aTrip != null // the trip is kept in the notification
+                || newNotified.fingerprint != lastNotified.fingerprint
+                || newEventLogEntriesSize > 0
+                || extraData == null
+                || newExtraData.refreshAllLegs != extraData.refreshAllLegs
+                || !Arrays.equals(newExtraData.currentTravelAlarmAtMsForLegDeparture,
+                        extraData.currentTravelAlarmAtMsForLegDeparture)
+                || !Arrays.equals(newExtraData.currentTravelAlarmAtMsForLegArrival,
+                        extraData.currentTravelAlarmAtMsForLegArrival)
+                || (!anyImportantIssues && reminderSoundId == SOUND_REMIND_VIA_NOTIFICATION);
+        if (postRequired) {
+            postNotification(trip, tripRenderer, now, duration, newNotified, newExtraData,
+                    anyImportantIssues ? 0 : reminderSoundId);
+            synchronized (unpostedNotified) {
+                unpostedNotified.remove(notificationTag);
+            }
+            numUpdatesPosted.incrementAndGet();
+        } else {
+            // the notification still shows the same, so just remember the new state until it is posted again
+            synchronized (unpostedNotified) {
+                unpostedNotified.put(notificationTag, newNotified);
+            }
+            log.info("notification with tag={} unchanged, not posting ({} updates skipped, {} posted)",
+                    notificationTag, numUpdatesSkipped.incrementAndGet(), numUpdatesPosted.get());
+        }
+
+        postEventNotifications(newEventNotifications);
+
+        if (anyImportantIssues) {
+            playAlarmSoundAndVibration(-1,
+                    SOUND_ALARM,
+                    VIBRATION_PATTERN_ALARM,
+                    newSpeakTexts,
+                    onRide,
+                    delaySoundUntil);
+        } else if (reminderSoundId != SOUND_REMIND_VIA_NOTIFICATION) {
+            if (reminderSoundId != 0 || !newSpeakTexts.isEmpty()) {
+                playAlarmSoundAndVibration(-1,
+                        reminderSoundId,
+                        reminderSoundId == 0 ? null : VIBRATION_PATTERN_REMIND,
+                        newSpeakTexts,
+                        onRide,
+                        delaySoundUntil);
+            } else if (speakPreview) {
+                // create and speak preview
+                addEventOutputReminder(nextEventTimeLeftMs, newNotified, trip, tripRenderer, true);
+                playAlarmSoundAndVibration(-1,
+                        SOUND_PREVIEW,
+                        null,
+                        newSpeakTexts,
+                        onRide,
+                        delaySoundUntil);
+            }
+        }
+
+        lastNotified = newNotified;
+        return anyImportantIssues || reminderSoundId != 0;
+    }
+
+    private void postNotification(
+            final Trip trip,
+            final TripRenderer tripRenderer,
+            final Date now,
+            final long duration,
+            final TripRenderer.NotificationData newNotified,
+            final ExtraData newExtraData,
+            final int reminderSoundId) {
+        final RemoteViews notificationLayout = new RemoteViews(context.getPackageName(), R.layout.navigation_notification);
+        setupNotificationView(notificationLayout, tripRenderer, now);
+        // final RemoteViews notificationLayoutExpanded = new RemoteViews(context.getPackageName(), R.layout.navigation_notification);
+        // setupNotificationView(context, notificationLayoutExpanded, tripRenderer, now, newNotified);
+        notificationLayout.setOnClickPendingIntent(R.id.navigation_notification_open_full,
+                getPendingActivityIntent(TripNavigatorActivity.DELETEREQUEST_NOT_REQUESTED,
+                        null, trip));
+        notificationLayout.setOnClickPendingIntent(R.id.navigation_notification_next_event,
+                getPendingActionIntent(ACTION_REFRESH, trip));
+
+        final Bundle extras = new Bundle();
+        extras.putByteArray(EXTRA_INTENTDATA, Objects.serialize(
+                new TripDetailsActivity.IntentData(intentData.network, trip, intentData.renderConfig)));
+        extras.putByteArray(EXTRA_LASTNOTIFIED, Objects.serialize(newNotified));
+        extras.putByteArray(EXTRA_CONFIGURATION, Objects.serialize(configuration));
         extras.putByteArray(EXTRA_DATA, Objects.serialize(newExtraData));
 
         final NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context, CHANNEL_ID_GUIDE)
@@ -1239,7 +1381,7 @@ public class NavigationNotification {
                 .setOngoing(true)
                 .setLocalOnly(true)
                 .setUsesChronometer(true)
-                .setWhen(nowTime)
+                .setWhen(now.getTime())
                 .setTimeoutAfter(duration)
                 .setExtras(extras)
                 .addAction(R.drawable.ic_clear_white_24dp, context.getString(R.string.navigation_opennav_shownextevent),
@@ -1252,9 +1394,7 @@ public class NavigationNotification {
                         getPendingActivityIntent(TripNavigatorActivity.DELETEREQUEST_ASK,
                                 TripDetailsActivity.Page.ITINERARY, trip));
 
-        if (anyImportantIssues) {
-            notificationBuilder.setSilent(true);
-        } else if (reminderSoundId == SOUND_REMIND_VIA_NOTIFICATION) {
+        if (reminderSoundId == SOUND_REMIND_VIA_NOTIFICATION) {
             notificationBuilder
                     .setSilent(!configuration.soundEnabled)
                     .setVibrate(VIBRATION_PATTERN_REMIND)
@@ -1269,38 +1409,6 @@ public class NavigationNotification {
                 == PackageManager.PERMISSION_GRANTED) {
             getNotificationManager(context).notify(notificationTag, 0, notification);
         }
-
-        postEventNotifications(newEventNotifications);
-
-        if (anyImportantIssues) {
-            playAlarmSoundAndVibration(-1,
-                    SOUND_ALARM,
-                    VIBRATION_PATTERN_ALARM,
-                    newSpeakTexts,
-                    onRide,
-                    delaySoundUntil);
-        } else if (reminderSoundId != SOUND_REMIND_VIA_NOTIFICATION) {
-            if (reminderSoundId != 0 || !newSpeakTexts.isEmpty()) {
-                playAlarmSoundAndVibration(-1,
-                        reminderSoundId,
-                        reminderSoundId == 0 ? null : VIBRATION_PATTERN_REMIND,
-                        newSpeakTexts,
-                        onRide,
-                        delaySoundUntil);
-            } else if (speakPreview) {
-                // create and speak preview
-                addEventOutputReminder(nextEventTimeLeftMs, newNotified, trip, tripRenderer, true);
-                playAlarmSoundAndVibration(-1,
-                        SOUND_PREVIEW,
-                        null,
-                        newSpeakTexts,
-                        onRide,
-                        delaySoundUntil);
-            }
-        }
-
-        lastNotified = newNotified;
-        return anyImportantIssues || reminderSoundId != 0;
     }
 
     private void playAlarmSoundAndVibration(
@@ -1334,6 +1442,32 @@ public class NavigationNotification {
 
     public void remove() {
         getNotificationManager(context).cancel(notificationTag, 0);
+        NavigationScheduler.getInstance().remove(notificationTag);
+        synchronized (tripRenderers) {
+            tripRenderers.remove(notificationTag);
+        }
+        synchronized (unpostedNotified) {
+            unpostedNotified.remove(notificationTag);
+        }
+    }
+
+    /**
+     * Returns the renderer of this guide, brought up to date with the given trip and time. Renderers are kept between
+     * updates, so the legs only need to be set up again if the structure of the trip changed.
+     */
+    private TripRenderer getTripRenderer(final Trip trip, final Date now) {
+        synchronized (tripRenderers) {
+            final TripRenderer tripRenderer = tripRenderers.get(notificationTag);
+            if (tripRenderer == null) {
+                final TripRenderer newTripRenderer = new TripRenderer(null, trip, false, now);
+                tripRenderers.put(notificationTag, newTripRenderer);
+                return newTripRenderer;
+            }
+            final BitSet changedLegs = tripRenderer.update(trip, now);
+            if (!changedLegs.isEmpty())
+                log.info("trip update changed legs {}", changedLegs);
+            return tripRenderer;
+        }
     }
 
     private PendingIntent getPendingActivityIntent(
@@ -1395,18 +1529,21 @@ public class NavigationNotification {
         return PendingIntent.getBroadcast(context, action, intent, PendingIntent.FLAG_IMMUTABLE);
     }
 
-    private long refresh() {
+    private long refresh(final long toleranceMs) {
         log.info("refreshing notification");
         final Date now = new Date();
         final long nowTime = now.getTime();
         final long refreshRequiredAt = lastNotified.refreshNotificationRequiredAt;
-        if (nowTime < refreshRequiredAt)
-            return refreshRequiredAt; // ignore multiple alarms in short time
+        if (nowTime + toleranceMs < refreshRequiredAt) {
+            // ignore multiple alarms in short time
+            NavigationScheduler.getInstance().schedule(notificationTag, lastNotified);
+            return refreshRequiredAt;
+        }
         Trip newTrip = null;
-        if (lastNotified.refreshTripRequiredAt > 0 && nowTime >= lastNotified.refreshTripRequiredAt) {
+        if (lastNotified.refreshTripRequiredAt > 0 && nowTime + toleranceMs >= lastNotified.refreshTripRequiredAt) {
             try {
                 log.info("refreshing trip");
-                final Navigator navigator = new Navigator(intentData.network, getTrip());
+                final Navigator navigator = new Navigator(intentData.network, getTrip(), getRefreshPolicy());
                 newTrip = navigator.refresh(extraData.refreshAllLegs, now);
             } catch (IOException e) {
                 log.error("error while refreshing trip", e);
@@ -1432,6 +1569,22 @@ public class NavigationNotification {
         return lastNotified.refreshNotificationRequiredAt;
     }
 
+    public AdaptiveRefreshPolicy getRefreshPolicy() {
+        if (extraData == null)
+            return new AdaptiveRefreshPolicy(1 + getTrip().legs.size());
+        if (extraData.refreshPolicy == null) // guide started before there was a refresh policy
+            extraData.refreshPolicy = new AdaptiveRefreshPolicy(extraData.currentTravelAlarmAtMsForLegDeparture.length);
+        return extraData.refreshPolicy;
+    }
+
+    /**
+     * @return the given fixed trip reload interval, scaled to the volatility of the leg of the next event
+     */
+    private long getTripReloadInterval(final int legIndex, final long fixedIntervalMs) {
+        final AdaptiveRefreshPolicy refreshPolicy = extraData != null ? extraData.refreshPolicy : null;
+        return refreshPolicy != null ? refreshPolicy.interval(legIndex, fixedIntervalMs) : fixedIntervalMs;
+    }
+
     private void setupNotificationView(
             final RemoteViews remoteViews,
             final TripRenderer tripRenderer, final Date now) {
@@ -0,0 +1,144 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.directions.navigation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Priority queue of the running navigation guides, by when each of them is due next. A guide has separate deadlines
+ * for rendering its notification again, reloading its trip and firing its travel alarm, and is due at the earliest
+ * of them. The refresh alarm only wakes the guides that are due, and guides due within
+ * {@link #COALESCE_TOLERANCE_MS} of each other are handled by the same alarm.
+ * <p>
+ * The queue is kept in memory only, so after the process has been restarted it needs to be primed by refreshing all
+ * guides once.
+ */
+public final class NavigationScheduler {
+    public static final long COALESCE_TOLERANCE_MS = 15000;
+
+    private static NavigationScheduler instance;
+
+    public static synchronized NavigationScheduler getInstance() {
+        if (instance == null)
+            instance = new NavigationScheduler();
+        return instance;
+    }
+
+    public static final class Entry {
+        public final String notificationTag;
+        public final long renderAt;
+        public final long reloadAt;
+        public final long travelAlarmAt;
+        public final long dueAt;
+
+        private Entry(final String notificationTag, final long renderAt, final long reloadAt,
+                final long travelAlarmAt) {
+            this.notificationTag = notificationTag;
+            this.renderAt = renderAt;
+            this.reloadAt = reloadAt;
+            this.travelAlarmAt = travelAlarmAt;
+            this.dueAt = earliest(earliest(renderAt, reloadAt), travelAlarmAt);
+        }
+
+        // zero means no deadline
+        private static long earliest(final long time1, final long time2) {
+            if (time1 <= 0)
+                return time2;
+            if (time2 <= 0)
+                return time1;
+            return Math.min(time1, time2);
+        }
+    }
+
+    private static final Comparator<Entry> BY_DUE_AT = (entry1, entry2) -> Long.compare(entry1.dueAt, entry2.dueAt);
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(BY_DUE_AT);
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean primed = false;
+
+    private NavigationScheduler() {
+    }
+
+    /**
+     * Sets the deadlines of a guide, replacing any it had before. A guide without any deadline is dropped.
+     */
+    public synchronized void schedule(final String notificationTag, final TripRenderer.NotificationData data) {
+        remove(notificationTag);
+        final Entry entry = new Entry(notificationTag, data.refreshNotificationRequiredAt,
+                data.refreshTripRequiredAt, data.travelAlarmAt);
+        if (entry.dueAt <= 0)
+            return;
+        entries.put(notificationTag, entry);
+        queue.add(entry);
+    }
+
+    public synchronized void remove(final String notificationTag) {
+        final Entry entry = entries.remove(notificationTag);
+        if (entry != null)
+            queue.remove(entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        queue.clear();
+    }
+
+    /**
+     * Takes the guides due until the given time off the queue. Refreshing a guide schedules it again.
+     *
+     * @return notification tags of the guides due, earliest first
+     */
+    public synchronized List<String> pollDue(final long until) {
+        final List<String> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().dueAt <= until) {
+            final Entry entry = queue.poll();
+            entries.remove(entry.notificationTag);
+            due.add(entry.notificationTag);
+        }
+        return due;
+    }
+
+    /**
+     * @return when the next guide is due, or {@link Long#MAX_VALUE} if none is
+     */
+    public synchronized long nextDueAt() {
+        return queue.isEmpty() ? Long.MAX_VALUE : queue.peek().dueAt;
+    }
+
+    public synchronized boolean isPrimed() {
+        return primed;
+    }
+
+    public synchronized void setPrimed() {
+        primed = true;
+    }
+
+    /**
+     * @return all scheduled guides, earliest due first
+     */
+    public synchronized List<Entry> getEntries() {
+        final List<Entry> sorted = new ArrayList<>(queue);
+        sorted.sort(BY_DUE_AT);
+        return sorted;
+    }
+}
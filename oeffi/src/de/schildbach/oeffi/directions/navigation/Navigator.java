@@ -41,11 +41,21 @@ public class Navigator {
 
     private final NetworkId network;
     private final Trip baseTrip;
+    private AdaptiveRefreshPolicy refreshPolicy;
     private Trip currentTrip;
 
-    public Navigator(final NetworkId network, final Trip trip) {
+    public Navigator(final NetworkId network, final Trip trip, final AdaptiveRefreshPolicy refreshPolicy) {
         this.network = network;
         baseTrip = trip;
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    public AdaptiveRefreshPolicy getRefreshPolicy() {
+        return refreshPolicy;
+    }
+
+    public void setRefreshPolicy(final AdaptiveRefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
     }
 
     public Trip getCurrentTrip() {
@@ -59,10 +69,13 @@ public class Navigator {
     public Trip refresh(final boolean forceRefreshAll, final Date now) throws IOException {
         final List<Trip.Leg> newLegs = new ArrayList<>();
         final Trip latestTrip = getCurrentTrip();
-        for (Trip.Leg leg : latestTrip.legs) {
+        final int numReloadsBefore = refreshPolicy.getNumReloads();
+        final double numFixedReloadsBefore = refreshPolicy.getNumFixedReloads();
+        for (int legIndex = 0; legIndex < latestTrip.legs.size(); legIndex++) {
+            final Trip.Leg leg = latestTrip.legs.get(legIndex);
             Trip.Leg newLeg = leg;
             if (leg instanceof Trip.Public) {
-                newLeg = updatePublicLeg((Trip.Public) leg, forceRefreshAll, now);
+                newLeg = updatePublicLeg(legIndex, (Trip.Public) leg, forceRefreshAll, now);
             }
             if (newLeg == null) {
                 // any error, then full trip is error
@@ -84,10 +97,16 @@ public class Navigator {
         // currentTrip.transferDetails = latestTrip.transferDetails; -- do not keep transfer details, they are outdated
         currentTrip.updatedAt = now;
 
+        final int numReloads = refreshPolicy.getNumReloads();
+        final double numFixedReloads = refreshPolicy.getNumFixedReloads();
+        log.info("reloaded {} legs where fixed intervals would have reloaded {}, trip {} so far: {} reloads, {} saved",
+                numReloads - numReloadsBefore, Math.round(numFixedReloads - numFixedReloadsBefore),
+                currentTrip.getUniqueId(), numReloads, Math.round(numFixedReloads - numReloads));
+
         return currentTrip;
     }
 
-    private Trip.Public updatePublicLeg(final Trip.Public oldLeg, final boolean forceRefresh, final Date now) throws IOException {
+    private Trip.Public updatePublicLeg(final int legIndex, final Trip.Public oldLeg, final boolean forceRefresh, final Date now) throws IOException {
         final NetworkProvider networkProvider = NetworkProviderFactory.provider(network);
         Trip.Public newLeg = oldLeg;
         final JourneyRef journeyRef = oldLeg.journeyRef;
@@ -99,58 +118,29 @@ public class Navigator {
             final long legEndMinTime = oldLeg.arrivalStop.getArrivalTime(true).getTime();
             final long legEndMaxTime = oldLeg.arrivalStop.getArrivalTime(false).getTime();
 
+            final long fixedInterval = getFixedRefreshInterval(oldLeg, nowTime);
+            final long approachingRefreshTime = getApproachingRefreshTime(oldLeg, nowTime);
             boolean doRefresh = forceRefresh;
             if (!doRefresh) {
-                final long nextEventTime;
-                long nextRefreshTimeA = Long.MAX_VALUE;
-                if (nowTime < legBeginMinTime) {
-                    // leg yet to begin
-                    nextEventTime = legBeginMinTime;
-                } else if (nowTime < legEndMaxTime) {
-                    // leg active
-                    if (nowTime < legBeginMaxTime + 300000) {
-                        // still within 5 minutes after begin
-                        nextRefreshTimeA = legLoadedAt + 60000;
-                    }
-                    nextEventTime = legEndMinTime;
-                } else {
-                    // leg over
-                    if (nowTime < legEndMaxTime + 300000) {
-                        // still within 5 minutes after end
-                        nextRefreshTimeA = legLoadedAt + 60000;
-                    }
-                    nextEventTime = 0;
-                }
-
-                long nextRefreshTime = Long.MAX_VALUE;
-                if (nextEventTime > 0) {
-                    final long timeLeft = nextEventTime - nowTime;
-                    if (timeLeft < 240000) {
-                        // last 4 minutes and after, 30 secs refresh interval
-                        nextRefreshTime = legLoadedAt + 30000;
-                    } else if (timeLeft < 600000) {
-                        // last 10 minutes and after, 60 secs refresh interval
-                        nextRefreshTime = legLoadedAt + 60000;
-                    } else {
-                        // approaching, refresh after 25% of the remaining time
-                        nextRefreshTime = nowTime + timeLeft / 4;
-                    }
-                }
-                if (nextRefreshTimeA < nextRefreshTime)
-                    nextRefreshTime = nextRefreshTimeA;
+                long nextRefreshTime = approachingRefreshTime;
+                if (fixedInterval > 0)
+                    nextRefreshTime = Math.min(nextRefreshTime,
+                            legLoadedAt + refreshPolicy.interval(legIndex, fixedInterval));
 
                 if (nextRefreshTime <= nowTime)
                     doRefresh = true;
 
                 if (doRefresh) {
-                    log.info("updating leg loaded {} secs ago, required since {} secs ago, begin at {}/{}, end at {}/{}",
+                    log.info("updating leg loaded {} secs ago, required since {} secs ago, volatility {} secs, begin at {}/{}, end at {}/{}",
                             (nowTime - legLoadedAt) / 1000, (nowTime - nextRefreshTime) / 1000,
+                            (long) refreshPolicy.getVolatilityMs(legIndex) / 1000,
                             LOG_TIME_FORMAT.format(new Date(legBeginMinTime)), LOG_TIME_FORMAT.format(new Date(legBeginMaxTime)),
                             LOG_TIME_FORMAT.format(new Date(legEndMinTime)), LOG_TIME_FORMAT.format(new Date(legEndMaxTime)));
                 } else {
                     oldLeg.updateDelayedUntil = new Date(nextRefreshTime);
-                    log.info("not updating leg loaded {} secs ago, required in {} secs, begin at {}/{}, end at {}/{}",
+                    log.info("not updating leg loaded {} secs ago, required in {} secs, volatility {} secs, begin at {}/{}, end at {}/{}",
                             (nowTime - legLoadedAt) / 1000, (nextRefreshTime - nowTime) / 1000,
+                            (long) refreshPolicy.getVolatilityMs(legIndex) / 1000,
                             LOG_TIME_FORMAT.format(new Date(legBeginMinTime)), LOG_TIME_FORMAT.format(new Date(legBeginMaxTime)),
                             LOG_TIME_FORMAT.format(new Date(legEndMinTime)), LOG_TIME_FORMAT.format(new Date(legEndMaxTime)));
                 }
@@ -165,6 +155,15 @@ public class Navigator {
                         && result.status == QueryJourneyResult.Status.OK
                         && result.journeyLeg != null) {
                     newLeg = buildUpdatedLeg(oldLeg, result.journeyLeg, now);
+                    refreshPolicy.onReloaded(legIndex, oldLeg, newLeg);
+                    // what the fixed intervals would have reloaded in the time since the previous reload; both
+                    // reload alike when forced or when approaching the next event
+                    final double numFixedReloads;
+                    if (forceRefresh || nowTime >= approachingRefreshTime)
+                        numFixedReloads = fixedInterval > 0 ? Math.max(1, (double) (nowTime - legLoadedAt) / fixedInterval) : 1;
+                    else
+                        numFixedReloads = (double) (nowTime - legLoadedAt) / fixedInterval;
+                    refreshPolicy.onFixedReloads(numFixedReloads);
                 } else {
                     // signal error
                     newLeg = null;
@@ -174,6 +173,74 @@ public class Navigator {
         return newLeg;
     }
 
+    /**
+     * @return fixed interval between reloads of the leg at the given time, or 0 if it is not reloaded in fixed
+     *         intervals
+     */
+    private static long getFixedRefreshInterval(final Trip.Public leg, final long nowTime) {
+        final long legBeginMinTime = leg.departureStop.getDepartureTime(true).getTime();
+        final long legBeginMaxTime = leg.departureStop.getDepartureTime(false).getTime();
+        final long legEndMinTime = leg.arrivalStop.getArrivalTime(true).getTime();
+        final long legEndMaxTime = leg.arrivalStop.getArrivalTime(false).getTime();
+
+        final long nextEventTime;
+        long interval = Long.MAX_VALUE;
+        if (nowTime < legBeginMinTime) {
+            // leg yet to begin
+            nextEventTime = legBeginMinTime;
+        } else if (nowTime < legEndMaxTime) {
+            // leg active
+            if (nowTime < legBeginMaxTime + 300000) {
+                // still within 5 minutes after begin
+                interval = 60000;
+            }
+            nextEventTime = legEndMinTime;
+        } else {
+            // leg over
+            if (nowTime < legEndMaxTime + 300000) {
+                // still within 5 minutes after end
+                interval = 60000;
+            }
+            nextEventTime = 0;
+        }
+
+        if (nextEventTime > 0) {
+            final long timeLeft = nextEventTime - nowTime;
+            if (timeLeft < 240000) {
+                // last 4 minutes and after, 30 secs refresh interval
+                interval = Math.min(interval, 30000);
+            } else if (timeLeft < 600000) {
+                // last 10 minutes and after, 60 secs refresh interval
+                interval = Math.min(interval, 60000);
+            }
+        }
+        return interval != Long.MAX_VALUE ? interval : 0;
+    }
+
+    /**
+     * @return when the leg approaching its next event is due to be reloaded, or {@link Long#MAX_VALUE} if it is not
+     *         approaching
+     */
+    private static long getApproachingRefreshTime(final Trip.Public leg, final long nowTime) {
+        final long legBeginMinTime = leg.departureStop.getDepartureTime(true).getTime();
+        final long legEndMinTime = leg.arrivalStop.getArrivalTime(true).getTime();
+        final long legEndMaxTime = leg.arrivalStop.getArrivalTime(false).getTime();
+
+        final long nextEventTime;
+        if (nowTime < legBeginMinTime)
+            nextEventTime = legBeginMinTime;
+        else if (nowTime < legEndMaxTime)
+            nextEventTime = legEndMinTime;
+        else
+            return Long.MAX_VALUE;
+
+        final long timeLeft = nextEventTime - nowTime;
+        if (timeLeft < 600000)
+            return Long.MAX_VALUE;
+        // approaching, refresh after 25% of the remaining time
+        return nowTime + timeLeft / 4;
+    }
+
     public static Trip.Public buildUpdatedLeg(Trip.Public initialLeg, Trip.Public journeyLeg, final Date loadedAt) {
         final List<Stop> journeyStops = new ArrayList<>();
         journeyStops.add(journeyLeg.departureStop);
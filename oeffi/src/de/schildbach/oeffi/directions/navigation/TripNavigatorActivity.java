@@ -157,6 +157,8 @@ public class TripNavigatorActivity extends TripDetailsActivity {
         handlePlayAlarm(intent);
 
         stillCheckForOtherNavigations = true;
+
+        getMapView().setPrefetchTrip(navigator.getCurrentTrip());
     }
 
     @Override
@@ -188,6 +190,13 @@ public class TripNavigatorActivity extends TripDetailsActivity {
         }
     }
 
+    @Override
+    public void onTripUpdated(final Trip updatedTrip) {
+        super.onTripUpdated(updatedTrip);
+        if (updatedTrip != null)
+            getMapView().setPrefetchTrip(updatedTrip);
+    }
+
     @Override
     protected boolean allowScreenLock() {
         return true;
@@ -195,8 +204,8 @@ public class TripNavigatorActivity extends TripDetailsActivity {
 
     @Override
     protected void setupFromTrip(final Trip trip) {
-        final Trip tripFromPresentNotification = new NavigationNotification(getIntent()).getTrip();
-        navigator = new Navigator(network, tripFromPresentNotification);
+        final NavigationNotification presentNotification = new NavigationNotification(getIntent());
+        navigator = new Navigator(network, presentNotification.getTrip(), presentNotification.getRefreshPolicy());
         super.setupFromTrip(navigator.getCurrentTrip());
     }
 
@@ -224,6 +233,7 @@ public class TripNavigatorActivity extends TripDetailsActivity {
     }
 
     private void stopNavigation() {
+        getMapView().setPrefetchTrip(null);
         NavigationNotification.remove(this, getIntent());
         finishAndRemoveTask();
     }
@@ -403,6 +413,9 @@ public class TripNavigatorActivity extends TripDetailsActivity {
 
         navigationRefreshRunnable = () -> {
             try {
+                // the guide keeps learning while in background, so continue from its policy rather than
+                // overwriting it with the one this activity started from
+                navigator.setRefreshPolicy(new NavigationNotification(getIntent()).getRefreshPolicy());
                 Trip updatedTrip = navigator.refresh(forceRefreshAll, new Date());
                 if (updatedTrip == null) {
                     handler.post(() -> new Toast(this).toast(R.string.toast_network_problem));
@@ -544,7 +557,7 @@ public class TripNavigatorActivity extends TripDetailsActivity {
         final NavigationNotification.Configuration configuration = Objects.clone(navigationNotification.getConfiguration());
         configuration.soundEnabled = soundEnabled;
         NavigationNotification.updateFromForeground(this, intent, trip, configuration,
-                () -> runOnUiThread(this::updateGUI));
+                Objects.clone(navigator.getRefreshPolicy()), () -> runOnUiThread(this::updateGUI));
     }
 
     @Override
@@ -21,19 +21,18 @@ import android.annotation.SuppressLint;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
 import de.schildbach.oeffi.Application;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.util.Formats;
-import de.schildbach.oeffi.util.GeoUtils;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.Point;
@@ -55,9 +54,10 @@ public class TripRenderer {
         public @Nullable Trip.Public initialLeg;
         public final LegContainer transferFrom;
         public final LegContainer transferTo;
-        public final boolean transferCritical;
-        public final boolean serviceCancelled;
-        public final TransferDetails transferDetails;
+        public boolean transferCritical;
+        public boolean serviceCancelled;
+        public TransferDetails transferDetails;
+        private int transferDetailsIndex = -1;
         public Point refPoint;
         public Date refTime;
         public Stop nearestStop;
@@ -67,6 +67,8 @@ public class TripRenderer {
         public boolean sectionIsAfterNearestStop; // otherwise is before
         public PTDate plannedTimeAtRefPoint;
         public Trip.Public simulatedPublicLeg;
+        private LegGeometry geometry; // of geometryLeg
+        private Trip.Public geometryLeg;
 
         public LegContainer(
                 final int legContainerIndex,
@@ -118,6 +120,14 @@ public class TripRenderer {
             }
         }
 
+        private LegGeometry getGeometry() {
+            if (geometryLeg != publicLeg) {
+                geometry = new LegGeometry(publicLeg);
+                geometryLeg = publicLeg;
+            }
+            return geometry;
+        }
+
         private void setRefPoint(final Point refPoint, final Date refTime) {
             this.refPoint = refPoint;
             this.refTime = refTime;
@@ -131,174 +141,151 @@ public class TripRenderer {
             if (refPoint == null)
                 return;
 
-            final Consumer<Consumer<Stop>> evalAllStops = consumer -> {
-                consumer.accept(publicLeg.departureStop);
-                if (publicLeg.intermediateStops != null) {
-                    for (final Stop intermediateStop : publicLeg.intermediateStops)
-                        consumer.accept(intermediateStop);
-                }
-                consumer.accept(publicLeg.arrivalStop);
-            };
-
-            // first step: nearest stop
-            evalAllStops.accept(stop -> {
-                if (stop.plannedArrivalTime == null && stop.plannedDepartureTime == null)
-                    return;
-                final Location location = stop.location;
-                if (!location.hasCoord())
-                    return;
-                final float distanceToRef = GeoUtils.distanceBetween(location.coord, refPoint).distanceInMeters;
+            final LegGeometry geometry = getGeometry();
+            final Stop[] stops = geometry.stops;
+            final double[] stopAlong = geometry.stopAlong;
+            final int numStops = stops.length;
+            if (numStops == 0)
+                return;
+            final double refAlong = geometry.locate(refPoint);
+
+            // first step: nearest stop, out of the two stops around the reference point along the path
+            final int iBefore = geometry.stopIndexBefore(refAlong);
+            int iNearest = -1;
+            for (int i = Math.max(iBefore, 0); i <= iBefore + 1 && i < numStops; i++) {
+                final float distanceToRef = geometry.distanceToStop(i, refPoint);
                 if (distanceToRef > distanceToNearestStop)
-                    return;
-                nearestStop = stop;
+                    continue;
+                iNearest = i;
                 distanceToNearestStop = distanceToRef;
-            });
+            }
+            nearestStop = stops[iNearest];
 
-            if (nearestStop == null)
+            if (numStops < 2)
                 return;
 
+            // second step: section of the path around the reference point, widened to at least 500 meters so that
+            // location inaccuracy doesn't dominate the interpolation
             final float MINIMUM_REQUIRED_DISTANCE = 500;
-            final Point nearestStopCoord = nearestStop.location.coord;
-
-            // second step: nearest other stop to the nearest stop that is at least 500 meters afar.
-            sectionIsAfterNearestStop = false;
-            evalAllStops.accept(new Consumer<Stop>() {
-                boolean isAfterNearestStop = false;
-                float minDist = Float.MAX_VALUE;
-                @Override
-                public void accept(final Stop stop) {
-                    if (stop.plannedArrivalTime == null && stop.plannedDepartureTime == null)
-                        return;
-                    final Location location = stop.location;
-                    if (!location.hasCoord())
-                        return;
-                    if (stop == nearestStop) {
-                        isAfterNearestStop = true;
-                        return;
-                    }
-                    final float distanceToNearest = GeoUtils.distanceBetween(location.coord, nearestStopCoord).distanceInMeters;
-                    if (distanceToNearest < MINIMUM_REQUIRED_DISTANCE)
-                        return;
-                    final float distanceToRef = GeoUtils.distanceBetween(location.coord, refPoint).distanceInMeters;
-                    if (distanceToRef > minDist)
-                        return;
-                    minDist = distanceToRef;
-                    sectionOtherStop = stop;
-                    sectionLength = distanceToNearest;
-                    sectionIsAfterNearestStop = isAfterNearestStop;
-                }
-            });
-
-            if (sectionOtherStop != null) {
-                final Stop beginStop, endStop;
-                final float beginDist;
-                if (sectionIsAfterNearestStop) {
-                    beginStop = nearestStop;
-                    endStop = sectionOtherStop;
-                    beginDist = distanceToNearestStop;
-                } else {
-                    beginStop = sectionOtherStop;
-                    endStop = nearestStop;
-                    beginDist = sectionLength - distanceToNearestStop;
-                }
-                final float distRel = beginDist / sectionLength; // should be between 0.0 and 1.0
-                if (distRel <= 0.0) {
-                    plannedTimeAtRefPoint = beginStop.plannedDepartureTime;
-                } else if (distRel >= 1.0) {
-                    plannedTimeAtRefPoint = endStop.plannedArrivalTime;
-                } else {
-                    final long beginTime = beginStop.plannedDepartureTime.getTime();
-                    final long endTime = endStop.plannedArrivalTime.getTime();
-                    plannedTimeAtRefPoint = new PTDate(
-                            new Date(beginTime + (long) (distRel * (float) (endTime - beginTime))),
-                            beginStop.plannedDepartureTime.getOffset());
-                }
+            int iBegin = Math.max(0, Math.min(iBefore, numStops - 2));
+            int iEnd = iBegin + 1;
+            while (stopAlong[iEnd] - stopAlong[iBegin] < MINIMUM_REQUIRED_DISTANCE) {
+                final boolean widenBackwards = refAlong - stopAlong[iBegin] < stopAlong[iEnd] - refAlong;
+                if (iBegin > 0 && (widenBackwards || iEnd == numStops - 1))
+                    iBegin--;
+                else if (iEnd < numStops - 1)
+                    iEnd++;
+                else
+                    break;
+            }
+            sectionIsAfterNearestStop = iNearest == iBegin;
+            sectionOtherStop = sectionIsAfterNearestStop ? stops[iEnd] : stops[iBegin];
+            sectionLength = (float) (stopAlong[iEnd] - stopAlong[iBegin]);
+
+            final Stop beginStop = stops[iBegin];
+            final Stop endStop = stops[iEnd];
+            final PTDate beginPlannedTime = beginStop.plannedDepartureTime != null
+                    ? beginStop.plannedDepartureTime : beginStop.plannedArrivalTime;
+            final PTDate endPlannedTime = endStop.plannedArrivalTime != null
+                    ? endStop.plannedArrivalTime : endStop.plannedDepartureTime;
+            final double distRel = sectionLength > 0
+                    ? (refAlong - stopAlong[iBegin]) / sectionLength : 0; // should be between 0.0 and 1.0
+            if (distRel <= 0.0) {
+                plannedTimeAtRefPoint = beginPlannedTime;
+            } else if (distRel >= 1.0) {
+                plannedTimeAtRefPoint = endPlannedTime;
+            } else {
+                final long beginTime = beginPlannedTime.getTime();
+                final long endTime = endPlannedTime.getTime();
+                plannedTimeAtRefPoint = new PTDate(
+                        new Date(beginTime + (long) (distRel * (endTime - beginTime))),
+                        beginPlannedTime.getOffset());
+            }
 
-                final long delayAtRefPoint = refTime.getTime() - plannedTimeAtRefPoint.getTime();
-//            if (delayAtRefPoint > 0) {
-                Stop departureStop = publicLeg.departureStop;
-                boolean delayedArrival = false;
-                if (departureStop == beginStop) {
-                    delayedArrival = true;
-                    final PTDate departureStopPlannedDepartureTime = departureStop.plannedDepartureTime;
-                    departureStop = new Stop(
-                            departureStop.location,
-                            departureStop.plannedArrivalTime, departureStop.predictedArrivalTime,
-                            departureStop.plannedArrivalPosition, departureStop.predictedArrivalPosition,
-                            departureStop.arrivalCancelled,
-                            departureStopPlannedDepartureTime,
-                            new PTDate(
-                                    departureStopPlannedDepartureTime.getTime() + delayAtRefPoint,
-                                    departureStopPlannedDepartureTime.getOffset()),
-                            departureStop.plannedDeparturePosition, departureStop.predictedDeparturePosition,
-                            departureStop.departureCancelled);
-                }
-                Stop arrivalStop = publicLeg.arrivalStop;
-                List<Stop> intermediateStops = publicLeg.intermediateStops;
-                if (arrivalStop != endStop && intermediateStops != null) {
-                    intermediateStops = new ArrayList<>();
-                    for (final Stop stop : publicLeg.intermediateStops) {
-                        PTDate predictedArrivalTime = stop.predictedArrivalTime;
-                        PTDate predictedDepartureTime = stop.predictedDepartureTime;
-                        final PTDate plannedArrivalTime = stop.plannedArrivalTime;
-                        final PTDate plannedDepartureTime = stop.plannedDepartureTime;
-                        final boolean delayedDeparture;
-                        if (plannedArrivalTime != null && plannedDepartureTime != null) {
-                            if (delayedArrival) {
-                                predictedArrivalTime = new PTDate(plannedArrivalTime.getTime() + delayAtRefPoint, plannedArrivalTime.getOffset());
-                                final long stopIntervalLength = plannedDepartureTime.getTime() - plannedArrivalTime.getTime();
-                                delayedDeparture = stopIntervalLength < 4 * 60000;
-                                if (delayedDeparture)
-                                    predictedDepartureTime = new PTDate(plannedDepartureTime.getTime() + delayAtRefPoint, plannedDepartureTime.getOffset());
-                            } else {
-                                delayedDeparture = false;
-                            }
+            final long delayAtRefPoint = refTime.getTime() - plannedTimeAtRefPoint.getTime();
+//        if (delayAtRefPoint > 0) {
+            Stop departureStop = publicLeg.departureStop;
+            boolean delayedArrival = false;
+            if (departureStop == beginStop) {
+                delayedArrival = true;
+                final PTDate departureStopPlannedDepartureTime = departureStop.plannedDepartureTime;
+                departureStop = new Stop(
+                        departureStop.location,
+                        departureStop.plannedArrivalTime, departureStop.predictedArrivalTime,
+                        departureStop.plannedArrivalPosition, departureStop.predictedArrivalPosition,
+                        departureStop.arrivalCancelled,
+                        departureStopPlannedDepartureTime,
+                        new PTDate(
+                                departureStopPlannedDepartureTime.getTime() + delayAtRefPoint,
+                                departureStopPlannedDepartureTime.getOffset()),
+                        departureStop.plannedDeparturePosition, departureStop.predictedDeparturePosition,
+                        departureStop.departureCancelled);
+            }
+            Stop arrivalStop = publicLeg.arrivalStop;
+            List<Stop> intermediateStops = publicLeg.intermediateStops;
+            if (arrivalStop != endStop && intermediateStops != null) {
+                intermediateStops = new ArrayList<>();
+                for (final Stop stop : publicLeg.intermediateStops) {
+                    PTDate predictedArrivalTime = stop.predictedArrivalTime;
+                    PTDate predictedDepartureTime = stop.predictedDepartureTime;
+                    final PTDate plannedArrivalTime = stop.plannedArrivalTime;
+                    final PTDate plannedDepartureTime = stop.plannedDepartureTime;
+                    final boolean delayedDeparture;
+                    if (plannedArrivalTime != null && plannedDepartureTime != null) {
+                        if (delayedArrival) {
+                            predictedArrivalTime = new PTDate(plannedArrivalTime.getTime() + delayAtRefPoint, plannedArrivalTime.getOffset());
+                            final long stopIntervalLength = plannedDepartureTime.getTime() - plannedArrivalTime.getTime();
+                            delayedDeparture = stopIntervalLength < 4 * 60000;
+                            if (delayedDeparture)
+                                predictedDepartureTime = new PTDate(plannedDepartureTime.getTime() + delayAtRefPoint, plannedDepartureTime.getOffset());
                         } else {
-                            delayedDeparture = true;
+                            delayedDeparture = false;
                         }
-                        intermediateStops.add(new Stop(
-                                stop.location,
-                                plannedArrivalTime,
-                                predictedArrivalTime,
-                                stop.plannedArrivalPosition, stop.predictedArrivalPosition,
-                                stop.arrivalCancelled,
-                                plannedDepartureTime,
-                                predictedDepartureTime,
-                                stop.plannedDeparturePosition, stop.predictedDeparturePosition,
-                                stop.departureCancelled));
-                        if (!delayedDeparture)
-                            delayedArrival = false;
-                        if (stop == beginStop)
-                            delayedArrival = true;
+                    } else {
+                        delayedDeparture = true;
                     }
+                    intermediateStops.add(new Stop(
+                            stop.location,
+                            plannedArrivalTime,
+                            predictedArrivalTime,
+                            stop.plannedArrivalPosition, stop.predictedArrivalPosition,
+                            stop.arrivalCancelled,
+                            plannedDepartureTime,
+                            predictedDepartureTime,
+                            stop.plannedDeparturePosition, stop.predictedDeparturePosition,
+                            stop.departureCancelled));
+                    if (!delayedDeparture)
+                        delayedArrival = false;
+                    if (stop == beginStop)
+                        delayedArrival = true;
                 }
-                final PTDate arrivalStopPlannedArrivalTime = arrivalStop.plannedArrivalTime;
-                arrivalStop = new Stop(
-                        arrivalStop.location,
-                        arrivalStopPlannedArrivalTime,
-                        delayedArrival
-                                ? new PTDate(
-                                    arrivalStopPlannedArrivalTime.getTime() + delayAtRefPoint,
-                                    arrivalStopPlannedArrivalTime.getOffset())
-                                : arrivalStop.predictedArrivalTime,
-                        arrivalStop.plannedArrivalPosition, arrivalStop.predictedArrivalPosition,
-                        arrivalStop.arrivalCancelled,
-                        arrivalStop.plannedDepartureTime, arrivalStop.predictedDepartureTime,
-                        arrivalStop.plannedDeparturePosition, arrivalStop.predictedDeparturePosition,
-                        arrivalStop.departureCancelled);
-
-                simulatedPublicLeg = new Trip.Public(
-                        publicLeg.line,
-                        publicLeg.destination,
-                        departureStop,
-                        arrivalStop,
-                        intermediateStops,
-                        publicLeg.path,
-                        publicLeg.message,
-                        publicLeg.journeyRef,
-                        refTime);
-//            }
             }
+            final PTDate arrivalStopPlannedArrivalTime = arrivalStop.plannedArrivalTime;
+            arrivalStop = new Stop(
+                    arrivalStop.location,
+                    arrivalStopPlannedArrivalTime,
+                    delayedArrival
+                            ? new PTDate(
+                                arrivalStopPlannedArrivalTime.getTime() + delayAtRefPoint,
+                                arrivalStopPlannedArrivalTime.getOffset())
+                            : arrivalStop.predictedArrivalTime,
+                    arrivalStop.plannedArrivalPosition, arrivalStop.predictedArrivalPosition,
+                    arrivalStop.arrivalCancelled,
+                    arrivalStop.plannedDepartureTime, arrivalStop.predictedDepartureTime,
+                    arrivalStop.plannedDeparturePosition, arrivalStop.predictedDeparturePosition,
+                    arrivalStop.departureCancelled);
+
+            simulatedPublicLeg = new Trip.Public(
+                    publicLeg.line,
+                    publicLeg.destination,
+                    departureStop,
+                    arrivalStop,
+                    intermediateStops,
+                    publicLeg.path,
+                    publicLeg.message,
+                    publicLeg.journeyRef,
+                    refTime);
+//        }
         }
     }
 
@@ -337,6 +324,7 @@ public class TripRenderer {
 
         public long refreshNotificationRequiredAt;
         public long refreshTripRequiredAt;
+        public long travelAlarmAt;
         public int currentLegCIndex;
         public boolean isTransfer;
         public Date eventTime;
@@ -350,9 +338,10 @@ public class TripRenderer {
         public boolean nextTransferCritical;
         public String transfersCritical;
         public long playedTravelAlarmId;
+        public long fingerprint;
     }
 
-    public final Trip trip;
+    public Trip trip;
     private final boolean isJourney;
 
     public List<LegContainer> legs = new ArrayList<>();
@@ -380,12 +369,17 @@ public class TripRenderer {
     }
 
     public void setRefPoint(final Point refPoint, final Date refTime) {
+        setRefPoint(refPoint, refTime, null);
+    }
+
+    private void setRefPoint(final Point refPoint, final Date refTime, final @Nullable BitSet onlyLegs) {
         this.refPoint = refPoint;
         this.refTime = refTime;
         nearestPublicLeg = null;
         float minDistance = Float.MAX_VALUE;
         for (final LegContainer leg : legs) {
-            leg.setRefPoint(refPoint, refTime);
+            if (onlyLegs == null || onlyLegs.get(leg.legContainerIndex))
+                leg.setRefPoint(refPoint, refTime);
             if (leg.nearestStop != null && leg.distanceToNearestStop < minDistance) {
                 nearestPublicLeg = leg;
                 minDistance = leg.distanceToNearestStop;
@@ -431,14 +425,13 @@ public class TripRenderer {
                 final LegContainer transferTo = (nextLeg instanceof Trip.Public)
                         ? new LegContainer(legs.size() + 1, iNext, (Trip.Public) nextLeg)
                         : null;
-                legs.add(new LegContainer(
+                final LegContainer individualC = new LegContainer(
                         legs.size(), iLeg, individualLeg,
                         transferFrom, transferTo,
                         isTransferCritical(individualLeg, transferFrom, transferTo),
-                        transferDetails != null
-                                && transferDetailsIndex >= 0
-                                && transferDetailsIndex < transferDetails.length
-                                ? transferDetails[transferDetailsIndex] : null));
+                        getTransferDetails(transferDetails, transferDetailsIndex));
+                individualC.transferDetailsIndex = transferDetailsIndex;
+                legs.add(individualC);
                 if (transferTo != null) {
                     setupPath(nextLeg);
                     legs.add(transferTo);
@@ -452,16 +445,16 @@ public class TripRenderer {
                 prevC = transferTo;
             } else if (leg instanceof Trip.Public) {
                 final Trip.Public publicLeg = (Trip.Public) leg;
-                final LegContainer newC = new LegContainer(legs.size() + 1, iLeg, publicLeg);
-                if (prevC != null || iLeg == 0 && !isJourney) {
-                    legs.add(new LegContainer(
+                final boolean withTransfer = prevC != null || iLeg == 0 && !isJourney;
+                final LegContainer newC = new LegContainer(legs.size() + (withTransfer ? 1 : 0), iLeg, publicLeg);
+                if (withTransfer) {
+                    final LegContainer transferC = new LegContainer(
                             legs.size(), -1, null,
                             prevC, newC,
                             isTransferCritical(null, prevC, newC),
-                            transferDetails != null
-                                    && transferDetailsIndex >= 0
-                                    && transferDetailsIndex < transferDetails.length
-                                    ? transferDetails[transferDetailsIndex] : null));
+                            getTransferDetails(transferDetails, transferDetailsIndex));
+                    transferC.transferDetailsIndex = transferDetailsIndex;
+                    legs.add(transferC);
                 }
                 legs.add(newC);
                 prevC = newC;
@@ -476,10 +469,139 @@ public class TripRenderer {
         }
     }
 
+    private static TransferDetails getTransferDetails(final TransferDetails[] transferDetails, final int index) {
+        return transferDetails != null && index >= 0 && index < transferDetails.length
+                ? transferDetails[index] : null;
+    }
+
+    /**
+     * Brings the renderer up to date with a reloaded version of its trip, then evaluates it by time again. As long as
+     * the legs still connect the same locations in the same way, the leg containers are kept and only get their legs
+     * and the transfer state derived from them replaced. Otherwise, they are set up from scratch.
+     *
+     * @return indices into {@link #legs} of the containers whose content changed, so views can be redrawn selectively
+     */
+    public BitSet update(final Trip trip, final Date now) {
+        final BitSet changedLegs = new BitSet(legs.size());
+        if (trip != this.trip) {
+            if (hasSameLegStructure(this.trip, trip)) {
+                applyLegs(trip, changedLegs);
+            } else {
+                legs = new ArrayList<>();
+                nearestPublicLeg = null;
+                setupFromTrip(trip);
+                changedLegs.set(0, legs.size());
+            }
+            this.trip = trip;
+            this.feasible = null;
+
+            if (refPoint != null && !changedLegs.isEmpty())
+                setRefPoint(refPoint, refTime, changedLegs);
+        }
+        evaluateByTime(now);
+        return changedLegs;
+    }
+
+    private static boolean hasSameLegStructure(final Trip trip, final Trip otherTrip) {
+        if (trip.legs.size() != otherTrip.legs.size())
+            return false;
+        for (int iLeg = 0; iLeg < trip.legs.size(); ++iLeg) {
+            final Trip.Leg leg = trip.legs.get(iLeg);
+            final Trip.Leg otherLeg = otherTrip.legs.get(iLeg);
+            if (leg.getClass() != otherLeg.getClass())
+                return false;
+            if (!new LegKey(leg).equals(new LegKey(otherLeg)))
+                return false;
+        }
+        return true;
+    }
+
+    private void applyLegs(final Trip trip, final BitSet changedLegs) {
+        // public legs first, as the transfers in between derive their state from them
+        for (final LegContainer legC : legs) {
+            if (legC.isTransfer())
+                continue;
+            final Trip.Public updatedLeg = (Trip.Public) trip.legs.get(legC.legIndex);
+            setupPath(updatedLeg);
+            if (isPublicLegChanged(legC.publicLeg, updatedLeg))
+                changedLegs.set(legC.legContainerIndex);
+            legC.publicLeg = updatedLeg;
+            legC.initialLeg = updatedLeg;
+            legC.serviceCancelled = updatedLeg.arrivalStop.arrivalCancelled
+                    || updatedLeg.departureStop.departureCancelled;
+        }
+
+        for (final LegContainer legC : legs) {
+            if (!legC.isTransfer())
+                continue;
+            boolean changed = (legC.transferFrom != null && changedLegs.get(legC.transferFrom.legContainerIndex))
+                    || (legC.transferTo != null && changedLegs.get(legC.transferTo.legContainerIndex));
+            if (legC.legIndex >= 0) {
+                final Trip.Individual updatedLeg = (Trip.Individual) trip.legs.get(legC.legIndex);
+                setupPath(updatedLeg);
+                changed |= isIndividualLegChanged(legC.individualLeg, updatedLeg);
+                legC.individualLeg = updatedLeg;
+            }
+            final boolean transferCritical = isTransferCritical(legC.individualLeg, legC.transferFrom, legC.transferTo);
+            final TransferDetails transferDetails = getTransferDetails(trip.transferDetails, legC.transferDetailsIndex);
+            changed |= transferCritical != legC.transferCritical || transferDetails != legC.transferDetails;
+            legC.transferCritical = transferCritical;
+            legC.transferDetails = transferDetails;
+            legC.serviceCancelled = (legC.transferFrom != null && legC.transferFrom.serviceCancelled)
+                    || (legC.transferTo != null && legC.transferTo.serviceCancelled);
+            if (changed)
+                changedLegs.set(legC.legContainerIndex);
+        }
+    }
+
+    private static boolean isPublicLegChanged(final Trip.Public leg, final Trip.Public updatedLeg) {
+        if (leg == updatedLeg)
+            return false;
+        if (!Objects.equals(leg.line, updatedLeg.line) || !Objects.equals(leg.message, updatedLeg.message))
+            return true;
+        if (isStopChanged(leg.departureStop, updatedLeg.departureStop)
+                || isStopChanged(leg.arrivalStop, updatedLeg.arrivalStop))
+            return true;
+        final List<Stop> stops = leg.intermediateStops;
+        final List<Stop> updatedStops = updatedLeg.intermediateStops;
+        if (stops == null || updatedStops == null)
+            return stops != updatedStops;
+        if (stops.size() != updatedStops.size())
+            return true;
+        for (int i = 0; i < stops.size(); i++)
+            if (isStopChanged(stops.get(i), updatedStops.get(i)))
+                return true;
+        return false;
+    }
+
+    private static boolean isStopChanged(final Stop stop, final Stop updatedStop) {
+        return !Objects.equals(stop.location.id, updatedStop.location.id)
+                || !Objects.equals(stop.plannedArrivalTime, updatedStop.plannedArrivalTime)
+                || !Objects.equals(stop.predictedArrivalTime, updatedStop.predictedArrivalTime)
+                || !Objects.equals(stop.plannedDepartureTime, updatedStop.plannedDepartureTime)
+                || !Objects.equals(stop.predictedDepartureTime, updatedStop.predictedDepartureTime)
+                || !Objects.equals(stop.plannedArrivalPosition, updatedStop.plannedArrivalPosition)
+                || !Objects.equals(stop.predictedArrivalPosition, updatedStop.predictedArrivalPosition)
+                || !Objects.equals(stop.plannedDeparturePosition, updatedStop.plannedDeparturePosition)
+                || !Objects.equals(stop.predictedDeparturePosition, updatedStop.predictedDeparturePosition)
+                || stop.arrivalCancelled != updatedStop.arrivalCancelled
+                || stop.departureCancelled != updatedStop.departureCancelled;
+    }
+
+    private static boolean isIndividualLegChanged(final Trip.Individual leg, final Trip.Individual updatedLeg) {
+        return leg.type != updatedLeg.type
+                || leg.min != updatedLeg.min
+                || leg.distance != updatedLeg.distance
+                || !Objects.equals(leg.departureTime, updatedLeg.departureTime)
+                || !Objects.equals(leg.arrivalTime, updatedLeg.arrivalTime);
+    }
+
     public void evaluateByTime(final Date now) {
         notificationData = new NotificationData();
         futureTransferCritical = false;
         servicesCancelled = false;
+        currentLeg = null;
+        clearNextEvent();
         setNextEventClock(now);
         boolean isCurrentOrFuture = false;
         int isCurrent = 1;
@@ -698,6 +820,36 @@ public class TripRenderer {
         return null;
     }
 
+    private void clearNextEvent() {
+        setNextEventType(false, false);
+        setNextEventActions(0, 0);
+        prevEventLatestTime = null;
+        nextEventEarliestTime = null;
+        nextEventEstimatedTime = null;
+        nextEventTimeLeftMs = 0;
+        nextEventTimeLeftValue = null;
+        nextEventTimeLeftUnit = null;
+        nextEventTimeLeftChronometerFormat = null;
+        nextEventTimeLeftCritical = false;
+        nextEventTimeHourglassVisible = false;
+        nextEventTimeLeftExplainStr = null;
+        nextEventTargetName = null;
+        setNextEventPositions(null, null, false, null, null, false);
+        setNextEventTransport(null);
+        nextEventChangeOverAvailable = false;
+        nextEventTransferAvailable = false;
+        nextEventTransferLeftTimeValue = null;
+        nextEventTransferLeftTimeFromNowValue = null;
+        nextEventTransferLeftTimeCritical = false;
+        nextEventTransferLeftTimeExtremelyCritical = false;
+        nextEventTransferExplain = null;
+        nextEventTransferWalkAvailable = false;
+        nextEventTransferWalkTimeValue = null;
+        nextEventTransferIconId = 0;
+        nextEventDepartureName = null;
+        nextPublicLegDurationTimeValue = null;
+    }
+
     public boolean nextEventTypeIsPublic;
     public boolean nextEventIsInitialIndividual;
 
@@ -957,4 +1109,85 @@ public class TripRenderer {
     public void setNextPublicLegDuration(final PTDate begin, final PTDate end) {
         this.nextPublicLegDurationTimeValue = Long.toString((end.getTime() - begin.getTime()) / 60000);
     }
+
+    /**
+     * Computes a fingerprint of what a navigation notification shows of the next event, together with the notification
+     * data it keeps, apart from the refresh deadlines. As long as the fingerprint stays the same, posting the
+     * notification again would not change anything.
+     */
+    public long getNotificationFingerprint() {
+        long h = FINGERPRINT_SEED;
+        h = fingerprint(h, nextEventTypeIsPublic);
+        h = fingerprint(h, nextEventCurrentStringId);
+        h = fingerprint(h, nextEventNextStringId);
+        h = fingerprint(h, nextEventTimeLeftValue);
+        h = fingerprint(h, nextEventTimeLeftUnit);
+        h = fingerprint(h, nextEventTimeLeftChronometerFormat);
+        if (nextEventTimeLeftChronometerFormat != null)
+            h = fingerprint(h, nextEventEstimatedTime);
+        h = fingerprint(h, nextEventTimeLeftCritical);
+        h = fingerprint(h, nextEventTimeHourglassVisible);
+        h = fingerprint(h, nextEventTimeLeftExplainStr);
+        h = fingerprint(h, nextEventTargetName);
+        h = fingerprint(h, nextEventPositionsAvailable);
+        h = fingerprint(h, nextEventArrivalPosName);
+        h = fingerprint(h, nextEventArrivalPosChanged);
+        h = fingerprint(h, nextEventDeparturePosName);
+        h = fingerprint(h, nextEventDeparturePosChanged);
+        h = fingerprint(h, nextEventStopChange);
+        h = fingerprint(h, nextEventTransferIconId);
+        if (nextEventTransportLine != null) {
+            h = fingerprint(h, nextEventTransportLine.label);
+            if (nextEventTransportLine.style != null) {
+                h = fingerprint(h, nextEventTransportLine.style.backgroundColor);
+                h = fingerprint(h, nextEventTransportLine.style.foregroundColor);
+            }
+        }
+        h = fingerprint(h, nextEventTransportDestinationName);
+        h = fingerprint(h, nextEventChangeOverAvailable);
+        h = fingerprint(h, nextEventTransferAvailable);
+        h = fingerprint(h, nextEventTransferLeftTimeValue);
+        h = fingerprint(h, nextEventTransferLeftTimeFromNowValue);
+        h = fingerprint(h, nextEventTransferLeftTimeCritical);
+        h = fingerprint(h, nextEventTransferExplain);
+        h = fingerprint(h, nextEventTransferWalkAvailable);
+        h = fingerprint(h, nextEventTransferWalkTimeValue);
+        h = fingerprint(h, nextEventDepartureName);
+        h = fingerprint(h, futureTransferCritical);
+        h = fingerprint(h, servicesCancelled);
+
+        final NotificationData data = notificationData;
+        if (data != null) {
+            h = fingerprint(h, data.currentLegCIndex);
+            h = fingerprint(h, data.isTransfer);
+            h = fingerprint(h, data.eventTime);
+            h = fingerprint(h, data.publicArrivalLegIndex);
+            h = fingerprint(h, data.publicDepartureLegIndex);
+            h = fingerprint(h, data.plannedEventTime);
+            h = fingerprint(h, data.departurePosition);
+            h = fingerprint(h, data.plannedDeparturePosition);
+            h = fingerprint(h, data.leftTimeReminded);
+            h = fingerprint(h, data.servicesCancelled);
+            h = fingerprint(h, data.nextTransferCritical);
+            h = fingerprint(h, data.transfersCritical);
+            h = fingerprint(h, data.playedTravelAlarmId);
+        }
+        return h;
+    }
+
+    // FNV-1a over the hash codes of the fingerprinted fields
+    private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+
+    private static long fingerprint(final long h, final long value) {
+        return (h ^ value) * FINGERPRINT_PRIME;
+    }
+
+    private static long fingerprint(final long h, final boolean value) {
+        return fingerprint(h, value ? 1 : 2);
+    }
+
+    private static long fingerprint(final long h, final Object value) {
+        return fingerprint(h, Objects.hashCode(value));
+    }
 }
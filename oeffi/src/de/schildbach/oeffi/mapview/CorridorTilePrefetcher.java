@@ -0,0 +1,330 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.mapview;
+
+import android.database.Cursor;
+import android.graphics.drawable.Drawable;
+import android.text.format.DateUtils;
+
+import org.osmdroid.tileprovider.modules.DatabaseFileArchive;
+import org.osmdroid.tileprovider.modules.IFilesystemCache;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.modules.TileDownloader;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.util.MapTileIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.Trip;
+
+/**
+ * Keeps the map tiles covering a corridor around every leg of a trip in osmdroid's tile cache, so the map keeps
+ * working in tunnels and dead spots along the route.
+ * <p>
+ * Tiles are handled at a few zoom levels, coarsest first and each in route order. They are pinned by giving them an
+ * expiration no earlier than the end of the trip: osmdroid's cache trims the tiles expiring first, and doesn't
+ * download a tile again before it has expired. Tiles already cached are pinned by writing them back with a later
+ * expiration, without downloading them. Missing tiles are only downloaded, until a byte budget is used up, if the
+ * tile source's usage policy allows preventive downloads. The OpenStreetMap standard tiles, for example, disallow
+ * them, so for these only the tiles already seen are kept.
+ * <p>
+ * Tiles are pinned with some slack beyond the end of the trip, so that a trip getting later by a few minutes doesn't
+ * make all of them due again.
+ */
+final class CorridorTilePrefetcher {
+    private static final int[] ZOOM_LEVELS = { 12, 14, 16 };
+    private static final double BUFFER_METERS = 300;
+    private static final long BUDGET_BYTES = 16 * 1024 * 1024;
+    private static final long PIN_MARGIN_MS = DateUtils.HOUR_IN_MILLIS;
+    private static final long PIN_SLACK_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+    private static final double EARTH_CIRCUMFERENCE_METERS = 2 * Math.PI * 6378137;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static final Logger log = LoggerFactory.getLogger(CorridorTilePrefetcher.class);
+
+    private CorridorTilePrefetcher() {
+    }
+
+    /**
+     * Starts prefetching the corridor of a trip, cancelling any prefetch still running. Tiles already pinned long
+     * enough are skipped, so calling this again for an updated trip is cheap.
+     *
+     * @return handle of this prefetch, for {@link #cancel(int)}
+     */
+    static int prefetch(final ITileSource tileSource, final Trip trip) {
+        final int prefetchGeneration = generation.incrementAndGet();
+
+        if (!(tileSource instanceof OnlineTileSourceBase))
+            return prefetchGeneration;
+        final OnlineTileSourceBase onlineTileSource = (OnlineTileSourceBase) tileSource;
+        final boolean mayDownload = onlineTileSource.getTileSourcePolicy().acceptsPreventive();
+        if (!mayDownload)
+            log.info("tile source {} does not allow prefetching, only pinning cached tiles", tileSource.name());
+
+        final List<double[]> legs = new ArrayList<>(trip.legs.size());
+        for (final Trip.Leg leg : trip.legs)
+            legs.add(mercator(leg));
+        final long lastArrivalTime = trip.getLastArrivalTime().getTime();
+        final long pinUntil = lastArrivalTime + PIN_MARGIN_MS;
+        final long pinnedEnough = pinUntil - PIN_SLACK_MS;
+
+        executor.execute(() -> {
+            if (generation.get() != prefetchGeneration)
+                return;
+            final SqlTileWriter cache = new SqlTileWriter();
+            final CountingTileWriter writer = new CountingTileWriter(cache);
+            final PinningTileDownloader downloader = new PinningTileDownloader(pinUntil);
+            int numDownloaded = 0, numPinned = 0, numSkipped = 0;
+            try {
+                zoomLevels: for (final int zoom : ZOOM_LEVELS) {
+                    if (zoom < onlineTileSource.getMinimumZoomLevel()
+                            || zoom > onlineTileSource.getMaximumZoomLevel())
+                        continue;
+
+                    final Set<Long> tiles = new LinkedHashSet<>();
+                    for (final double[] leg : legs)
+                        corridorTiles(leg, zoom, BUFFER_METERS, tiles);
+
+                    for (final long tile : tiles) {
+                        if (generation.get() != prefetchGeneration) {
+                            log.info("tile prefetch cancelled");
+                            return;
+                        }
+
+                        final Long expires = cache.getExpirationTimestamp(onlineTileSource, tile);
+                        if (expires != null) {
+                            if (expires >= pinnedEnough)
+                                numSkipped++;
+                            else if (pin(cache, onlineTileSource, tile, pinUntil))
+                                numPinned++;
+                            continue;
+                        }
+                        if (!mayDownload || writer.bytes >= BUDGET_BYTES)
+                            continue;
+                        try {
+                            if (downloader.downloadTile(tile, writer, onlineTileSource) != null)
+                                numDownloaded++;
+                        } catch (final Exception x) {
+                            log.info("problem prefetching tile {}: {}", MapTileIndex.toString(tile), x.toString());
+                        }
+                    }
+                }
+            } finally {
+                writer.onDetach();
+            }
+            log.info("prefetched {} tiles ({} bytes) along trip, pinned {} cached tiles, {} already pinned",
+                    numDownloaded, writer.bytes, numPinned, numSkipped);
+        });
+        return prefetchGeneration;
+    }
+
+    /**
+     * Cancels a running prefetch, unless it has been superseded by another one already. Tiles handled so far stay
+     * pinned.
+     *
+     * @param prefetchGeneration handle returned by {@link #prefetch(ITileSource, Trip)}
+     */
+    static void cancel(final int prefetchGeneration) {
+        generation.compareAndSet(prefetchGeneration, prefetchGeneration + 1);
+    }
+
+    /**
+     * Writes a cached tile back to the cache with the given expiration, without downloading it.
+     */
+    private static boolean pin(final SqlTileWriter cache, final ITileSource tileSource, final long tile,
+            final long pinUntil) {
+        final byte[] bytes;
+        try (final Cursor cursor = cache.getTileCursor(SqlTileWriter.getPrimaryKeyParameters(tile, tileSource),
+                new String[] { DatabaseFileArchive.COLUMN_TILE })) {
+            if (cursor == null || !cursor.moveToFirst())
+                return false;
+            bytes = cursor.getBlob(0);
+        } catch (final Exception x) {
+            log.info("problem pinning tile {}: {}", MapTileIndex.toString(tile), x.toString());
+            return false;
+        }
+        if (bytes == null)
+            return false;
+        return cache.saveFile(tileSource, tile, new ByteArrayInputStream(bytes), pinUntil);
+    }
+
+    private static double[] mercator(final Trip.Leg leg) {
+        final List<Point> path = leg.path;
+        if (path != null && !path.isEmpty()) {
+            final double[] mercator = new double[path.size() * 2];
+            for (int i = 0; i < path.size(); i++) {
+                final Point p = path.get(i);
+                mercator[i * 2] = ProjectedPath.mercatorX(p.getLonAsDouble());
+                mercator[i * 2 + 1] = ProjectedPath.mercatorY(p.getLatAsDouble());
+            }
+            return mercator;
+        }
+
+        // no path, so assume a straight line
+        final Location departure = leg.departure;
+        final Location arrival = leg.arrival;
+        if (!departure.hasCoord() || !arrival.hasCoord())
+            return new double[0];
+        return new double[] { ProjectedPath.mercatorX(departure.getLonAsDouble()),
+                ProjectedPath.mercatorY(departure.getLatAsDouble()),
+                ProjectedPath.mercatorX(arrival.getLonAsDouble()),
+                ProjectedPath.mercatorY(arrival.getLatAsDouble()) };
+    }
+
+    /**
+     * Collects the tiles of a zoom level that lie within a corridor around a polyline given in normalized Web
+     * Mercator, in order along the polyline.
+     */
+    static void corridorTiles(final double[] mercator, final int zoom, final double bufferMeters,
+            final Set<Long> tiles) {
+        final int numPoints = mercator.length / 2;
+        if (numPoints == 0)
+            return;
+        final int numTiles = 1 << zoom;
+        final double tileSize = 1.0 / numTiles;
+
+        for (int i = 0; i < numPoints; i++) {
+            final double x1 = mercator[i * 2];
+            final double y1 = mercator[i * 2 + 1];
+            final double buffer = bufferMeters / (EARTH_CIRCUMFERENCE_METERS * Math.cos(latitude(y1)));
+            if (i == numPoints - 1) {
+                addTiles(x1, y1, buffer, zoom, numTiles, tiles);
+                break;
+            }
+
+            // sample the segment densely enough that the buffered boxes overlap
+            final double x2 = mercator[i * 2 + 2];
+            final double y2 = mercator[i * 2 + 3];
+            final double step = Math.min(tileSize, buffer);
+            final int numSteps = Math.max(1, (int) Math.ceil(Math.hypot(x2 - x1, y2 - y1) / step));
+            for (int s = 0; s < numSteps; s++) {
+                final double f = (double) s / numSteps;
+                addTiles(x1 + (x2 - x1) * f, y1 + (y2 - y1) * f, buffer, zoom, numTiles, tiles);
+            }
+        }
+    }
+
+    private static void addTiles(final double x, final double y, final double buffer, final int zoom,
+            final int numTiles, final Set<Long> tiles) {
+        final int minTileX = tileIndex(x - buffer, numTiles);
+        final int maxTileX = tileIndex(x + buffer, numTiles);
+        final int minTileY = tileIndex(y - buffer, numTiles);
+        final int maxTileY = tileIndex(y + buffer, numTiles);
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++)
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++)
+                tiles.add(MapTileIndex.getTileIndex(zoom, tileX, tileY));
+    }
+
+    private static int tileIndex(final double coord, final int numTiles) {
+        return Math.max(0, Math.min(numTiles - 1, (int) Math.floor(coord * numTiles)));
+    }
+
+    private static double latitude(final double mercatorY) {
+        return Math.atan(Math.sinh(Math.PI * (1 - 2 * mercatorY)));
+    }
+
+    private static final class PinningTileDownloader extends TileDownloader {
+        private final long pinUntil;
+
+        PinningTileDownloader(final long pinUntil) {
+            this.pinUntil = pinUntil;
+        }
+
+        @Override
+        public long computeExpirationTime(final String httpExpiresHeader, final String httpCacheControlHeader,
+                final long now) {
+            return Math.max(super.computeExpirationTime(httpExpiresHeader, httpCacheControlHeader, now), pinUntil);
+        }
+    }
+
+    /**
+     * Passes tiles on to osmdroid's cache, counting the bytes written.
+     */
+    private static final class CountingTileWriter implements IFilesystemCache {
+        private final IFilesystemCache delegate;
+        long bytes = 0;
+
+        CountingTileWriter(final IFilesystemCache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean saveFile(final ITileSource tileSource, final long mapTileIndex, final InputStream stream,
+                final Long expirationTime) {
+            return delegate.saveFile(tileSource, mapTileIndex, new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b >= 0)
+                        bytes++;
+                    return b;
+                }
+
+                @Override
+                public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+                    final int n = super.read(buffer, offset, length);
+                    if (n > 0)
+                        bytes += n;
+                    return n;
+                }
+            }, expirationTime);
+        }
+
+        @Override
+        public boolean exists(final ITileSource tileSource, final long mapTileIndex) {
+            return delegate.exists(tileSource, mapTileIndex);
+        }
+
+        @Override
+        public void onDetach() {
+            delegate.onDetach();
+        }
+
+        @Override
+        public boolean remove(final ITileSource tileSource, final long mapTileIndex) {
+            return delegate.remove(tileSource, mapTileIndex);
+        }
+
+        @Override
+        public Long getExpirationTimestamp(final ITileSource tileSource, final long mapTileIndex) {
+            return delegate.getExpirationTimestamp(tileSource, mapTileIndex);
+        }
+
+        @Override
+        public Drawable loadTile(final ITileSource tileSource, final long mapTileIndex) throws Exception {
+            return delegate.loadTile(tileSource, mapTileIndex);
+        }
+    }
+}
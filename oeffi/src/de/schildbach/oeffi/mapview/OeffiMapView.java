@@ -32,6 +32,7 @@ import de.schildbach.oeffi.TripAware;
 import de.schildbach.oeffi.util.ZoomControls;
 import de.schildbach.oeffi.util.locationview.LocationView;
 import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.Trip;
 
 public class OeffiMapView extends FrameLayout {
     public static Provider provider = new OsmDroidOeffiMapView.Provider();
@@ -60,6 +61,7 @@ public class OeffiMapView extends FrameLayout {
                 final LocationView viewFromLocation,
                 final LocationView viewToLocation);
         void setTripAware(final TripAware tripAware);
+        void setPrefetchTrip(final Trip trip);
         void setAreaAware(final AreaAware areaAware);
         void setStationsAware(final StationsAware stationsAware);
         void zoomToStations(
@@ -156,6 +158,13 @@ public class OeffiMapView extends FrameLayout {
         viewImplementation.setTripAware(tripAware);
     }
 
+    /**
+     * Prefetches map tiles along the given trip for offline use, or stops prefetching if {@code null}.
+     */
+    public void setPrefetchTrip(final Trip trip) {
+        viewImplementation.setPrefetchTrip(trip);
+    }
+
     public void setAreaAware(final AreaAware areaAware) {
         viewImplementation.setAreaAware(areaAware);
     }
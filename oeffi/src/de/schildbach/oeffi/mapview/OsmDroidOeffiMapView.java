@@ -22,12 +22,13 @@ import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Path;
 import android.graphics.Path.FillType;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.location.Address;
 import android.util.AttributeSet;
+import android.util.LongSparseArray;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -43,6 +44,7 @@ import org.osmdroid.config.Configuration;
 import org.osmdroid.config.IConfigurationProvider;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.Projection;
 import org.osmdroid.views.overlay.Overlay;
@@ -52,8 +54,11 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import de.schildbach.oeffi.Application;
 import de.schildbach.oeffi.AreaAware;
@@ -65,12 +70,14 @@ import de.schildbach.oeffi.StationsAware;
 import de.schildbach.oeffi.TripAware;
 import de.schildbach.oeffi.stations.LineView;
 import de.schildbach.oeffi.stations.Station;
+import de.schildbach.oeffi.util.GeoGridIndex;
 import de.schildbach.oeffi.util.GeoUtils;
 import de.schildbach.oeffi.util.GeocoderThread;
 import de.schildbach.oeffi.util.ViewUtils;
 import de.schildbach.oeffi.util.ZoomControls;
 import de.schildbach.oeffi.util.locationview.LocationTextView;
 import de.schildbach.oeffi.util.locationview.LocationView;
+import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.Product;
@@ -110,6 +117,7 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
     private DeviceLocationAware locationAware = null;
     private AreaAware areaAware = null;
     private boolean firstLocation = true;
+    private int prefetchGeneration = 0; // of the tile prefetch started by this view, or 0
     private enum ZOOM_LOCK {
         NOT_LOCKED,
         LOCKED_TO_ALL,
@@ -120,6 +128,7 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
 
     private final int AREA_FILL_COLOR = Color.parseColor("#22000000");
     private final Animation zoomControlsAnimation;
+    private final DefaultOverlay defaultOverlay;
 
     public OsmDroidOeffiMapView(final Context context) {
         this(context, null);
@@ -145,7 +154,8 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
         setMinZoomLevel(Constants.MAP_MIN_ZOOM_LEVEL);
         setMaxZoomLevel(Constants.MAP_MAX_ZOOM_LEVEL);
 
-        getOverlayManager().add(new DefaultOverlay());
+        defaultOverlay = new DefaultOverlay();
+        getOverlayManager().add(defaultOverlay);
     }
 
     @Override
@@ -158,6 +168,7 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
 
     @Override
     public void onDestroy() {
+        cancelPrefetch();
     }
 
     @Override
@@ -184,9 +195,27 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
 
     public void setTripAware(final TripAware tripAware) {
         this.tripAware = tripAware;
+        final Trip trip = tripAware != null ? tripAware.getTrip() : null;
+        if (trip != null)
+            defaultOverlay.prepareTrip(trip);
         invalidate();
     }
 
+    public void setPrefetchTrip(final Trip trip) {
+        if (trip != null)
+            prefetchGeneration = CorridorTilePrefetcher.prefetch(getTileProvider().getTileSource(), trip);
+        else
+            cancelPrefetch();
+    }
+
+    // only cancels a prefetch started by this view, as the prefetcher is shared by all views
+    private void cancelPrefetch() {
+        if (prefetchGeneration != 0) {
+            CorridorTilePrefetcher.cancel(prefetchGeneration);
+            prefetchGeneration = 0;
+        }
+    }
+
     public void setStationsAware(final StationsAware stationsAware) {
         this.stationsAware = stationsAware;
         invalidate();
@@ -366,6 +395,13 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
         return getTileProvider().getTileSource().getCopyrightNotice();
     }
 
+    private static final double STATIONS_VIEWPORT_MARGIN = 0.1;
+
+    private static final class StationCluster {
+        Station station;
+        int count;
+    }
+
     public class DefaultOverlay extends Overlay {
         final float stationFontSize;
         final float tripStrokeWidth;
@@ -391,6 +427,28 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
         final Drawable stationCablecarIcon = drawableCenter(R.drawable.product_cablecar_color_22dp, 2);
         final Drawable stationCallIcon = drawableCenter(R.drawable.product_call_color_22dp, 2);
 
+        private final Paint areaPaint = new Paint();
+        private final Paint pathPaint = new Paint();
+        private final android.graphics.Point point = new android.graphics.Point();
+        private final GeoPoint geoPoint = new GeoPoint(0.0, 0.0);
+
+        // projected geometry and label views, kept for as long as they are drawn in consecutive frames
+        private Map<Object, ProjectedPath> projectedPaths = new IdentityHashMap<>();
+        private Map<Object, ProjectedPath> drawnProjectedPaths = new IdentityHashMap<>();
+        private Map<Line, LineView> lineViews = new HashMap<>();
+        private Map<Line, LineView> drawnLineViews = new HashMap<>();
+        private Point fromViaToPathFrom, fromViaToPathVia, fromViaToPathTo;
+        private ProjectedPath fromViaToPath;
+        private Location bubbleLocation;
+        private TextView bubble;
+
+        // stations in the viewport and their clusters, reused from frame to frame
+        private final List<Station> visibleStations = new ArrayList<>();
+        private final LongSparseArray<StationCluster> stationClusters = new LongSparseArray<>();
+        private final List<StationCluster> stationClusterPool = new ArrayList<>();
+        private final Paint clusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        private final Paint clusterTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
         private DefaultOverlay() {
             final Resources res = getContext().getResources();
 
@@ -399,84 +457,84 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
             tripStrokeWidthSelected = res.getDimension(R.dimen.map_trip_stroke_width_selected);
             tripStrokeWidthSelectedGlow = res.getDimension(R.dimen.map_trip_stroke_width_selected_glow);
             bubbleTextColor = res.getColor(R.color.fg_significant_on_light);
+
+            areaPaint.setAntiAlias(true);
+            areaPaint.setStyle(Paint.Style.FILL);
+            areaPaint.setColor(AREA_FILL_COLOR);
+
+            pathPaint.setAntiAlias(true);
+            pathPaint.setStyle(Paint.Style.STROKE);
+            pathPaint.setStrokeJoin(Paint.Join.ROUND);
+            pathPaint.setStrokeCap(Paint.Cap.ROUND);
+
+            clusterPaint.setStyle(Paint.Style.FILL);
+            clusterPaint.setColor(Color.DKGRAY);
+
+            clusterTextPaint.setColor(Color.WHITE);
+            clusterTextPaint.setTextSize(stationFontSize * 0.7f);
+            clusterTextPaint.setTypeface(Typeface.DEFAULT_BOLD);
+            clusterTextPaint.setTextAlign(Paint.Align.CENTER);
         }
+
         @Override
         public void draw(final Canvas canvas, final MapView mapView, final boolean shadow) {
             if (!shadow) {
                 final Projection projection = mapView.getProjection();
-                final android.graphics.Point point = new android.graphics.Point();
 
                 if (areaAware != null) {
                     final Point[] area = areaAware.getArea();
-                    if (area != null) {
-                        final Paint paint = new Paint();
-                        paint.setAntiAlias(true);
-                        paint.setStyle(Paint.Style.FILL);
-                        paint.setColor(AREA_FILL_COLOR);
-
-                        final Path path = pointsToPath(projection, area);
-                        path.close();
-
-                        path.setFillType(FillType.INVERSE_WINDING);
-
-                        canvas.drawPath(path, paint);
-                    }
+                    if (area != null)
+                        projectedArea(area).draw(canvas, projection, areaPaint, 0, geoPoint, point, mapView);
                 }
 
                 if (fromViaToAware != null) {
-                    final List<Point> path = new ArrayList<>(3);
                     final Point from = fromViaToAware.getFrom();
-                    if (from != null)
-                        path.add(from);
                     final Point via = fromViaToAware.getVia();
-                    if (via != null)
-                        path.add(via);
                     final Point to = fromViaToAware.getTo();
-                    if (to != null)
-                        path.add(to);
-
-                    if (path.size() >= 2) {
-                        final Paint paint = new Paint();
-                        paint.setAntiAlias(true);
-                        paint.setStyle(Paint.Style.STROKE);
-                        paint.setStrokeJoin(Paint.Join.ROUND);
-                        paint.setStrokeCap(Paint.Cap.ROUND);
-
-                        paint.setColor(Color.DKGRAY);
-                        paint.setAlpha(92);
-                        paint.setStrokeWidth(tripStrokeWidth);
-                        canvas.drawPath(pointsToPath(projection, path), paint);
+
+                    if (from != fromViaToPathFrom || via != fromViaToPathVia || to != fromViaToPathTo) {
+                        final List<Point> path = new ArrayList<>(3);
+                        if (from != null)
+                            path.add(from);
+                        if (via != null)
+                            path.add(via);
+                        if (to != null)
+                            path.add(to);
+                        fromViaToPath = path.size() >= 2 ? new ProjectedPath(path, false, FillType.WINDING) : null;
+                        fromViaToPathFrom = from;
+                        fromViaToPathVia = via;
+                        fromViaToPathTo = to;
+                    }
+
+                    if (fromViaToPath != null) {
+                        pathPaint.setColor(Color.DKGRAY);
+                        pathPaint.setAlpha(92);
+                        fromViaToPath.draw(canvas, projection, pathPaint, tripStrokeWidth, geoPoint, point, mapView);
                     }
 
                     if (from != null) {
-                        projection.toPixels(new GeoPoint(from.getLatAsDouble(), from.getLonAsDouble()), point);
+                        toPixels(projection, from);
                         drawAt(canvas, startIcon, point.x, point.y, false, 0);
                     }
 
                     if (to != null) {
-                        projection.toPixels(new GeoPoint(to.getLatAsDouble(), to.getLonAsDouble()), point);
+                        toPixels(projection, to);
                         drawAt(canvas, endIcon, point.x, point.y, false, 0);
                     }
                 }
 
                 if (tripAware != null) {
                     final Trip trip = tripAware.getTrip();
-
-                    final Paint paint = new Paint();
-                    paint.setAntiAlias(true);
-                    paint.setStyle(Paint.Style.STROKE);
-                    paint.setStrokeJoin(Paint.Join.ROUND);
-                    paint.setStrokeCap(Paint.Cap.ROUND);
+                    final Paint paint = pathPaint;
 
                     // first paint all unselected legs
                     for (final Leg leg : trip.legs) {
                         if (!tripAware.isSelectedLeg(leg)) {
-                            final Path path = pointsToPath(projection, leg.path);
+                            final ProjectedPath path = projectedLine(leg.path);
 
                             paint.setColor(leg instanceof Public ? Color.MAGENTA : Color.DKGRAY);
                             paint.setAlpha(92);
-                            paint.setStrokeWidth(tripStrokeWidth);
-                            canvas.drawPath(path, paint);
+                            path.draw(canvas, projection, paint, tripStrokeWidth, geoPoint, point, mapView);
                         }
                     }
 
@@ -484,17 +542,16 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                     for (final Leg leg : trip.legs) {
                         if (tripAware.isSelectedLeg(leg)) {
                             final List<Point> points = leg.path;
-                            final Path path = pointsToPath(projection, points);
+                            final ProjectedPath path = projectedLine(points);
 
                             paint.setColor(Color.GREEN);
                             paint.setAlpha(92);
-                            paint.setStrokeWidth(tripStrokeWidthSelectedGlow);
-                            canvas.drawPath(path, paint);
+                            path.draw(canvas, projection, paint, tripStrokeWidthSelectedGlow, geoPoint, point,
+                                    mapView);
 
                             paint.setColor(leg instanceof Public ? Color.RED : Color.DKGRAY);
                             paint.setAlpha(128);
-                            paint.setStrokeWidth(tripStrokeWidthSelected);
-                            canvas.drawPath(path, paint);
+                            path.draw(canvas, projection, paint, tripStrokeWidthSelected, geoPoint, point, mapView);
 
                             if (leg instanceof Public && !points.isEmpty()) {
                                 final Public publicLeg = (Public) leg;
@@ -517,12 +574,10 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                                     lat = 0;
                                     lon = 0;
                                 }
-                                projection.toPixels(new GeoPoint(lat, lon), point);
+                                geoPoint.setCoords(lat, lon);
+                                projection.toPixels(geoPoint, point);
 
-                                final LineView lineView = (LineView) LayoutInflater.from(getContext()).inflate(R.layout.map_trip_line, null);
-                                lineView.setLine(publicLeg.line);
-                                lineView.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
-                                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                                final LineView lineView = lineView(publicLeg.line);
                                 final int width = lineView.getMeasuredWidth();
                                 final int height = lineView.getMeasuredHeight();
                                 lineView.layout(point.x - width / 2, point.y - height / 2, point.x + width / 2,
@@ -547,32 +602,22 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                             final Point lastPoint = leg.path.get(leg.path.size() - 1);
 
                             if (firstPoint == lastPoint) {
-                                projection.toPixels(
-                                        new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                        point);
+                                toPixels(projection, firstPoint);
                                 drawAt(canvas, startIcon, point.x, point.y, false, 0);
                             } else if (leg == firstLeg || leg == lastLeg) {
                                 if (leg == firstLeg) {
-                                    projection.toPixels(
-                                            new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                            point);
+                                    toPixels(projection, firstPoint);
                                     drawAt(canvas, startIcon, point.x, point.y, false, 0);
                                 }
 
                                 if (leg == lastLeg) {
-                                    projection.toPixels(
-                                            new GeoPoint(lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble()),
-                                            point);
+                                    toPixels(projection, lastPoint);
                                     drawAt(canvas, endIcon, point.x, point.y, false, 0);
                                 }
                             } else {
-                                projection.toPixels(
-                                        new GeoPoint(firstPoint.getLatAsDouble(), firstPoint.getLonAsDouble()),
-                                        point);
+                                toPixels(projection, firstPoint);
                                 drawAt(canvas, pointIcon, point.x, point.y, false, 0);
-                                projection.toPixels(
-                                        new GeoPoint(lastPoint.getLatAsDouble(), lastPoint.getLonAsDouble()),
-                                        point);
+                                toPixels(projection, lastPoint);
                                 drawAt(canvas, pointIcon, point.x, point.y, false, 0);
                             }
                         }
@@ -582,16 +627,13 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                 if (locationAware != null) {
                     final Point deviceLocation = locationAware.getDeviceLocation();
                     if (deviceLocation != null) {
-                        projection.toPixels(
-                                new GeoPoint(deviceLocation.getLatAsDouble(), deviceLocation.getLonAsDouble()),
-                                point);
+                        toPixels(projection, deviceLocation);
                         drawAt(canvas, deviceLocationIcon, point.x, point.y, false, 0);
                     }
 
                     final Location referenceLocation = locationAware.getReferenceLocation();
                     if (referenceLocation != null) {
-                        projection.toPixels(new GeoPoint(referenceLocation.getLatAsDouble(),
-                                referenceLocation.getLonAsDouble()), point);
+                        toPixels(projection, referenceLocation.getLatAsDouble(), referenceLocation.getLonAsDouble());
                         drawAt(canvas, referenceLocationIcon, point.x, point.y, false, 0);
                     }
                 }
@@ -599,58 +641,25 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                 if (stationsAware != null) {
                     final List<Station> stations = stationsAware.getStations();
                     if (stations != null) {
-                        Station selectedStation = null;
-
-                        for (final Station station : stations) {
-                            if (station.location.hasCoord()) {
-                                projection.toPixels(new GeoPoint(station.location.getLatAsDouble(),
-                                        station.location.getLonAsDouble()), point);
-
-                                if (stationsAware.isSelectedStation(station.location.id))
-                                    selectedStation = station;
-
-                                final Drawable iconDrawable;
-                                final Product product = station.getRelevantProduct();
-                                if (product == null)
-                                    iconDrawable = stationDefaultIcon;
-                                else if (product == Product.HIGH_SPEED_TRAIN)
-                                    iconDrawable = stationHighspeedIcon;
-                                else if (product == Product.REGIONAL_TRAIN)
-                                    iconDrawable = stationTrainIcon;
-                                else if (product == Product.SUBURBAN_TRAIN)
-                                    iconDrawable = stationSuburbanIcon;
-                                else if (product == Product.SUBWAY)
-                                    iconDrawable = stationSubwayIcon;
-                                else if (product == Product.TRAM)
-                                    iconDrawable = stationTramIcon;
-                                else if (product == Product.BUS)
-                                    iconDrawable = stationBusIcon;
-                                else if (product == Product.FERRY)
-                                    iconDrawable = stationFerryIcon;
-                                else if (product == Product.CABLECAR)
-                                    iconDrawable = stationCablecarIcon;
-                                else if (product == Product.ON_DEMAND)
-                                    iconDrawable = stationCallIcon;
-                                else if (product == Product.REPLACEMENT_SERVICE)
-                                    iconDrawable = stationBusIcon;
-                                else
-                                    iconDrawable = stationDefaultIcon;
-                                drawAt(canvas, iconDrawable, point.x, point.y, false, 0);
-                            }
+                        cullStations(projection, stations, stationsAware.getStationsIndex());
+                        final Station selectedStation = clusterStations(projection.getZoomLevel());
+
+                        for (int i = 0; i < stationClusters.size(); i++) {
+                            final StationCluster cluster = stationClusters.valueAt(i);
+                            toPixels(projection, cluster.station.location.getLatAsDouble(),
+                                    cluster.station.location.getLonAsDouble());
+                            final Drawable iconDrawable = stationIcon(cluster.station.getRelevantProduct());
+                            drawAt(canvas, iconDrawable, point.x, point.y, false, 0);
+                            if (cluster.count > 1)
+                                drawClusterBadge(canvas, iconDrawable, cluster.count);
                         }
 
                         if (selectedStation != null) {
-                            projection.toPixels(new GeoPoint(selectedStation.location.getLatAsDouble(),
-                                    selectedStation.location.getLonAsDouble()), point);
-                            final TextView bubble = new TextView(getContext());
-                            bubble.setBackgroundResource(R.drawable.popup_dir_pointer_button);
-                            bubble.setText(selectedStation.location.name);
-                            bubble.setTypeface(Typeface.DEFAULT_BOLD);
-                            bubble.setTextSize(TypedValue.COMPLEX_UNIT_PX, stationFontSize);
-                            bubble.setTextColor(bubbleTextColor);
-                            bubble.setIncludeFontPadding(false);
-                            bubble.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
-                                    MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                            toPixels(projection, selectedStation.location.getLatAsDouble(),
+                                    selectedStation.location.getLonAsDouble());
+                            drawAt(canvas, stationIcon(selectedStation.getRelevantProduct()), point.x, point.y,
+                                    false, 0);
+                            final TextView bubble = bubble(selectedStation.location);
                             final int width = bubble.getMeasuredWidth();
                             final int height = bubble.getMeasuredHeight();
                             bubble.layout(point.x - width / 2, point.y - height / 2, point.x + width / 2,
@@ -665,41 +674,224 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                         }
                     }
                 }
+
+                // forget what was not drawn this frame
+                final Map<Object, ProjectedPath> projectedPaths = this.projectedPaths;
+                projectedPaths.clear();
+                this.projectedPaths = drawnProjectedPaths;
+                this.drawnProjectedPaths = projectedPaths;
+                final Map<Line, LineView> lineViews = this.lineViews;
+                lineViews.clear();
+                this.lineViews = drawnLineViews;
+                this.drawnLineViews = lineViews;
             }
         }
 
-        private Path pointsToPath(final Projection projection, final List<Point> points) {
-            final Path path = new Path();
-            path.incReserve(points.size());
+        /**
+         * Collects the stations within the viewport, plus a margin so that icons straddling its edge are drawn.
+         */
+        private void cullStations(final Projection projection, final List<Station> stations,
+                final GeoGridIndex<Station> index) {
+            visibleStations.clear();
+            final BoundingBox box = projection.getBoundingBox();
+            final double latMargin = box.getLatitudeSpan() * STATIONS_VIEWPORT_MARGIN;
+            final double lonMargin = box.getLongitudeSpanWithDateLine() * STATIONS_VIEWPORT_MARGIN;
+            final int minLatE6 = (int) (Math.max(box.getLatSouth() - latMargin, -90) * 1E6);
+            final int maxLatE6 = (int) (Math.min(box.getLatNorth() + latMargin, 90) * 1E6);
+            final int westE6 = (int) (Math.max(box.getLonWest() - lonMargin, -180) * 1E6);
+            final int eastE6 = (int) (Math.min(box.getLonEast() + lonMargin, 180) * 1E6);
+            final boolean crossesDateLine = westE6 > eastE6;
+
+            if (index != null) {
+                if (!crossesDateLine) {
+                    index.within(minLatE6, westE6, maxLatE6, eastE6, visibleStations);
+                } else {
+                    index.within(minLatE6, westE6, maxLatE6, 180000000, visibleStations);
+                    index.within(minLatE6, -180000000, maxLatE6, eastE6, visibleStations);
+                }
+            } else {
+                for (final Station station : stations) {
+                    if (!station.location.hasCoord())
+                        continue;
+                    final int latE6 = station.location.getLatAs1E6();
+                    final int lonE6 = station.location.getLonAs1E6();
+                    if (latE6 < minLatE6 || latE6 > maxLatE6)
+                        continue;
+                    if (crossesDateLine ? lonE6 >= westE6 || lonE6 <= eastE6 : lonE6 >= westE6 && lonE6 <= eastE6)
+                        visibleStations.add(station);
+                }
+            }
+        }
+
+        /**
+         * Groups the visible stations into cells about the size of a station icon, in world pixels at the given zoom
+         * so that clusters stay put while panning. Each cell is drawn as its most relevant station, with a count
+         * badge if it holds more than one.
+         *
+         * @return the selected station if visible, which is left out of the clusters
+         */
+        private Station clusterStations(final double zoom) {
+            stationClusters.clear();
+            final double worldSize = TileSystem.MapSize(zoom);
+            final double cellSize = Math.max(stationDefaultIcon.getBounds().width(), 1);
+            Station selectedStation = null;
+            int numClusters = 0;
+
+            for (final Station station : visibleStations) {
+                if (stationsAware.isSelectedStation(station.location.id)) {
+                    selectedStation = station;
+                    continue;
+                }
+
+                final long cellX = (long) Math.floor(
+                        ProjectedPath.mercatorX(station.location.getLonAsDouble()) * worldSize / cellSize);
+                final long cellY = (long) Math.floor(
+                        ProjectedPath.mercatorY(station.location.getLatAsDouble()) * worldSize / cellSize);
+                final long cell = (cellX << 32) | (cellY & 0xffffffffL);
+                StationCluster cluster = stationClusters.get(cell);
+                if (cluster == null) {
+                    if (numClusters == stationClusterPool.size())
+                        stationClusterPool.add(new StationCluster());
+                    cluster = stationClusterPool.get(numClusters++);
+                    cluster.station = station;
+                    cluster.count = 1;
+                    stationClusters.put(cell, cluster);
+                } else {
+                    cluster.count++;
+                    if (isMoreRelevant(station, cluster.station))
+                        cluster.station = station;
+                }
+            }
+
+            return selectedStation;
+        }
+
+        private boolean isMoreRelevant(final Station station, final Station other) {
+            final Product product = station.getRelevantProduct();
+            final Product otherProduct = other.getRelevantProduct();
+            if (product != otherProduct) {
+                if (product == null)
+                    return false;
+                if (otherProduct == null)
+                    return true;
+                return product.ordinal() < otherProduct.ordinal();
+            }
+            // deterministic, so the representative doesn't flicker between frames
+            return station.location.id.compareTo(other.location.id) < 0;
+        }
+
+        private void drawClusterBadge(final Canvas canvas, final Drawable iconDrawable, final int count) {
+            final Rect bounds = iconDrawable.getBounds();
+            final float x = point.x + bounds.right;
+            final float y = point.y + bounds.top;
+            final float radius = clusterTextPaint.getTextSize() * 0.8f;
+            canvas.drawCircle(x, y, radius, clusterPaint);
+            canvas.drawText(count < 100 ? Integer.toString(count) : "99+", x,
+                    y - (clusterTextPaint.ascent() + clusterTextPaint.descent()) / 2, clusterTextPaint);
+        }
+
+        private Drawable stationIcon(final Product product) {
+            if (product == null)
+                return stationDefaultIcon;
+            else if (product == Product.HIGH_SPEED_TRAIN)
+                return stationHighspeedIcon;
+            else if (product == Product.REGIONAL_TRAIN)
+                return stationTrainIcon;
+            else if (product == Product.SUBURBAN_TRAIN)
+                return stationSuburbanIcon;
+            else if (product == Product.SUBWAY)
+                return stationSubwayIcon;
+            else if (product == Product.TRAM)
+                return stationTramIcon;
+            else if (product == Product.BUS)
+                return stationBusIcon;
+            else if (product == Product.FERRY)
+                return stationFerryIcon;
+            else if (product == Product.CABLECAR)
+                return stationCablecarIcon;
+            else if (product == Product.ON_DEMAND)
+                return stationCallIcon;
+            else if (product == Product.REPLACEMENT_SERVICE)
+                return stationBusIcon;
+            else
+                return stationDefaultIcon;
+        }
 
-            final android.graphics.Point point = new android.graphics.Point();
+        /**
+         * Projects and simplifies the leg paths of a trip ahead of its first frame.
+         */
+        private void prepareTrip(final Trip trip) {
+            for (final Leg leg : trip.legs)
+                if (reuseProjectedPath(leg.path) == null)
+                    projectedPaths.put(leg.path, new ProjectedPath(leg.path, false, FillType.WINDING));
+        }
 
-            for (final Point p : points) {
-                projection.toPixels(new GeoPoint(p.getLatAsDouble(), p.getLonAsDouble()), point);
-                if (path.isEmpty())
-                    path.moveTo(point.x, point.y);
-                else
-                    path.lineTo(point.x, point.y);
+        private ProjectedPath projectedLine(final List<Point> points) {
+            ProjectedPath projectedPath = reuseProjectedPath(points);
+            if (projectedPath == null) {
+                projectedPath = new ProjectedPath(points, false, FillType.WINDING);
+                drawnProjectedPaths.put(points, projectedPath);
             }
+            return projectedPath;
+        }
 
-            return path;
+        private ProjectedPath projectedArea(final Point[] area) {
+            ProjectedPath projectedPath = reuseProjectedPath(area);
+            if (projectedPath == null) {
+                projectedPath = new ProjectedPath(area, true, FillType.INVERSE_WINDING);
+                drawnProjectedPaths.put(area, projectedPath);
+            }
+            return projectedPath;
         }
 
-        private Path pointsToPath(final Projection projection, final Point[] points) {
-            final Path path = new Path();
-            path.incReserve(points.length);
+        private ProjectedPath reuseProjectedPath(final Object key) {
+            ProjectedPath projectedPath = drawnProjectedPaths.get(key);
+            if (projectedPath == null) {
+                projectedPath = projectedPaths.get(key);
+                if (projectedPath != null)
+                    drawnProjectedPaths.put(key, projectedPath);
+            }
+            return projectedPath;
+        }
 
-            final android.graphics.Point point = new android.graphics.Point();
+        private LineView lineView(final Line line) {
+            LineView lineView = drawnLineViews.get(line);
+            if (lineView == null) {
+                lineView = lineViews.get(line);
+                if (lineView == null) {
+                    lineView = (LineView) LayoutInflater.from(getContext()).inflate(R.layout.map_trip_line, null);
+                    lineView.setLine(line);
+                    lineView.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
+                            MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                }
+                drawnLineViews.put(line, lineView);
+            }
+            return lineView;
+        }
 
-            for (final Point p : points) {
-                projection.toPixels(new GeoPoint(p.getLatAsDouble(), p.getLonAsDouble()), point);
-                if (path.isEmpty())
-                    path.moveTo(point.x, point.y);
-                else
-                    path.lineTo(point.x, point.y);
+        private TextView bubble(final Location location) {
+            if (bubble == null || location != bubbleLocation) {
+                bubble = new TextView(getContext());
+                bubble.setBackgroundResource(R.drawable.popup_dir_pointer_button);
+                bubble.setText(location.name);
+                bubble.setTypeface(Typeface.DEFAULT_BOLD);
+                bubble.setTextSize(TypedValue.COMPLEX_UNIT_PX, stationFontSize);
+                bubble.setTextColor(bubbleTextColor);
+                bubble.setIncludeFontPadding(false);
+                bubble.measure(MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
+                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
+                bubbleLocation = location;
             }
+            return bubble;
+        }
 
-            return path;
+        private void toPixels(final Projection projection, final Point p) {
+            toPixels(projection, p.getLatAsDouble(), p.getLonAsDouble());
+        }
+
+        private void toPixels(final Projection projection, final double lat, final double lon) {
+            geoPoint.setCoords(lat, lon);
+            projection.toPixels(geoPoint, point);
         }
 
         @Override
@@ -717,12 +909,21 @@ public class OsmDroidOeffiMapView extends MapView implements OeffiMapView.Implem
                 float tappedStationDistance = 0;
 
                 final double allowedDistance = mapDiagonal / 20.0;
-                for (final Station station : stationsAware.getStations()) {
-                    final float distance = GeoUtils.distanceBetween(tappedLat, tappedLon, station.location.coord).distanceInMeters;
-                    if (distance < allowedDistance) {
-                        if (tappedStation == null || distance < tappedStationDistance) {
-                            tappedStation = station;
-                            tappedStationDistance = distance;
+                final GeoGridIndex<Station> stationsIndex = stationsAware.getStationsIndex();
+                if (stationsIndex != null) {
+                    final List<GeoGridIndex.Neighbour<Station>> nearest = stationsIndex.nearest(
+                            (int) Math.round(tappedLat * 1E6), (int) Math.round(tappedLon * 1E6), 1,
+                            (float) allowedDistance, null);
+                    if (!nearest.isEmpty())
+                        tappedStation = nearest.get(0).item;
+                } else {
+                    for (final Station station : stationsAware.getStations()) {
+                        final float distance = GeoUtils.distanceBetween(tappedLat, tappedLon, station.location.coord).distanceInMeters;
+                        if (distance < allowedDistance) {
+                            if (tappedStation == null || distance < tappedStationDistance) {
+                                tappedStation = station;
+                                tappedStationDistance = distance;
+                            }
                         }
                     }
                 }
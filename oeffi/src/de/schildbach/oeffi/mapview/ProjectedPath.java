@@ -0,0 +1,187 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.mapview;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.view.View;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
+import org.osmdroid.views.Projection;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.schildbach.oeffi.util.PolylineSimplifier;
+import de.schildbach.pte.dto.Point;
+
+/**
+ * A polyline or polygon for drawing onto an osmdroid map. Its points are projected to normalized Web Mercator once,
+ * and turned into a {@link Path} once per integer zoom level. In between, the path is drawn translated to where its
+ * first point is on screen and scaled to the fractional zoom, so panning and zoom animations re-project nothing. Paths
+ * for a new zoom level are built on a background thread, while the previous one keeps being drawn scaled.
+ * <p>
+ * Douglas–Peucker simplifications are prepared up front for every other zoom level, with a tolerance of half a pixel
+ * at that level. A path built for a zoom level uses the nearest level at or below it, so it deviates from the full
+ * resolution geometry by at most a pixel on screen.
+ */
+final class ProjectedPath {
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final ExecutorService buildExecutor = Executors.newSingleThreadExecutor();
+    private static final int[] SIMPLIFICATION_ZOOM_LEVELS = { 4, 6, 8, 10, 12, 14, 16 };
+    private static final double SIMPLIFICATION_TOLERANCE_PIXELS = 0.5;
+
+    private static final class Built {
+        final Path path;
+        final int zoomLevel;
+        final double worldSize;
+
+        Built(final Path path, final int zoomLevel, final double worldSize) {
+            this.path = path;
+            this.zoomLevel = zoomLevel;
+            this.worldSize = worldSize;
+        }
+    }
+
+    private final double[] mercator; // x0, y0, x1, y1, ... each in [0, 1]
+    private final int[][] simplifications; // indices of points kept, per entry of SIMPLIFICATION_ZOOM_LEVELS
+    private final boolean closed;
+    private final Path.FillType fillType;
+    private final double originLat, originLon;
+    private volatile Built built = null;
+    private int pendingZoomLevel = -1; // only accessed from the UI thread
+
+    ProjectedPath(final List<Point> points, final boolean closed, final Path.FillType fillType) {
+        this(points.toArray(new Point[0]), closed, fillType);
+    }
+
+    ProjectedPath(final Point[] points, final boolean closed, final Path.FillType fillType) {
+        this.mercator = new double[points.length * 2];
+        for (int i = 0; i < points.length; i++) {
+            final Point p = points[i];
+            mercator[i * 2] = mercatorX(p.getLonAsDouble());
+            mercator[i * 2 + 1] = mercatorY(p.getLatAsDouble());
+        }
+        final double[] significance = PolylineSimplifier.significance(mercator);
+        this.simplifications = new int[SIMPLIFICATION_ZOOM_LEVELS.length][];
+        for (int i = 0; i < SIMPLIFICATION_ZOOM_LEVELS.length; i++)
+            simplifications[i] = PolylineSimplifier.select(significance,
+                    SIMPLIFICATION_TOLERANCE_PIXELS / TileSystem.MapSize((double) SIMPLIFICATION_ZOOM_LEVELS[i]));
+        this.closed = closed;
+        this.fillType = fillType;
+        this.originLat = points.length > 0 ? points[0].getLatAsDouble() : 0;
+        this.originLon = points.length > 0 ? points[0].getLonAsDouble() : 0;
+    }
+
+    boolean isEmpty() {
+        return mercator.length == 0;
+    }
+
+    /**
+     * Draws the path. Must be called from the UI thread.
+     *
+     * @param strokeWidth stroke width in screen pixels, the paint's own stroke width is overwritten
+     * @param reuseGeoPoint scratch object, to avoid allocating
+     * @param reusePoint scratch object, to avoid allocating
+     * @param view invalidated once a path for the current zoom level has been built
+     */
+    void draw(final Canvas canvas, final Projection projection, final Paint paint, final float strokeWidth,
+            final GeoPoint reuseGeoPoint, final android.graphics.Point reusePoint, final View view) {
+        if (isEmpty())
+            return;
+
+        final double zoom = projection.getZoomLevel();
+        final int zoomLevel = (int) Math.round(zoom);
+        Built built = this.built;
+        if (built == null) {
+            // nothing to scale yet
+            built = build(zoomLevel);
+            this.built = built;
+        } else if (built.zoomLevel != zoomLevel && pendingZoomLevel != zoomLevel) {
+            pendingZoomLevel = zoomLevel;
+            buildExecutor.execute(() -> {
+                this.built = build(zoomLevel);
+                view.postInvalidate();
+            });
+        }
+
+        reuseGeoPoint.setCoords(originLat, originLon);
+        projection.toPixels(reuseGeoPoint, reusePoint);
+        final float scale = (float) (TileSystem.MapSize(zoom) / built.worldSize);
+
+        canvas.save();
+        canvas.translate(reusePoint.x, reusePoint.y);
+        canvas.scale(scale, scale);
+        paint.setStrokeWidth(strokeWidth / scale);
+        canvas.drawPath(built.path, paint);
+        canvas.restore();
+    }
+
+    private Built build(final int zoomLevel) {
+        final double worldSize = TileSystem.MapSize((double) zoomLevel);
+        final Path path = new Path();
+        path.setFillType(fillType);
+        final double x0 = mercator[0];
+        final double y0 = mercator[1];
+        path.moveTo(0, 0);
+        final int[] indices = simplification(zoomLevel);
+        if (indices != null) {
+            path.incReserve(indices.length);
+            for (int i = 1; i < indices.length; i++) {
+                final int index = indices[i];
+                path.lineTo((float) ((mercator[index * 2] - x0) * worldSize),
+                        (float) ((mercator[index * 2 + 1] - y0) * worldSize));
+            }
+        } else {
+            final int numPoints = mercator.length / 2;
+            path.incReserve(numPoints);
+            for (int i = 1; i < numPoints; i++)
+                path.lineTo((float) ((mercator[i * 2] - x0) * worldSize),
+                        (float) ((mercator[i * 2 + 1] - y0) * worldSize));
+        }
+        if (closed)
+            path.close();
+        return new Built(path, zoomLevel, worldSize);
+    }
+
+    /**
+     * @return indices of the points to draw at the given zoom level, or {@code null} for all of them
+     */
+    private int[] simplification(final int zoomLevel) {
+        final int last = SIMPLIFICATION_ZOOM_LEVELS.length - 1;
+        if (zoomLevel > SIMPLIFICATION_ZOOM_LEVELS[last] + 1)
+            return null;
+        for (int i = last; i > 0; i--)
+            if (SIMPLIFICATION_ZOOM_LEVELS[i] <= zoomLevel)
+                return simplifications[i];
+        return simplifications[0];
+    }
+
+    static double mercatorX(final double lon) {
+        return (lon + 180) / 360;
+    }
+
+    static double mercatorY(final double lat) {
+        final double clippedLat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat));
+        final double sinLat = Math.sin(Math.toRadians(clippedLat));
+        return 0.5 - Math.log((1 + sinLat) / (1 - sinLat)) / (4 * Math.PI);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.network;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Point;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial index over the coverage areas of all available networks, for finding the networks covering a coordinate.
+ * Bounding boxes of the area polygons are packed into an R-tree once, using sort-tile-recursive bulk loading; a query
+ * descends the boxes containing the coordinate and confirms candidates with a ray casting point in polygon test.
+ * Networks without an area polygon are not indexed. Immutable once built, so it can be queried from any thread.
+ */
+public final class NetworkAreaIndex {
+    private static final int NODE_CAPACITY = 8;
+
+    private static NetworkAreaIndex instance = null;
+
+    private static final Logger log = LoggerFactory.getLogger(NetworkAreaIndex.class);
+
+    private abstract static class Box {
+        double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+
+        void include(final Box box) {
+            minLat = Math.min(minLat, box.minLat);
+            minLon = Math.min(minLon, box.minLon);
+            maxLat = Math.max(maxLat, box.maxLat);
+            maxLon = Math.max(maxLon, box.maxLon);
+        }
+
+        boolean contains(final double lat, final double lon) {
+            return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+        }
+
+        double centerLat() {
+            return (minLat + maxLat) / 2;
+        }
+
+        double centerLon() {
+            return (minLon + maxLon) / 2;
+        }
+    }
+
+    private static final class Area extends Box {
+        final NetworkId networkId;
+        final double[] lats, lons;
+        final double size;
+
+        Area(final NetworkId networkId, final Point[] polygon) {
+            this.networkId = networkId;
+            final int numPoints = polygon.length;
+            this.lats = new double[numPoints];
+            this.lons = new double[numPoints];
+            double doubleSize = 0;
+            for (int i = 0, j = numPoints - 1; i < numPoints; j = i++) {
+                final Point p = polygon[i];
+                lats[i] = p.getLatAsDouble();
+                lons[i] = p.getLonAsDouble();
+                minLat = Math.min(minLat, lats[i]);
+                minLon = Math.min(minLon, lons[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+                maxLon = Math.max(maxLon, lons[i]);
+                doubleSize += polygon[j].getLonAsDouble() * lats[i] - lons[i] * polygon[j].getLatAsDouble();
+            }
+            // in square degrees, which is good enough for ranking
+            this.size = Math.abs(doubleSize) / 2;
+        }
+
+        boolean polygonContains(final double lat, final double lon) {
+            boolean inside = false;
+            final int numPoints = lats.length;
+            for (int i = 0, j = numPoints - 1; i < numPoints; j = i++) {
+                if ((lons[i] > lon) != (lons[j] > lon)) {
+                    final double crossingLat = lats[i] + (lon - lons[i]) / (lons[j] - lons[i]) * (lats[j] - lats[i]);
+                    if (lat < crossingLat)
+                        inside = !inside;
+                }
+            }
+            return inside;
+        }
+    }
+
+    private static final class Node extends Box {
+        final Box[] children;
+        final boolean leaf;
+
+        Node(final Box[] children, final boolean leaf) {
+            this.children = children;
+            this.leaf = leaf;
+            for (final Box child : children)
+                include(child);
+        }
+    }
+
+    private static final Comparator<Box> BY_CENTER_LON = (box1, box2) -> Double.compare(box1.centerLon(),
+            box2.centerLon());
+    private static final Comparator<Box> BY_CENTER_LAT = (box1, box2) -> Double.compare(box1.centerLat(),
+            box2.centerLat());
+    private static final Comparator<Area> BY_SIZE = (area1, area2) -> Double.compare(area1.size, area2.size);
+
+    private final Node root;
+    private final Map<NetworkId, Area> areas;
+
+    /**
+     * Returns the index over all available networks, building it on first use.
+     */
+    public static synchronized NetworkAreaIndex get() {
+        if (instance == null) {
+            final long start = System.currentTimeMillis();
+            final List<Area> areas = new ArrayList<>();
+            for (final NetworkId.Descriptor descriptor : NetworkProviderFactory.getInstance().getAvailableNetworks()) {
+                final NetworkId networkId = descriptor.getNetworkId();
+                try {
+                    final Point[] polygon = descriptor.getArea();
+                    if (polygon != null && polygon.length > 2)
+                        areas.add(new Area(networkId, polygon));
+                } catch (final RuntimeException x) {
+                    log.warn("problem getting area of " + networkId, x);
+                }
+            }
+            instance = new NetworkAreaIndex(areas);
+            log.info("indexed areas of {} networks, took {} ms", areas.size(), System.currentTimeMillis() - start);
+        }
+        return instance;
+    }
+
+    private NetworkAreaIndex(final List<Area> areas) {
+        this.areas = new EnumMap<>(NetworkId.class);
+        for (final Area area : areas)
+            this.areas.put(area.networkId, area);
+
+        Box[] level = areas.toArray(new Box[0]);
+        boolean leaf = true;
+        while (level.length > NODE_CAPACITY || leaf) {
+            level = pack(level, leaf);
+            leaf = false;
+        }
+        this.root = level.length == 1 ? (Node) level[0] : new Node(level, false);
+    }
+
+    /**
+     * Packs one level of boxes into nodes: vertical slices by longitude, then runs by latitude within each slice.
+     */
+    private static Box[] pack(final Box[] boxes, final boolean leaf) {
+        final int numNodes = (boxes.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        final int numSlices = (int) Math.ceil(Math.sqrt(numNodes));
+        final int sliceSize = numSlices * NODE_CAPACITY;
+        Arrays.sort(boxes, BY_CENTER_LON);
+
+        final List<Box> nodes = new ArrayList<>(numNodes);
+        for (int sliceStart = 0; sliceStart < boxes.length; sliceStart += sliceSize) {
+            final int sliceEnd = Math.min(sliceStart + sliceSize, boxes.length);
+            Arrays.sort(boxes, sliceStart, sliceEnd, BY_CENTER_LAT);
+            for (int nodeStart = sliceStart; nodeStart < sliceEnd; nodeStart += NODE_CAPACITY)
+                nodes.add(new Node(Arrays.copyOfRange(boxes, nodeStart, Math.min(nodeStart + NODE_CAPACITY,
+                        sliceEnd)), leaf));
+        }
+        return nodes.toArray(new Box[0]);
+    }
+
+    /**
+     * @return networks whose area contains the given coordinate, most specific (smallest area) first
+     */
+    public List<NetworkId> containing(final double lat, final double lon) {
+        final List<Area> found = new ArrayList<>();
+        if (root.contains(lat, lon))
+            collect(root, lat, lon, found);
+        found.sort(BY_SIZE);
+
+        final List<NetworkId> networkIds = new ArrayList<>(found.size());
+        for (final Area area : found)
+            networkIds.add(area.networkId);
+        return networkIds;
+    }
+
+    private static void collect(final Node node, final double lat, final double lon, final List<Area> found) {
+        for (final Box child : node.children) {
+            if (!child.contains(lat, lon))
+                continue;
+            if (node.leaf) {
+                final Area area = (Area) child;
+                if (area.polygonContains(lat, lon))
+                    found.add(area);
+            } else {
+                collect((Node) child, lat, lon, found);
+            }
+        }
+    }
+
+    /**
+     * @return if the network has an area polygon, so that its absence from {@link #containing(double, double)} is
+     *         meaningful
+     */
+    public boolean hasArea(final NetworkId networkId) {
+        return areas.containsKey(networkId);
+    }
+
+    /**
+     * @return if the given network's area contains the given coordinate
+     */
+    public boolean contains(final NetworkId networkId, final double lat, final double lon) {
+        final Area area = areas.get(networkId);
+        return area != null && area.contains(lat, lon) && area.polygonContains(lat, lon);
+    }
+}
@@ -117,6 +117,7 @@ public class NetworkPickerActivity extends OeffiActivity implements LocationHelp
         backgroundThread = new HandlerThread("getAreaThread", Process.THREAD_PRIORITY_BACKGROUND);
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
+        backgroundHandler.post(NetworkAreaIndex::get); // warm up, it's needed once the location is known
 
         setContentView(R.layout.network_picker_content);
         final View contentView = findViewById(android.R.id.content);
@@ -391,18 +392,21 @@ public class NetworkPickerActivity extends OeffiActivity implements LocationHelp
             }
         }
 
-        // suggested networks
-        boolean firstSuggested = true;
-        for (final Iterator<NetworkListEntry> i = entriesMap.values().iterator(); i.hasNext();) {
-            final NetworkListEntry.Network networkEntry = (NetworkListEntry.Network) i.next();
-            if (isSuggested(networkEntry)) {
-                if (firstSuggested) {
-                    entries.add(new NetworkListEntry.Separator(getString(R.string.network_picker_separator_suggested)));
-                    firstSuggested = false;
-                }
+        // suggested networks, the ones covering the device location, most specific first
+        if (deviceLocation != null) {
+            boolean firstSuggested = true;
+            for (final NetworkId networkHere : NetworkAreaIndex.get().containing(deviceLocation.getLatAsDouble(),
+                    deviceLocation.getLonAsDouble())) {
+                final NetworkListEntry networkEntry = entriesMap.remove(networkHere.name());
+                if (networkEntry != null) {
+                    if (firstSuggested) {
+                        entries.add(new NetworkListEntry.Separator(
+                                getString(R.string.network_picker_separator_suggested)));
+                        firstSuggested = false;
+                    }
 
-                entries.add(networkEntry);
-                i.remove();
+                    entries.add(networkEntry);
+                }
             }
         }
 
@@ -445,61 +449,6 @@ public class NetworkPickerActivity extends OeffiActivity implements LocationHelp
         listAdapter.setEntries(entries);
     }
 
-    private boolean isSuggested(final NetworkListEntry.Network network) {
-        if (deviceLocation == null)
-            return false;
-
-//        if (network.state == NetworkId.State.deprecated
-//                || network.state == NetworkId.State.disabled)
-//            return false;
-
-//        final NetworkProvider networkProvider;
-//        try {
-//            networkProvider = NetworkProviderFactory.provider(network.id);
-//        } catch (final IllegalArgumentException iae) {
-//            return false;
-//        }
-
-        boolean inArea = false;
-
-        final Point[] area = getArea(network.id);
-
-        if (area == null || area.length <= 2)
-            return false;
-
-        final double lat = deviceLocation.getLatAsDouble();
-        final double lon = deviceLocation.getLonAsDouble();
-
-        // raycast point in polygon test
-        final int numPoints = area.length;
-        int j = numPoints - 1;
-
-        for (int i = 0; i < numPoints; i++) {
-            final Point vertex1 = area[i];
-            final Point vertex2 = area[j];
-
-            if (vertex1.getLonAsDouble() < lon && vertex2.getLonAsDouble() >= lon
-                    || vertex2.getLonAsDouble() < lon && vertex1.getLonAsDouble() >= lon) {
-                if ((vertex1.getLatAsDouble() + (lon - vertex1.getLonAsDouble()))
-                        / (vertex2.getLonAsDouble() - vertex1.getLonAsDouble())
-                        * (vertex2.getLatAsDouble() - vertex1.getLatAsDouble()) < lat)
-                    inArea = !inArea;
-            }
-
-            j = i;
-        }
-
-        return inArea;
-    }
-
-    private Point[] getArea(final NetworkId networkId) {
-//        try {
-            return networkId.getDescriptor().getArea();
-//        } catch (final IOException x) {
-//            throw new RuntimeException(x);
-//        }
-    }
-
     private boolean isNearby(final NetworkListEntry.Network network) {
         if (deviceAddress == null)
             return false;
@@ -51,6 +51,7 @@ import de.schildbach.oeffi.stations.QueryDeparturesRunnable;
 import de.schildbach.oeffi.stations.Station;
 import de.schildbach.oeffi.stations.StationContextMenu;
 import de.schildbach.oeffi.stations.StationDetailsActivity;
+import de.schildbach.oeffi.stations.StationNameIndex;
 import de.schildbach.oeffi.util.Downloader;
 import de.schildbach.oeffi.util.Toast;
 import de.schildbach.oeffi.util.ZoomControls;
@@ -72,9 +73,12 @@ import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
@@ -213,6 +217,15 @@ public class PlanActivity extends ComponentActivity {
                 stations.add(new Station(network, new Location(LocationType.STATION, localId, point, null, label)));
             }
             stationsCursor.close();
+
+            // plan coordinates are pixels, so only index names
+            final Map<NetworkId, List<Location>> stationsByNetwork = new HashMap<>();
+            for (final Station station : stations)
+                if (station.network != null)
+                    stationsByNetwork.computeIfAbsent(station.network, n -> new ArrayList<>()).add(new Location(
+                            LocationType.STATION, station.location.id, null, null, station.location.name));
+            for (final Map.Entry<NetworkId, List<Location>> entry : stationsByNetwork.entrySet())
+                StationNameIndex.addAsync(entry.getKey(), entry.getValue());
         }
 
         final Downloader downloader = new Downloader(getCacheDir());
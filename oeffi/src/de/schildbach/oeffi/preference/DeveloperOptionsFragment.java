@@ -19,14 +19,56 @@ package de.schildbach.oeffi.preference;
 
 import android.os.Bundle;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
 import de.schildbach.oeffi.R;
+import de.schildbach.oeffi.directions.navigation.NavigationAlarmManager;
+import de.schildbach.oeffi.directions.navigation.NavigationNotification;
+import de.schildbach.oeffi.directions.navigation.NavigationScheduler;
+import de.schildbach.oeffi.util.DialogBuilder;
 
 public class DeveloperOptionsFragment extends PreferenceFragment {
+    private static final String KEY_NAVIGATION_SCHEDULE = "developer_options_navigation_schedule";
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.preference_developeroptions);
+
+        setupActionPreference(KEY_NAVIGATION_SCHEDULE, DeveloperOptionsFragment.class,
+                NavigationScheduleActionHandler.class);
+    }
+
+    public static class NavigationScheduleActionHandler extends ActionHandler {
+        @Override
+        public boolean handleAction(final PreferenceActivity context, final String prefkey) {
+            final List<NavigationScheduler.Entry> entries = NavigationScheduler.getInstance().getEntries();
+            final StringBuilder message = new StringBuilder();
+            for (final NavigationScheduler.Entry entry : entries) {
+                if (message.length() > 0)
+                    message.append("\n\n");
+                message.append(context.getString(R.string.developer_options_navigation_schedule_entry,
+                        entry.notificationTag, formatTime(entry.dueAt), formatTime(entry.renderAt),
+                        formatTime(entry.reloadAt), formatTime(entry.travelAlarmAt)));
+            }
+            if (entries.isEmpty())
+                message.append(context.getString(R.string.developer_options_navigation_schedule_empty));
+            message.append("\n\n").append(context.getString(R.string.developer_options_navigation_schedule_updates,
+                    NavigationNotification.getNumUpdatesPosted(), NavigationNotification.getNumUpdatesSkipped()));
+
+            final DialogBuilder builder = DialogBuilder.get(context);
+            builder.setTitle(R.string.developer_options_navigation_schedule_title);
+            builder.setMessage(message);
+            builder.setPositiveButton(android.R.string.ok, null);
+            builder.setOnDismissListener(dialog -> dismissParentingActivity(context));
+            builder.show();
+            return false;
+        }
+
+        private static String formatTime(final long time) {
+            return time > 0 ? NavigationAlarmManager.LOG_TIME_FORMAT.format(time) : "-";
+        }
     }
 }
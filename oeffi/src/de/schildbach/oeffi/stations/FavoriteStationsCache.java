@@ -0,0 +1,294 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+
+import de.schildbach.oeffi.Application;
+import de.schildbach.oeffi.util.GeoGridIndex;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * Process-wide in-memory copy of the favorites table. It is loaded once on first access and kept up to date by
+ * {@link FavoriteStationsProvider}, which writes all its changes through to this cache. Per network, the
+ * favorite states are published as immutable snapshots, so lookups while binding list rows never touch the database.
+ * Favorites with a coordinate are also kept in a spatial index, for nearest-favorite queries.
+ */
+public final class FavoriteStationsCache {
+    public interface Listener {
+        /**
+         * Called on the main thread.
+         *
+         * @param networkName name of the changed network, or {@code null} if all networks may have changed
+         */
+        void onFavoritesChanged(String networkName);
+    }
+
+    public static final class Entry {
+        public final long rowId;
+        public final String networkName;
+        public final int type;
+        public final Location location;
+        public final Location nickLocation;
+        public final String nickName;
+
+        private Entry(final long rowId, final String networkName, final int type,
+                final FavoriteStationsProvider.LocationRepresentations representations, final String nickName) {
+            this.rowId = rowId;
+            this.networkName = networkName;
+            this.type = type;
+            this.location = representations.getRaw();
+            this.nickLocation = representations.getNick();
+            this.nickName = nickName;
+        }
+
+        @Override
+        public String toString() {
+            return "Favorite[" + rowId + "," + networkName + "," + location.id + "," + type + "]";
+        }
+    }
+
+    private static final int INDEX_CELL_SIZE_E6 = 50000; // about 5 km
+    private static final FavoriteStationsCache INSTANCE = new FavoriteStationsCache();
+
+    public static FavoriteStationsCache getInstance() {
+        return INSTANCE;
+    }
+
+    private boolean loaded = false;
+    private final Map<Long, Entry> entriesByRowId = new HashMap<>();
+    private final Map<String, Map<String, Entry>> entriesByNetwork = new HashMap<>();
+    private final Map<String, Map<String, Integer>> statesByNetwork = new HashMap<>();
+    private final GeoGridIndex<Entry> favoritesIndex = new GeoGridIndex<>(INDEX_CELL_SIZE_E6);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private static final Logger log = LoggerFactory.getLogger(FavoriteStationsCache.class);
+
+    private FavoriteStationsCache() {
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns an immutable snapshot of station id to favorite state, for the given network.
+     */
+    public Map<String, Integer> favStates(final NetworkId network) {
+        if (network == null)
+            return Collections.emptyMap();
+        synchronized (this) {
+            ensureLoaded();
+            final Map<String, Integer> states = statesByNetwork.get(network.name());
+            return states != null ? states : Collections.emptyMap();
+        }
+    }
+
+    public Integer favState(final NetworkId network, final String stationId) {
+        return favStates(network).get(stationId);
+    }
+
+    public List<Entry> entries(final NetworkId network, final int type) {
+        synchronized (this) {
+            ensureLoaded();
+            final Map<String, Entry> entries = entriesByNetwork.get(network.name());
+            if (entries == null)
+                return Collections.emptyList();
+            final List<Entry> result = new ArrayList<>(entries.size());
+            for (final Entry entry : entries.values())
+                if (entry.type == type)
+                    result.add(entry);
+            return result;
+        }
+    }
+
+    public List<Entry> entries(final int type) {
+        synchronized (this) {
+            ensureLoaded();
+            final List<Entry> result = new ArrayList<>(entriesByRowId.size());
+            for (final Entry entry : entriesByRowId.values())
+                if (entry.type == type)
+                    result.add(entry);
+            return result;
+        }
+    }
+
+    /**
+     * Finds the {@code k} favorites (of type {@link FavoriteStationsProvider#TYPE_FAVORITE}) nearest to the given
+     * coordinate, within {@code maxDistance} meters. Favorites without coordinate are never found.
+     *
+     * @param network restrict to this network, or {@code null} for all networks
+     */
+    public List<GeoGridIndex.Neighbour<Entry>> nearestFavorites(final int latE6, final int lonE6, final int k,
+            final float maxDistance, final NetworkId network, final Predicate<Entry> filter) {
+        final String networkName = network != null ? network.name() : null;
+        synchronized (this) {
+            ensureLoaded();
+            return favoritesIndex.nearest(latE6, lonE6, k, maxDistance, entry ->
+                    (networkName == null || networkName.equals(entry.networkName))
+                            && (filter == null || filter.test(entry)));
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded)
+            return;
+
+        final Cursor cursor = Application.getInstance().getContentResolver()
+                .query(FavoriteStationsProvider.CONTENT_URI(), null, null, null, null);
+        if (cursor == null)
+            return;
+        putAll(cursor);
+        cursor.close();
+        loaded = true;
+        log.info("Loaded {} favorites", entriesByRowId.size());
+    }
+
+    /**
+     * Restricted to usage by {@link FavoriteStationsProvider} only.
+     */
+    void onRowsChanged(final Cursor changedRows, final Collection<Long> removedRowIds) {
+        final List<String> changedNetworks = new ArrayList<>();
+        synchronized (this) {
+            if (loaded) {
+                if (removedRowIds != null) {
+                    for (final Long rowId : removedRowIds) {
+                        final Entry removed = entriesByRowId.remove(rowId);
+                        if (removed != null) {
+                            favoritesIndex.remove(removed);
+                            final Map<String, Entry> entries = entriesByNetwork.get(removed.networkName);
+                            if (entries != null && entries.get(removed.location.id) == removed)
+                                entries.remove(removed.location.id);
+                            if (!changedNetworks.contains(removed.networkName))
+                                changedNetworks.add(removed.networkName);
+                        }
+                    }
+                }
+                if (changedRows != null)
+                    for (final String networkName : putAll(changedRows))
+                        if (!changedNetworks.contains(networkName))
+                            changedNetworks.add(networkName);
+                for (final String networkName : changedNetworks)
+                    publishStates(networkName);
+            }
+        }
+        if (changedRows != null)
+            changedRows.close();
+        for (final String networkName : changedNetworks)
+            notifyListeners(networkName);
+    }
+
+    /**
+     * Restricted to usage by {@link FavoriteStationsProvider} only, for bulk changes bypassing the provider.
+     */
+    void invalidate() {
+        synchronized (this) {
+            loaded = false;
+            entriesByRowId.clear();
+            entriesByNetwork.clear();
+            statesByNetwork.clear();
+            favoritesIndex.clear();
+        }
+        notifyListeners(null);
+    }
+
+    private List<String> putAll(final Cursor cursor) {
+        final int rowIdIndex = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_ROWID);
+        final int typeIndex = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_TYPE);
+        final int networkIndex = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NETWORK);
+        final int nickNameIndex = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NICKNAME);
+
+        final List<String> changedNetworks = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            final Entry entry = new Entry(cursor.getLong(rowIdIndex), cursor.getString(networkIndex),
+                    cursor.getInt(typeIndex), FavoriteStationsProvider.getLocation(cursor),
+                    cursor.getString(nickNameIndex));
+
+            Map<String, Entry> entries = entriesByNetwork.get(entry.networkName);
+            if (entries == null) {
+                entries = new HashMap<>();
+                entriesByNetwork.put(entry.networkName, entries);
+            }
+            final Entry replaced = entries.put(entry.location.id, entry);
+            if (replaced != null) {
+                entriesByRowId.remove(replaced.rowId);
+                favoritesIndex.remove(replaced);
+            }
+            final Entry previous = entriesByRowId.put(entry.rowId, entry);
+            if (previous != null)
+                favoritesIndex.remove(previous);
+            if (entry.type == FavoriteStationsProvider.TYPE_FAVORITE && entry.location.hasCoord())
+                favoritesIndex.put(entry, entry.location.getLatAs1E6(), entry.location.getLonAs1E6());
+            if (previous != null && previous != replaced) {
+                // station id or network of this row was changed
+                final Map<String, Entry> previousEntries = entriesByNetwork.get(previous.networkName);
+                if (previousEntries != null && previousEntries.get(previous.location.id) == previous)
+                    previousEntries.remove(previous.location.id);
+                if (!changedNetworks.contains(previous.networkName))
+                    changedNetworks.add(previous.networkName);
+            }
+            if (!changedNetworks.contains(entry.networkName))
+                changedNetworks.add(entry.networkName);
+        }
+
+        for (final String networkName : changedNetworks)
+            publishStates(networkName);
+        return changedNetworks;
+    }
+
+    private void publishStates(final String networkName) {
+        final Map<String, Entry> entries = entriesByNetwork.get(networkName);
+        if (entries == null || entries.isEmpty()) {
+            entriesByNetwork.remove(networkName);
+            statesByNetwork.remove(networkName);
+            return;
+        }
+        final Map<String, Integer> states = new HashMap<>(entries.size());
+        for (final Entry entry : entries.values())
+            states.put(entry.location.id, entry.type);
+        statesByNetwork.put(networkName, Collections.unmodifiableMap(states));
+    }
+
+    private void notifyListeners(final String networkName) {
+        if (listeners.isEmpty())
+            return;
+        mainHandler.post(() -> {
+            for (final Listener listener : listeners)
+                listener.onFavoritesChanged(networkName);
+        });
+    }
+}
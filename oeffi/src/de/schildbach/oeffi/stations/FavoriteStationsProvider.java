@@ -18,7 +18,6 @@
 package de.schildbach.oeffi.stations;
 
 import android.content.ContentProvider;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -35,6 +34,7 @@ import de.schildbach.pte.dto.Point;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class FavoriteStationsProvider extends ContentProvider {
@@ -73,11 +73,15 @@ public class FavoriteStationsProvider extends ContentProvider {
 
     @Override
     public Uri insert(final Uri uri, final ContentValues values) {
-        long rowId = helper.getWritableDatabase().replace(DATABASE_TABLE, null, values);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        long rowId = db.replace(DATABASE_TABLE, null, values);
         if (rowId == -1)
             return null;
-        else
-            return ContentUris.withAppendedId(CONTENT_URI(), rowId);
+
+        FavoriteStationsCache.getInstance().onRowsChanged(queryRows(db, Collections.singletonList(rowId)), null);
+        final Uri rowUri = ContentUris.withAppendedId(CONTENT_URI(), rowId);
+        getContext().getContentResolver().notifyChange(rowUri, null);
+        return rowUri;
     }
 
     private static class Where {
@@ -110,10 +114,14 @@ public class FavoriteStationsProvider extends ContentProvider {
     @Override
     public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs) {
         final Where where = whereClause(uri, selection, selectionArgs);
-        final int count = helper.getWritableDatabase().update(DATABASE_TABLE, values, where.clause, where.args);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final List<Long> rowIds = queryRowIds(db, where);
+        final int count = db.update(DATABASE_TABLE, values, where.clause, where.args);
 
-        if (count > 0)
+        if (count > 0) {
+            FavoriteStationsCache.getInstance().onRowsChanged(queryRows(db, rowIds), null);
             getContext().getContentResolver().notifyChange(uri, null);
+        }
 
         return count;
     }
@@ -121,14 +129,35 @@ public class FavoriteStationsProvider extends ContentProvider {
     @Override
     public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
         final Where where = whereClause(uri, selection, selectionArgs);
-        final int count = helper.getWritableDatabase().delete(DATABASE_TABLE, where.clause, where.args);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final List<Long> rowIds = queryRowIds(db, where);
+        final int count = db.delete(DATABASE_TABLE, where.clause, where.args);
 
-        if (count > 0)
+        if (count > 0) {
+            FavoriteStationsCache.getInstance().onRowsChanged(null, rowIds);
             getContext().getContentResolver().notifyChange(uri, null);
+        }
 
         return count;
     }
 
+    private static List<Long> queryRowIds(final SQLiteDatabase db, final Where where) {
+        final Cursor cursor = db.query(DATABASE_TABLE, new String[] { KEY_ROWID }, where.clause, where.args, null,
+                null, null);
+        final List<Long> rowIds = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext())
+            rowIds.add(cursor.getLong(0));
+        cursor.close();
+        return rowIds;
+    }
+
+    private static Cursor queryRows(final SQLiteDatabase db, final List<Long> rowIds) {
+        final StringBuilder in = new StringBuilder();
+        for (final Long rowId : rowIds)
+            in.append(in.length() == 0 ? "" : ",").append(rowId);
+        return db.query(DATABASE_TABLE, null, KEY_ROWID + " IN (" + in + ")", null, null, null, null);
+    }
+
     @Override
     public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs,
             final String sortOrder) {
@@ -184,19 +213,11 @@ public class FavoriteStationsProvider extends ContentProvider {
                 cursor.getString(nickNameIndex));
     }
 
-    public static Integer favState(final ContentResolver contentResolver, final NetworkId network,
-            final Location location) {
+    public static Integer favState(final NetworkId network, final Location location) {
         if (!location.isIdentified() || location.type != LocationType.STATION)
             return null;
 
-        final Cursor favCursor = contentResolver.query(FavoriteStationsProvider.CONTENT_URI(),
-                new String[] { FavoriteStationsProvider.KEY_TYPE }, FavoriteStationsProvider.KEY_STATION_NETWORK
-                        + "=? AND " + FavoriteStationsProvider.KEY_STATION_ID + "=?",
-                new String[] { network.name(), location.id }, null);
-        final Integer favState = favCursor.moveToFirst()
-                ? favCursor.getInt(favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_TYPE)) : null;
-        favCursor.close();
-        return favState;
+        return FavoriteStationsCache.getInstance().favState(network, location.id);
     }
 
     /**
@@ -219,6 +240,7 @@ public class FavoriteStationsProvider extends ContentProvider {
         }
 
         helper.close();
+        FavoriteStationsCache.getInstance().invalidate();
     }
 
     /**
@@ -242,6 +264,7 @@ public class FavoriteStationsProvider extends ContentProvider {
         }
 
         helper.close();
+        FavoriteStationsCache.getInstance().invalidate();
     }
 
     /**
@@ -261,6 +284,7 @@ public class FavoriteStationsProvider extends ContentProvider {
         }
 
         helper.close();
+        FavoriteStationsCache.getInstance().invalidate();
     }
 
     /**
@@ -283,6 +307,7 @@ public class FavoriteStationsProvider extends ContentProvider {
         }
 
         helper.close();
+        FavoriteStationsCache.getInstance().invalidate();
     }
 
     private static class Helper extends SQLiteOpenHelper {
@@ -0,0 +1,214 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Paint.FontMetrics;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import de.schildbach.pte.dto.Style;
+import de.schildbach.pte.dto.Style.Shape;
+
+import java.util.Objects;
+
+/**
+ * Rasterizes line badges once and keeps them in an LRU cache, so that badges recurring all over the station lists
+ * are blitted rather than measured and drawn again. Badges are keyed by everything that affects their pixels: label,
+ * style colors and shape, text size, typeface and border stroke width (which scales with the display density).
+ */
+public final class LineBadgeCache {
+    private static final int MAX_BYTES = 4 * 1024 * 1024;
+    private static final float[] GRADIENT_POSITIONS = new float[] { 0.495f, 0.505f };
+
+    private static final LruCache<Key, Badge> cache = new LruCache<Key, Badge>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(final Key key, final Badge badge) {
+            return badge.bitmap.getAllocationByteCount();
+        }
+    };
+
+    public static final class Badge {
+        public final Bitmap bitmap;
+        /** distance from the top of the bitmap to the text baseline */
+        public final int baseline;
+
+        private Badge(final Bitmap bitmap, final int baseline) {
+            this.bitmap = bitmap;
+            this.baseline = baseline;
+        }
+    }
+
+    private static final class Key {
+        final String label;
+        final Shape shape;
+        final int backgroundColor, backgroundColor2, foregroundColor, borderColor;
+        final float textSize;
+        final Typeface typeface;
+        final float strokeWidth;
+
+        Key(final String label, final Style style, final Paint paint, final float strokeWidth) {
+            this.label = label;
+            this.shape = style.shape;
+            this.backgroundColor = style.backgroundColor;
+            this.backgroundColor2 = style.backgroundColor2;
+            this.foregroundColor = style.foregroundColor;
+            this.borderColor = style.hasBorder() ? style.borderColor : 0;
+            this.textSize = paint.getTextSize();
+            this.typeface = paint.getTypeface();
+            this.strokeWidth = strokeWidth;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key other = (Key) o;
+            return label.equals(other.label) && shape == other.shape && backgroundColor == other.backgroundColor
+                    && backgroundColor2 == other.backgroundColor2 && foregroundColor == other.foregroundColor
+                    && borderColor == other.borderColor && textSize == other.textSize
+                    && Objects.equals(typeface, other.typeface) && strokeWidth == other.strokeWidth;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = label.hashCode();
+            hash = hash * 31 + shape.hashCode();
+            hash = hash * 31 + backgroundColor;
+            hash = hash * 31 + backgroundColor2;
+            hash = hash * 31 + foregroundColor;
+            hash = hash * 31 + borderColor;
+            hash = hash * 31 + Float.floatToIntBits(textSize);
+            hash = hash * 31 + Objects.hashCode(typeface);
+            hash = hash * 31 + Float.floatToIntBits(strokeWidth);
+            return hash;
+        }
+    }
+
+    /**
+     * Returns the badge for a label, rasterizing it if it is not cached. Text size and typeface are taken from the
+     * given paint, which is not modified.
+     */
+    public static Badge get(final String label, final Style style, final Paint paint, final float strokeWidth) {
+        final Key key = new Key(label, style, paint, strokeWidth);
+        Badge badge = cache.get(key);
+        if (badge == null) {
+            badge = render(label, style, paint, strokeWidth);
+            cache.put(key, badge);
+        }
+        return badge;
+    }
+
+    /**
+     * Measures the width of a badge without rasterizing it.
+     */
+    public static int width(final CharSequence text, final int start, final int end, final Style style,
+            final Paint paint) {
+        final FontMetrics fontMetrics = paint.getFontMetrics();
+        final float height = fontMetrics.bottom - fontMetrics.top;
+        return Math.round(paint.measureText(text, start, end) + padding(style, paint, height) * 2);
+    }
+
+    /**
+     * Drops all badges, for example after the dark mode setting or line colors have changed.
+     */
+    public static void invalidate() {
+        cache.evictAll();
+    }
+
+    public static void trimToHalf() {
+        cache.trimToSize(MAX_BYTES / 2);
+    }
+
+    private static Badge render(final String label, final Style style, final Paint sourcePaint,
+            final float strokeWidth) {
+        final Paint paint = new Paint(sourcePaint);
+        final FontMetrics fontMetrics = paint.getFontMetrics();
+        final float height = fontMetrics.bottom - fontMetrics.top;
+        final float radius = radius(style, height);
+        final float padding = padding(style, paint, height);
+        final int baseline = (int) Math.ceil(-fontMetrics.top);
+        final int width = Math.max(width(label, 0, label.length(), style, paint), 1);
+        final int bitmapHeight = Math.max(baseline + (int) Math.ceil(fontMetrics.bottom), 1);
+        final Bitmap bitmap = Bitmap.createBitmap(width, bitmapHeight, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final RectF box = new RectF(0, baseline + fontMetrics.top, width, baseline + fontMetrics.bottom);
+
+        // Background
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(style.backgroundColor);
+        if (style.backgroundColor2 == 0) {
+            paint.setShader(null);
+        } else {
+            final Matrix matrix = new Matrix();
+            final RectF boxRotated = new RectF();
+            matrix.postRotate(90, box.centerX(), box.centerY());
+            matrix.mapRect(boxRotated, box);
+            paint.setShader(new LinearGradient(boxRotated.left, boxRotated.top, boxRotated.right, boxRotated.bottom,
+                    new int[] { style.backgroundColor, style.backgroundColor2 }, GRADIENT_POSITIONS,
+                    Shader.TileMode.CLAMP));
+        }
+        canvas.drawRoundRect(box, radius, radius, paint);
+
+        // Border
+        if (style.hasBorder() && style.borderColor != Color.BLACK) {
+            final float halfStroke = strokeWidth / 2;
+            box.set(box.left + halfStroke, box.top + halfStroke, box.right - halfStroke, box.bottom - halfStroke);
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(strokeWidth);
+            paint.setColor(style.borderColor);
+            paint.setShader(null);
+            canvas.drawRoundRect(box, radius, radius, paint);
+        }
+
+        // Foreground
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(style.foregroundColor);
+        paint.setShader(null);
+        canvas.drawText(label, Math.round(padding), baseline, paint);
+
+        return new Badge(bitmap, baseline);
+    }
+
+    private static float radius(final Style style, final float height) {
+        if (style.shape == Shape.RECT)
+            return 0;
+        else if (style.shape == Shape.CIRCLE)
+            return height / 2;
+        else
+            return height / 4;
+    }
+
+    private static float padding(final Style style, final Paint paint, final float height) {
+        if (style.shape == Shape.RECT)
+            return paint.measureText("i");
+        else if (style.shape == Shape.CIRCLE)
+            return height / 3;
+        else
+            return height / 5;
+    }
+}
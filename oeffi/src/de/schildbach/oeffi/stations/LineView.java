@@ -21,12 +21,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.LinearGradient;
-import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Paint.FontMetrics;
-import android.graphics.RectF;
-import android.graphics.Shader;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.text.Spannable;
@@ -169,9 +164,10 @@ public class LineView extends TextView {
                     text.append('\u21ba'); // anticlockwise arrow symbol
 
                 final int end = text.length();
+                final String label = text.subSequence(begin, end).toString();
                 text.append('\ufeff'); // Workaround
 
-                text.setSpan(new Span(style, strokeWidth), begin, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                text.setSpan(new Span(label, style, strokeWidth), begin, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
 
             setText(text);
@@ -203,16 +199,16 @@ public class LineView extends TextView {
     }
 
     private static class Span extends ReplacementSpan {
+        private final String label;
         private final Style style;
         private final float strokeWidth;
 
-        private final RectF box = new RectF(), boxRotated = new RectF();
-        private final Matrix matrix = new Matrix();
-        private final int[] gradientColors = new int[2];
+        private LineBadgeCache.Badge badge = null;
+        private float badgeTextSize;
+        private Typeface badgeTypeface;
 
-        private static final float[] GRADIENT_POSITIONS = new float[] { 0.495f, 0.505f };
-
-        private Span(final Style style, final float strokeWidth) {
+        private Span(final String label, final Style style, final float strokeWidth) {
+            this.label = label;
             this.style = style;
             this.strokeWidth = strokeWidth;
         }
@@ -220,73 +216,19 @@ public class LineView extends TextView {
         @Override
         public void draw(final Canvas canvas, final CharSequence text, final int start, final int end, final float x,
                 final int top, final int y, final int bottom, final Paint paint) {
-            final FontMetrics fontMetrics = paint.getFontMetrics();
-            final float height = fontMetrics.bottom - fontMetrics.top;
-            final float radius = radius(height);
-            final float padding = padding(paint, height);
-            box.set(x, y + fontMetrics.top, x + Math.round(paint.measureText(text, start, end) + padding * 2),
-                    y + fontMetrics.bottom);
-
-            // Background
-            paint.setStyle(Paint.Style.FILL);
-            if (style.backgroundColor2 == 0) {
-                paint.setColor(style.backgroundColor);
-                paint.setShader(null);
-            } else {
-                matrix.reset();
-                matrix.postRotate(90, box.centerX(), box.centerY());
-                matrix.mapRect(boxRotated, box);
-                gradientColors[0] = style.backgroundColor;
-                gradientColors[1] = style.backgroundColor2;
-                paint.setShader(new LinearGradient(boxRotated.left, boxRotated.top, boxRotated.right, boxRotated.bottom,
-                        gradientColors, GRADIENT_POSITIONS, Shader.TileMode.CLAMP));
-            }
-            paint.setColor(style.backgroundColor);
-            canvas.drawRoundRect(box, radius, radius, paint);
-
-            // Border
-            if (style.hasBorder() && style.borderColor != Color.BLACK) {
-                final float halfStroke = strokeWidth / 2;
-                box.set(box.left + halfStroke, box.top + halfStroke, box.right - halfStroke, box.bottom - halfStroke);
-                paint.setStyle(Paint.Style.STROKE);
-                paint.setStrokeWidth(strokeWidth);
-                paint.setColor(style.borderColor);
-                paint.setShader(null);
-                canvas.drawRoundRect(box, radius, radius, paint);
+            // the span is usually drawn with the same paint again and again
+            if (badge == null || badgeTextSize != paint.getTextSize() || badgeTypeface != paint.getTypeface()) {
+                badge = LineBadgeCache.get(label, style, paint, strokeWidth);
+                badgeTextSize = paint.getTextSize();
+                badgeTypeface = paint.getTypeface();
             }
-
-            // Foreground
-            paint.setStyle(Paint.Style.FILL);
-            paint.setColor(style.foregroundColor);
-            paint.setShader(null);
-            canvas.drawText(text, start, end, x + Math.round(padding), y, paint);
+            canvas.drawBitmap(badge.bitmap, x, y - badge.baseline, null);
         }
 
         @Override
         public int getSize(final Paint paint, final CharSequence text, final int start, final int end,
                 final Paint.FontMetricsInt fm) {
-            final FontMetrics fontMetrics = paint.getFontMetrics();
-            final float height = fontMetrics.bottom - fontMetrics.top;
-            final float padding = padding(paint, height);
-            return Math.round(paint.measureText(text, start, end) + padding * 2);
-        }
-
-        private float radius(final float height) {
-            if (style.shape == Shape.RECT)
-                return 0;
-            else if (style.shape == Shape.CIRCLE)
-                return height / 2;
-            else
-                return height / 4;
-        }
-
-        private float padding(final Paint paint, final float height) {
-            if (style.shape == Shape.RECT)
-                return paint.measureText("i");
-            else if (style.shape == Shape.CIRCLE)
-                return height / 3;
-            else
-                return height / 5;
+            return LineBadgeCache.width(text, start, end, style, paint);
         }
     }
 }
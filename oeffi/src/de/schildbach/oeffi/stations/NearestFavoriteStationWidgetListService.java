@@ -40,24 +40,28 @@ import de.schildbach.pte.dto.Style;
 import de.schildbach.pte.dto.PTDate;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
 public class NearestFavoriteStationWidgetListService extends RemoteViewsService {
+    public static final String INTENT_EXTRA_DEPARTURES_KEY = RemoteViewsFactory.class.getName() + ".departures_key";
     public static final String INTENT_EXTRA_DEPARTURES = RemoteViewsFactory.class.getName() + ".departures";
+    public static final String INTENT_EXTRA_FETCHED_AT = RemoteViewsFactory.class.getName() + ".fetched_at";
     public static final String INTENT_EXTRA_CANSHOWJOURNEYS = RemoteViewsFactory.class.getName() + ".canShowJourneys";
 
     public static Intent getStartIntent(
             final Context context,
             final int appWidgetId,
-            final List<Departure> departures,
+            final String departuresKey,
+            final WidgetDeparturesCache.Entry departures,
             final boolean canShowJourneys) {
         final Intent intent = new Intent(context, NearestFavoriteStationWidgetListService.class);
         intent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-        intent.putExtra(INTENT_EXTRA_DEPARTURES,
-                Objects.serialize((Serializable) departures));
-        intent.putExtra(INTENT_EXTRA_DEPARTURES + ".hash",
-                departures.hashCode());
+        // departures are usually picked up in-process via the cache, the serialized copy survives process death
+        intent.putExtra(INTENT_EXTRA_DEPARTURES_KEY, departuresKey);
+        intent.putExtra(INTENT_EXTRA_DEPARTURES, Objects.serialize((Serializable) departures.departures));
+        intent.putExtra(INTENT_EXTRA_FETCHED_AT, departures.fetchedAt);
         intent.putExtra(INTENT_EXTRA_CANSHOWJOURNEYS, canShowJourneys);
         intent.setData(Uri.parse(intent.toUri(Intent.URI_INTENT_SCHEME)));
         return intent;
@@ -71,14 +75,31 @@ public class NearestFavoriteStationWidgetListService extends RemoteViewsService
     private static class RemoteViewsFactory implements RemoteViewsService.RemoteViewsFactory {
         private final Context context;
         private final java.text.DateFormat timeFormat;
-        private final List<Departure> departures;
+        private final String departuresKey;
+        private final Intent intent;
+        private List<Departure> departures;
         private final boolean canShowJourneys;
 
         public RemoteViewsFactory(final Context context, final Intent intent) {
             this.context = context;
             this.timeFormat = DateFormat.getTimeFormat(context);
-            this.departures = (List<Departure>) Objects.deserialize(intent.getByteArrayExtra(INTENT_EXTRA_DEPARTURES));
+            this.departuresKey = intent.getStringExtra(INTENT_EXTRA_DEPARTURES_KEY);
+            this.intent = intent;
             this.canShowJourneys = intent.getBooleanExtra(INTENT_EXTRA_CANSHOWJOURNEYS, false);
+            loadDepartures();
+        }
+
+        private void loadDepartures() {
+            final WidgetDeparturesCache.Entry entry = departuresKey != null
+                    ? WidgetDeparturesCache.getLatest(departuresKey) : null;
+            if (entry != null) {
+                departures = entry.departures;
+            } else if (departures == null) {
+                // process has been restarted since the last refresh, fall back to the copy in the intent
+                final List<Departure> serialized = (List<Departure>) Objects.deserialize(
+                        intent.getByteArrayExtra(INTENT_EXTRA_DEPARTURES));
+                departures = serialized != null ? serialized : Collections.emptyList();
+            }
         }
 
         @Override
@@ -91,6 +112,7 @@ public class NearestFavoriteStationWidgetListService extends RemoteViewsService
 
         @Override
         public void onDataSetChanged() {
+            loadDepartures();
         }
 
         @Override
@@ -17,9 +17,11 @@
 
 package de.schildbach.oeffi.stations;
 
+import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.Context;
 import android.content.Intent;
+import android.location.LocationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +33,16 @@ public class NearestFavoriteStationWidgetProvider extends AppWidgetProvider {
     public void onReceive(final Context context, final Intent intent) {
         final String action = intent.getAction();
         log.info("got broadcast: {}", action);
-        NearestFavoriteStationWidgetService.schedulePeriodic(context);
+        if (WidgetRefreshPolicy.ACTION_GEOFENCE_EXIT.equals(action)) {
+            if (!intent.getBooleanExtra(LocationManager.KEY_PROXIMITY_ENTERING, true)) {
+                new WidgetRefreshPolicy().onGeofenceExit();
+                NearestFavoriteStationWidgetService.scheduleImmediate(context);
+            }
+        } else if (AppWidgetManager.ACTION_APPWIDGET_UPDATE.equals(action)) {
+            // user tapped the widget or just added it
+            NearestFavoriteStationWidgetService.scheduleImmediate(context);
+        } else {
+            NearestFavoriteStationWidgetService.schedulePeriodic(context);
+        }
     }
 }
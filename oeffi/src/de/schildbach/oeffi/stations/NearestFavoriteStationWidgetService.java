@@ -25,12 +25,10 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.location.Criteria;
 import android.location.Location;
 import android.location.LocationListener;
@@ -54,12 +52,12 @@ import de.schildbach.oeffi.Constants;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.network.NetworkProviderFactory;
 import de.schildbach.oeffi.util.Formats;
-import de.schildbach.oeffi.util.GeoUtils;
+import de.schildbach.oeffi.util.GeoGridIndex;
 import de.schildbach.pte.NetworkId;
 import de.schildbach.pte.provider.NetworkProvider;
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.LocationType;
-import de.schildbach.pte.dto.Point;
+import de.schildbach.pte.dto.PTDate;
 import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.StationDepartures;
 import de.schildbach.pte.exception.BlockedException;
@@ -71,37 +69,49 @@ import javax.net.ssl.SSLException;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 public class NearestFavoriteStationWidgetService extends JobService {
     private static Refresher refresher;
     private static final int JOB_ID_PERIODIC = 0;
     private static final int JOB_ID_IMMEDIATE = 1;
+    private static final float NEAREST_FAVORITE_MAX_DISTANCE = 50000; // meters
+    private static final long DEPARTURES_DEADLINE_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+    private static final long REFRESH_FLEX_MS = 2 * DateUtils.MINUTE_IN_MILLIS;
 
     private static final Logger log = LoggerFactory.getLogger(NearestFavoriteStationWidgetService.class);
 
     public static void schedulePeriodic(final Context context) {
+        scheduleNext(context, new WidgetRefreshPolicy().nextRefreshDelay());
+    }
+
+    private static void scheduleNext(final Context context, final long delay) {
         final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
         final ComponentName providerName = new ComponentName(context, NearestFavoriteStationWidgetProvider.class);
         final boolean haveWidgets = AppWidgetManager.getInstance(context).getAppWidgetIds(providerName).length > 0;
         if (haveWidgets) {
             final JobInfo.Builder jobInfo = new JobInfo.Builder(JOB_ID_PERIODIC, new ComponentName(context,
                     NearestFavoriteStationWidgetService.class));
-            jobInfo.setPeriodic(DateUtils.MINUTE_IN_MILLIS * 15);
+            jobInfo.setMinimumLatency(delay);
+            jobInfo.setOverrideDeadline(delay + REFRESH_FLEX_MS);
             jobInfo.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
             final JobInfo job = jobInfo.build();
             jobScheduler.schedule(job);
-            log.info("Scheduled periodic job: {}", job);
+            log.info("Scheduled next job in {} s: {}", delay / DateUtils.SECOND_IN_MILLIS, job);
         } else {
             jobScheduler.cancelAll();
+            new WidgetRefreshPolicy().removeGeofence(context);
         }
     }
 
@@ -153,8 +163,9 @@ public class NearestFavoriteStationWidgetService extends JobService {
     private static class Refresher extends ContextWrapper {
         private final AppWidgetManager appWidgetManager;
         private final LocationManager locationManager;
-        private final ContentResolver contentResolver;
         private final Executor executor = Executors.newFixedThreadPool(2);
+        private final Executor fetchExecutor = Executors.newFixedThreadPool(4);
+        private final WidgetRefreshPolicy policy = new WidgetRefreshPolicy();
         private final HandlerThread backgroundThread;
         private final Handler backgroundHandler;
 
@@ -163,7 +174,6 @@ public class NearestFavoriteStationWidgetService extends JobService {
 
             appWidgetManager = AppWidgetManager.getInstance(this);
             locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-            contentResolver = getContentResolver();
             backgroundThread = new HandlerThread("widgetServiceThread", Process.THREAD_PRIORITY_BACKGROUND);
             backgroundThread.start();
             backgroundHandler = new Handler(backgroundThread.getLooper());
@@ -175,14 +185,28 @@ public class NearestFavoriteStationWidgetService extends JobService {
 
         public void schedule(final NearestFavoriteStationWidgetService service, final JobParameters params) {
             executor.execute(() -> {
-                new Job().run();
-                service.jobFinished(params, false);
-                log.info("Job finished: {}", params);
+                final Job job = new Job(params.getJobId() == JOB_ID_IMMEDIATE);
+                try {
+                    job.run();
+                } finally {
+                    service.jobFinished(params, false);
+                    log.info("Job finished: {}", params);
+                    // must not reschedule while the job is still running, as that would stop it
+                    if (job.haveWidgets)
+                        scheduleNext(Refresher.this, policy.scheduleNextRefresh(job.firstDepartureAt));
+                }
             });
         }
 
         private class Job implements Runnable {
+            private final boolean forceLocationFix;
             private RemoteViews views;
+            private boolean haveWidgets = false;
+            private long firstDepartureAt = 0;
+
+            public Job(final boolean forceLocationFix) {
+                this.forceLocationFix = forceLocationFix;
+            }
 
             @Override
             public void run() {
@@ -190,6 +214,7 @@ public class NearestFavoriteStationWidgetService extends JobService {
                 final int[] appWidgetIds = appWidgetManager.getAppWidgetIds(providerName);
                 if (appWidgetIds.length == 0)
                     return;
+                haveWidgets = true;
 
                 views = new RemoteViews(getPackageName(), R.layout.station_widget_content);
 
@@ -202,6 +227,15 @@ public class NearestFavoriteStationWidgetService extends JobService {
                     return;
                 }
 
+                if (!forceLocationFix) {
+                    final Location reusableLocation = policy.reusableLocation();
+                    if (reusableLocation != null) {
+                        log.info("Widgets: {}, reusing location: {}", Arrays.toString(appWidgetIds), reusableLocation);
+                        handleLocation(appWidgetIds, reusableLocation, false);
+                        return;
+                    }
+                }
+
                 log.info("Available location providers: {}", locationManager.getAllProviders());
                 final String provider;
                 final LocationProvider fused = locationManager.getProvider("fused");
@@ -242,7 +276,8 @@ public class NearestFavoriteStationWidgetService extends JobService {
                 try {
                     final Location here = future.get(Constants.LOCATION_BACKGROUND_UPDATE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
                     log.info("Widgets: {}, location: {}", Arrays.toString(appWidgetIds), here);
-                    handleLocation(appWidgetIds, here);
+                    policy.onLocationFix(here);
+                    handleLocation(appWidgetIds, here, true);
                 } catch (final TimeoutException x) {
                     log.info("Widgets: {}, location timed out after {} ms", Arrays.toString(appWidgetIds),
                             Constants.LOCATION_BACKGROUND_UPDATE_TIMEOUT_MS);
@@ -272,136 +307,207 @@ public class NearestFavoriteStationWidgetService extends JobService {
                 }
             }
 
-            private void handleLocation(final int[] appWidgetIds, final Location here) {
-                // determine nearest station
-                final List<Favorite> favorites = new ArrayList<>();
-
-                final Cursor favCursor = contentResolver.query(FavoriteStationsProvider.CONTENT_URI(), null,
-                        FavoriteStationsProvider.KEY_TYPE + "=?",
-                        new String[]{String.valueOf(FavoriteStationsProvider.TYPE_FAVORITE)}, null);
-
-                if (favCursor != null) {
-                    final int networkCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NETWORK);
-                    final int stationIdCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_ID);
-                    final int stationTypeCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_TYPE);
-                    final int stationPlaceCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_PLACE);
-                    final int stationNameCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NAME);
-                    final int stationLatCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_LAT);
-                    final int stationLonCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_LON);
-                    final int stationNickNameCol = favCursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NICKNAME);
-
-                    while (favCursor.moveToNext()) {
-                        final LocationType stationType = LocationType.valueOf(favCursor.getString(stationTypeCol));
-                        if (stationType != LocationType.STATION)
-                            continue;
-                        final String network = favCursor.getString(networkCol);
-                        final String stationId = favCursor.getString(stationIdCol);
-                        final String stationPlace = favCursor.getString(stationPlaceCol);
-                        final String stationName = favCursor.getString(stationNameCol);
-                        final String stationNickName = favCursor.getString(stationNickNameCol);
-                        final int lat = favCursor.getInt(stationLatCol);
-                        final int lon = favCursor.getInt(stationLonCol);
-                        final Point stationPoint = (lat == 0 && lon == 0) ? null : Point.from1E6(lat, lon);
+            private void handleLocation(final int[] appWidgetIds, final Location here, final boolean isFreshFix) {
+                // determine nearest stations, at least two for sizing the geofence
+                final List<Favorite> favorites = findNearestFavorites(here, Math.max(appWidgetIds.length, 2));
+                if (isFreshFix && !favorites.isEmpty())
+                    policy.updateGeofence(Refresher.this, here, favorites.get(0).distance,
+                            favorites.size() > 1 ? favorites.get(1).distance : Float.NaN);
+
+                Arrays.sort(appWidgetIds);
+                log.info("Distributing {} station favorites to {} app widgets", favorites.size(), appWidgetIds.length);
 
+                final int numFavorites = favorites.size();
+                if (numFavorites == 0) {
+                    for (final int appWidgetId : appWidgetIds) {
+                        views.setViewVisibility(R.id.station_widget_departures, View.GONE);
+                        setMessage(getString(R.string.nearest_favorite_station_widget_no_favorites));
+                        views.setTextViewText(R.id.station_widget_header, null);
+                        appWidgetManager.updateAppWidget(appWidgetId, views);
+                    }
+                    return;
+                }
+
+                // assign favorites to widgets, and show loading state
+                final Favorite[] widgetFavorites = new Favorite[appWidgetIds.length];
+                final Map<String, Favorite> distinctStations = new LinkedHashMap<>();
+                for (int i = 0; i < appWidgetIds.length; i++) {
+                    final int appWidgetId = appWidgetIds[appWidgetIds.length - i - 1];
+                    final Favorite favorite = favorites.get(i % numFavorites);
+                    log.debug("Favorite: {}", favorite);
+                    widgetFavorites[i] = favorite;
+                    distinctStations.put(WidgetDeparturesCache.key(favorite.networkId, favorite.location.id), favorite);
+
+                    views.setViewVisibility(R.id.station_widget_departures, View.GONE);
+                    views.setViewVisibility(R.id.station_widget_message, View.GONE);
+                    views.setTextViewText(R.id.station_widget_distance, Formats.formatDistance(favorite.distance));
+                    views.setViewVisibility(R.id.station_widget_distance, View.VISIBLE);
+                    setHeader(appWidgetId, getString(R.string.nearest_favorite_station_widget_loading));
+                    appWidgetManager.updateAppWidget(appWidgetId, views);
+                }
+
+                // fetch each distinct station once, concurrently
+                final Map<String, CompletableFuture<WidgetDeparturesCache.Entry>> fetches = new HashMap<>();
+                for (final Map.Entry<String, Favorite> station : distinctStations.entrySet())
+                    fetches.put(station.getKey(), fetchDepartures(station.getKey(), station.getValue()));
+                try {
+                    CompletableFuture.allOf(fetches.values().toArray(new CompletableFuture[0]))
+                            .get(DEPARTURES_DEADLINE_MS, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException x) {
+                    log.info("Departures deadline of {} ms exceeded", DEPARTURES_DEADLINE_MS);
+                } catch (final InterruptedException x) {
+                    throw new RuntimeException(x);
+                } catch (final ExecutionException x) {
+                    // handled per station below
+                }
+                WidgetDeparturesCache.retainOnly(distinctStations.keySet());
+                log.info("Fetched departures of {} distinct stations for {} app widgets", distinctStations.size(),
+                        appWidgetIds.length);
+
+                // fan out results
+                final java.text.DateFormat timeFormat = DateFormat.getTimeFormat(Refresher.this);
+                for (int i = 0; i < appWidgetIds.length; i++) {
+                    final int appWidgetId = appWidgetIds[appWidgetIds.length - i - 1];
+                    final Favorite favorite = widgetFavorites[i];
+                    final String key = WidgetDeparturesCache.key(favorite.networkId, favorite.location.id);
+                    final CompletableFuture<WidgetDeparturesCache.Entry> fetch = fetches.get(key);
+                    final String stationId = favorite.location.id;
+                    final String stationName = favorite.location.name;
+
+                    views.setTextViewText(R.id.station_widget_distance, Formats.formatDistance(favorite.distance));
+
+                    if (!fetch.isDone()) {
+                        setHeader(appWidgetId, stationName);
+                        setMessage(getString(R.string.nearest_favorite_station_widget_error_timeout));
+                        log.info("Timed out querying departures for station {}", stationId);
+                    } else {
                         try {
-                            final NetworkId networkId = NetworkId.valueOf(network);
-                            NetworkProviderFactory.provider(networkId); // check if existent
-
-                            final Favorite favorite = new Favorite(
-                                    networkId,
-                                    stationId, stationType, stationPlace, stationName,
-                                    stationNickName,
-                                    stationPoint,
-                                    stationPoint == null ? 99999999.9f : GeoUtils.distanceBetween(here, stationPoint).distanceInMeters);
-                            favorites.add(favorite);
-                        } catch (final IllegalArgumentException x) {
-                            log.info("Unknown network {}, favorite {}", network, stationId);
+                            final boolean canShowJourneys = NetworkProviderFactory.provider(favorite.networkId)
+                                    .hasCapabilities(NetworkProvider.Capability.JOURNEY);
+                            final WidgetDeparturesCache.Entry entry = fetch.get();
+                            setResult(appWidgetId, key, entry, favorite, timeFormat, canShowJourneys);
+                            noteFirstDeparture(entry);
+                        } catch (final ExecutionException x) {
+                            setError(appWidgetId, stationId, stationName, x.getCause());
+                        } catch (final InterruptedException x) {
+                            throw new RuntimeException(x);
                         }
                     }
+                    appWidgetManager.updateAppWidget(appWidgetId, views);
+                }
 
-                    favCursor.close();
+                for (final CompletableFuture<WidgetDeparturesCache.Entry> fetch : fetches.values())
+                    fetch.cancel(true);
+            }
 
-                    Collections.sort(favorites);
-                    Arrays.sort(appWidgetIds);
-                    log.info("Distributing {} station favorites to {} app widgets", favorites.size(), appWidgetIds.length);
+            private void noteFirstDeparture(final WidgetDeparturesCache.Entry entry) {
+                final long now = System.currentTimeMillis();
+                for (final Departure departure : entry.departures) {
+                    final PTDate time = departure.predictedTime != null ? departure.predictedTime
+                            : departure.plannedTime;
+                    if (time != null && time.getTime() > now) {
+                        if (firstDepartureAt == 0 || time.getTime() < firstDepartureAt)
+                            firstDepartureAt = time.getTime();
+                        return;
+                    }
+                }
+            }
 
-                    final java.text.DateFormat timeFormat = DateFormat.getTimeFormat(Refresher.this);
+            private CompletableFuture<WidgetDeparturesCache.Entry> fetchDepartures(final String key,
+                    final Favorite favorite) {
+                final WidgetDeparturesCache.Entry fresh = WidgetDeparturesCache.getFresh(key);
+                if (fresh != null) {
+                    log.info("Using cached departures for favorite {}", favorite.location.id);
+                    return CompletableFuture.completedFuture(fresh);
+                }
 
-                    final int numFavorites = favorites.size();
-                    for (int i = 0; i < appWidgetIds.length; i++) {
-                        final int appWidgetId = appWidgetIds[appWidgetIds.length - i - 1];
+                final CompletableFuture<WidgetDeparturesCache.Entry> future = new CompletableFuture<>();
+                fetchExecutor.execute(() -> {
+                    if (future.isDone())
+                        return;
+                    try {
+                        final NetworkProvider networkProvider = NetworkProviderFactory.provider(favorite.networkId);
+                        final QueryDeparturesResult result = networkProvider.queryDepartures(
+                                favorite.location.id,
+                                new Date(),
+                                100,
+                                false,
+                                null);
+                        future.complete(WidgetDeparturesCache.put(key, result));
+                    } catch (final Exception x) {
+                        future.completeExceptionally(x);
+                    }
+                });
+                return future;
+            }
 
-                        // reset
-                        views.setViewVisibility(R.id.station_widget_departures, View.GONE);
-                        views.setViewVisibility(R.id.station_widget_message, View.GONE);
-
-                        if (numFavorites > 0) {
-                            final Favorite favorite = favorites.get(i % numFavorites);
-                            log.debug("Favorite: {}", favorite);
-
-                            views.setTextViewText(R.id.station_widget_distance, Formats.formatDistance(favorite.distance));
-                            views.setViewVisibility(R.id.station_widget_distance, View.VISIBLE);
-
-                            setHeader(appWidgetId, getString(R.string.nearest_favorite_station_widget_loading));
-                            appWidgetManager.updateAppWidget(appWidgetId, views);
-
-                            final NetworkId networkId = favorite.networkId;
-                            final NetworkProvider networkProvider = NetworkProviderFactory.provider(networkId);
-                            final String stationId = favorite.location.id;
-                            final String stationName = favorite.location.name;
-                            final boolean canShowJourneys = networkProvider.hasCapabilities(NetworkProvider.Capability.JOURNEY);
-
-                            try {
-                                final QueryDeparturesResult result = networkProvider.queryDepartures(
-                                        stationId,
-                                        new Date(),
-                                        100,
-                                        false,
-                                        null);
-                                setResult(appWidgetId, networkId, result, favorite, timeFormat, canShowJourneys);
-                                appWidgetManager.updateAppWidget(appWidgetId, views);
-                            } catch (final ConnectException x) {
-                                setHeader(appWidgetId, stationName);
-                                setMessage(getString(R.string.nearest_favorite_station_widget_error_connect));
-                                appWidgetManager.updateAppWidget(appWidgetId, views);
-                                log.info("Could not query departures for station " + stationId, x);
-                            } catch (final BlockedException x) {
-                                setHeader(appWidgetId, stationName);
-                                setMessage(
-                                        getString(R.string.nearest_favorite_station_widget_error_blocked, x.getUrl().host()));
-                                appWidgetManager.updateAppWidget(appWidgetId, views);
-                                log.info("Could not query departures for station " + stationId, x);
-                            } catch (final SSLException x) {
-                                setHeader(appWidgetId, stationName);
-                                setMessage(getString(R.string.nearest_favorite_station_widget_error_ssl, x.getMessage()));
-                                appWidgetManager.updateAppWidget(appWidgetId, views);
-                                log.info("Could not query departures for station " + stationId, x);
-                            } catch (final Exception x) {
-                                setHeader(appWidgetId, stationName);
-                                setMessage(getString(R.string.nearest_favorite_station_widget_error_exception, x.getMessage()));
-                                appWidgetManager.updateAppWidget(appWidgetId, views);
-                                log.info("Could not query departures for station " + stationId, x);
-                            }
-                        } else {
-                            setMessage(getString(R.string.nearest_favorite_station_widget_no_favorites));
-                            views.setTextViewText(R.id.station_widget_header, null);
-                            appWidgetManager.updateAppWidget(appWidgetId, views);
-                        }
+            private void setError(final int appWidgetId, final String stationId, final String stationName,
+                    final Throwable x) {
+                setHeader(appWidgetId, stationName);
+                if (x instanceof ConnectException)
+                    setMessage(getString(R.string.nearest_favorite_station_widget_error_connect));
+                else if (x instanceof BlockedException)
+                    setMessage(getString(R.string.nearest_favorite_station_widget_error_blocked,
+                            ((BlockedException) x).getUrl().host()));
+                else if (x instanceof SSLException)
+                    setMessage(getString(R.string.nearest_favorite_station_widget_error_ssl, x.getMessage()));
+                else
+                    setMessage(getString(R.string.nearest_favorite_station_widget_error_exception, x.getMessage()));
+                log.info("Could not query departures for station " + stationId, x);
+            }
+
+            private List<Favorite> findNearestFavorites(final Location here, final int k) {
+                final FavoriteStationsCache cache = FavoriteStationsCache.getInstance();
+                final int latE6 = (int) Math.round(here.getLatitude() * 1E6);
+                final int lonE6 = (int) Math.round(here.getLongitude() * 1E6);
+                final Predicate<FavoriteStationsCache.Entry> filter = entry -> entry.location.type == LocationType.STATION
+                        && networkId(entry) != null;
+
+                List<GeoGridIndex.Neighbour<FavoriteStationsCache.Entry>> nearest =
+                        cache.nearestFavorites(latE6, lonE6, k, NEAREST_FAVORITE_MAX_DISTANCE, null, filter);
+                if (nearest.size() < k) // not enough around, fill up with the nearest anywhere, in distance order
+                    nearest = cache.nearestFavorites(latE6, lonE6, k, Float.MAX_VALUE, null, filter);
+
+                final List<Favorite> favorites = new ArrayList<>(k);
+                for (final GeoGridIndex.Neighbour<FavoriteStationsCache.Entry> neighbour : nearest)
+                    favorites.add(new Favorite(networkId(neighbour.item), neighbour.item, neighbour.distance));
+
+                if (favorites.isEmpty()) {
+                    // favorites without coordinate are not in the spatial index
+                    for (final FavoriteStationsCache.Entry entry : cache.entries(FavoriteStationsProvider.TYPE_FAVORITE)) {
+                        if (!entry.location.hasCoord() && filter.test(entry))
+                            favorites.add(new Favorite(networkId(entry), entry, 99999999.9f));
+                        if (favorites.size() >= k)
+                            break;
                     }
                 }
+                return favorites;
+            }
+
+            private NetworkId networkId(final FavoriteStationsCache.Entry entry) {
+                try {
+                    final NetworkId networkId = NetworkId.valueOf(entry.networkName);
+                    NetworkProviderFactory.provider(networkId); // check if existent
+                    return networkId;
+                } catch (final IllegalArgumentException x) {
+                    log.info("Unknown network {}, favorite {}", entry.networkName, entry.location.id);
+                    return null;
+                }
             }
 
             private void setResult(
-                    final int appWidgetId, final NetworkId networkId,
-                    final QueryDeparturesResult result, final Favorite favorite,
+                    final int appWidgetId, final String key,
+                    final WidgetDeparturesCache.Entry entry, final Favorite favorite,
                     final java.text.DateFormat timeFormat,
                     final boolean canShowJourneys) {
                 views.setTextViewText(R.id.station_widget_lastupdated,
-                        getString(R.string.nearest_favorite_station_widget_lastupdated, timeFormat.format(new Date())));
+                        getString(R.string.nearest_favorite_station_widget_lastupdated,
+                                timeFormat.format(new Date(entry.fetchedAt))));
 
                 final String stationId = favorite.location.id;
                 views.setTextViewText(R.id.station_widget_header, favorite.location.name);
 
+                final QueryDeparturesResult result = entry.result;
                 if (result.status == QueryDeparturesResult.Status.OK) {
                     setMessage(getString(R.string.nearest_favorite_station_widget_no_departures));
 
@@ -409,13 +515,10 @@ public class NearestFavoriteStationWidgetService extends JobService {
                     if (stationDepartures != null && stationDepartures.location.name != null)
                         views.setTextViewText(R.id.station_widget_header, stationDepartures.location.name);
 
-                    final List<Departure> departures = new ArrayList<>();
-                    for (final StationDepartures stationDeparture : result.stationDepartures)
-                        departures.addAll(stationDeparture.getNonCancelledDepartures());
-
-                    if (!departures.isEmpty()) {
-                        setDeparturesList(departures, appWidgetId, networkId, favorite.location, canShowJourneys);
-                        log.info("Got {} departures for favorite {}", departures.size(), stationId);
+                    if (!entry.departures.isEmpty()) {
+                        setDeparturesList(key, entry, appWidgetId, favorite.networkId, favorite.location,
+                                canShowJourneys);
+                        log.info("Got {} departures for favorite {}", entry.departures.size(), stationId);
                     } else {
                         log.info("Got no station departures for favorite {}", stationId);
                     }
@@ -426,14 +529,15 @@ public class NearestFavoriteStationWidgetService extends JobService {
             }
 
             private void setDeparturesList(
-                    final List<Departure> departures, final int appWidgetId,
+                    final String key, final WidgetDeparturesCache.Entry entry, final int appWidgetId,
                     final NetworkId networkId, final de.schildbach.pte.dto.Location location,
                     final boolean canShowJourneys) {
                 views.setViewVisibility(R.id.station_widget_message, View.GONE);
                 views.setViewVisibility(R.id.station_widget_departures, View.VISIBLE);
 
                 views.setRemoteAdapter(R.id.station_widget_departures,
-                        NearestFavoriteStationWidgetListService.getStartIntent(Refresher.this, appWidgetId, departures, canShowJourneys));
+                        NearestFavoriteStationWidgetListService.getStartIntent(Refresher.this, appWidgetId, key,
+                                entry, canShowJourneys));
 
                 views.setOnClickPendingIntent(R.id.station_widget_content, clickIntent(appWidgetId));
 
@@ -468,29 +572,19 @@ public class NearestFavoriteStationWidgetService extends JobService {
         }
     }
 
-    private static class Favorite implements Comparable<Favorite> {
+    private static class Favorite {
         public final NetworkId networkId;
         public final de.schildbach.pte.dto.Location location;
         public final de.schildbach.pte.dto.Location nickLocation;
         public final float distance;
 
-        public Favorite(
-                final NetworkId networkId, final String id, final LocationType type,
-                final String place, final String name,
-                final String nickName,
-                final Point coord, final float distance) {
+        public Favorite(final NetworkId networkId, final FavoriteStationsCache.Entry entry, final float distance) {
             this.networkId = networkId;
-            this.location = new de.schildbach.pte.dto.Location(type, id, coord, place, name);
-            this.nickLocation = new de.schildbach.pte.dto.Location(type, id, coord,
-                    nickName != null ? null : place,
-                    nickName != null ? nickName : name);
+            this.location = entry.location;
+            this.nickLocation = entry.nickLocation;
             this.distance = distance;
         }
 
-        public int compareTo(final Favorite other) {
-            return Float.compare(this.distance, other.distance);
-        }
-
         @Override
         public String toString() {
             return "Favorite[" + networkId + "," + location.id + ",'" + location.place + "','" + location.name + "'," + distance + "m]";
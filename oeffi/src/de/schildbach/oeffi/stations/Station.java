@@ -17,31 +17,79 @@
 
 package de.schildbach.oeffi.stations;
 
+import android.text.format.DateUtils;
+
 import de.schildbach.oeffi.util.GeoUtils;
 import de.schildbach.oeffi.util.KeyWordMatcher;
 import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.Standard;
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.LineDestination;
 import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.PTDate;
 import de.schildbach.pte.dto.Product;
 import de.schildbach.pte.dto.QueryDeparturesResult;
 
 import javax.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static java.util.Objects.requireNonNull;
 
 public class Station {
+    /**
+     * Departures of one line to one destination, in the order of the departures list.
+     */
+    public static final class DepartureGroup {
+        public final LineDestination lineDestination;
+        public final List<Departure> departures;
+        /** per departure, its own and its line's message joined by newline, or {@code null} if it has none */
+        public final List<String> messages;
+        /** regular interval in minutes, or 0 if there are too few departures or they are irregular */
+        public final int interval;
+
+        private DepartureGroup(final LineDestination lineDestination, final List<Departure> departures) {
+            this.lineDestination = lineDestination;
+            this.departures = Collections.unmodifiableList(departures);
+            final List<String> messages = new ArrayList<>(departures.size());
+            for (final Departure departure : departures)
+                messages.add(joinMessages(departure.message, departure.line.message));
+            this.messages = Collections.unmodifiableList(messages);
+            this.interval = determineInterval(departures);
+        }
+
+        @Nullable
+        public Product getProduct() {
+            return lineDestination.line.product;
+        }
+    }
+
+    private static final Map<Product, Line> productBadges = new EnumMap<>(Product.class);
+
+    static {
+        for (final Product product : Product.values())
+            productBadges.put(product, new Line(null, null, product, null, Standard.STYLES.get(product)));
+    }
+
     public final NetworkId network;
     public Location location;
     public @Nullable QueryDeparturesResult.Status departureQueryStatus = null;
     private @Nullable List<Departure> departures = null;
     private @Nullable List<LineDestination> lines = null;
     private @Nullable Product relevantProduct = null;
+    private @Nullable List<DepartureGroup> departureGroups = null;
+    private @Nullable List<Line> lineBadges = null;
+    private @Nullable Location lineBadgesLocation = null;
     public boolean hasDistanceAndBearing = false;
     public float distance;
     public float bearing;
@@ -64,10 +112,13 @@ public class Station {
         this.lines = lines;
 
         relevantProduct = null;
+        lineBadges = buildLineBadges(location, lines);
+        lineBadgesLocation = location;
     }
 
     public void setDepartures(@Nullable final List<Departure> departures) {
         this.departures = departures;
+        departureGroups = departures != null ? groupDeparturesByLineDestination(departures) : null;
         searchableItem = null;
     }
 
@@ -76,6 +127,27 @@ public class Station {
         return departures;
     }
 
+    /**
+     * @return departures grouped by line and destination, groups in order of their first departure, or {@code null}
+     *         if there are no departures
+     */
+    @Nullable
+    public List<DepartureGroup> getDepartureGroups() {
+        return departureGroups;
+    }
+
+    /**
+     * @return sorted line badges: the lines of this station, plus its products that no line stands for
+     */
+    public List<Line> getLineBadges() {
+        final Location location = this.location;
+        if (lineBadges == null || lineBadgesLocation != location) {
+            lineBadges = buildLineBadges(location, lines);
+            lineBadgesLocation = location;
+        }
+        return lineBadges;
+    }
+
     public boolean keyWordMatch(final KeyWordMatcher.Query query) {
         if (query == null) {
             matchedByQuery = true;
@@ -145,6 +217,72 @@ public class Station {
         return relevantProduct;
     }
 
+    private static List<DepartureGroup> groupDeparturesByLineDestination(final List<Departure> departures) {
+        final Map<LineDestination, List<Departure>> groups = new LinkedHashMap<>();
+        for (final Departure departure : departures) {
+            final LineDestination lineDestination = new LineDestination(departure.line, departure.destination);
+            List<Departure> group = groups.get(lineDestination);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(lineDestination, group);
+            }
+            group.add(departure);
+        }
+        final List<DepartureGroup> departureGroups = new ArrayList<>(groups.size());
+        for (final Map.Entry<LineDestination, List<Departure>> group : groups.entrySet())
+            departureGroups.add(new DepartureGroup(group.getKey(), group.getValue()));
+        return Collections.unmodifiableList(departureGroups);
+    }
+
+    private static List<Line> buildLineBadges(final Location location,
+            @Nullable final List<LineDestination> lineDestinations) {
+        final TreeSet<Line> lines = new TreeSet<>();
+        final Set<Product> products = location.products;
+        if (products != null)
+            for (final Product product : products)
+                lines.add(productBadges.get(product));
+        if (lineDestinations != null) {
+            for (final LineDestination lineDestination : lineDestinations) {
+                final Line line = lineDestination.line;
+                lines.add(line);
+                if (line.product != null)
+                    lines.remove(productBadges.get(line.product));
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(lines));
+    }
+
+    private static int determineInterval(final List<Departure> departures) {
+        if (departures.size() < 3)
+            return 0;
+        int interval = 0;
+        PTDate lastPlannedTime = null;
+        for (final Departure departure : departures) {
+            final PTDate plannedTime = departure.plannedTime;
+            if (plannedTime == null)
+                return 0;
+            if (lastPlannedTime != null) {
+                final int diff = (int) ((plannedTime.getTime() - lastPlannedTime.getTime())
+                        / DateUtils.MINUTE_IN_MILLIS);
+                if (interval == 0)
+                    interval = diff;
+                else if (Math.abs(diff - interval) > 1)
+                    return 0;
+            }
+            lastPlannedTime = plannedTime;
+        }
+        return interval;
+    }
+
+    @Nullable
+    private static String joinMessages(@Nullable final String message, @Nullable final String lineMessage) {
+        if (message == null)
+            return lineMessage;
+        if (lineMessage == null)
+            return message;
+        return message + "\n" + lineMessage;
+    }
+
     @Override
     public String toString() {
         return location.toString();
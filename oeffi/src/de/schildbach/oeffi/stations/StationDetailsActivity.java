@@ -580,7 +580,7 @@ public class StationDetailsActivity extends OeffiActivity implements StationsAwa
         selectedCoord = selectedStation.hasCoord() ? selectedStation : null;
         selectedAllDepartures = station.getDepartures();
         selectedLines = groupDestinationsByLine(station.getLines());
-        selectedFavState = FavoriteStationsProvider.favState(getContentResolver(), selectedNetwork, selectedStation);
+        selectedFavState = FavoriteStationsProvider.favState(selectedNetwork, selectedStation);
         selectedFilteredDepartures = null;
 
         ViewUtils.setVisibility(nearbyButton, selectedCoord != null);
@@ -0,0 +1,411 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import android.database.Cursor;
+
+import de.schildbach.oeffi.Application;
+import de.schildbach.oeffi.directions.QueryHistoryProvider;
+import de.schildbach.oeffi.util.IntList;
+import de.schildbach.oeffi.util.KeyWordMatcher;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.dto.Point;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device index of station names per network, for suggesting stations without a network round trip. It is fed
+ * from favorites, the query history, plan stations and stations seen in departure lists, and persisted to a compact
+ * binary file. When full, the stations least recently seen or suggested make room for new ones.
+ * <p>
+ * Queries match every query word against the beginnings of the words of a station name or place, so that suggestions
+ * work from the first keystroke. From three characters on, stations sharing enough word trigrams with the query are
+ * suggested as well, which tolerates typos. Words are folded like {@link KeyWordMatcher}.
+ */
+public final class StationNameIndex {
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_ENTRIES = 20000;
+    private static final int EVICT_ENTRIES = MAX_ENTRIES / 10;
+    private static final long SAVE_DELAY_SECONDS = 10;
+    private static final float MIN_TRIGRAM_SIMILARITY = 0.6f;
+
+    private static final Map<NetworkId, StationNameIndex> indexes = new EnumMap<>(NetworkId.class);
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private static final Logger log = LoggerFactory.getLogger(StationNameIndex.class);
+
+    private final NetworkId network;
+    private final File file;
+    private final List<Location> entries = new ArrayList<>();
+    private final Map<String, Integer> entriesById = new HashMap<>();
+    private final NavigableMap<String, IntList> entriesByWord = new TreeMap<>();
+    private final Map<Integer, IntList> entriesByTrigram = new HashMap<>();
+    private final long[] lastUsed = new long[MAX_ENTRIES];
+    private long clock = 0;
+    private boolean dirty = false;
+    private boolean saveScheduled = false;
+
+    /**
+     * Returns the index of the given network, loading it if needed. Does disk and database I/O on first access.
+     */
+    public static StationNameIndex get(final NetworkId network) {
+        synchronized (indexes) {
+            StationNameIndex index = indexes.get(network);
+            if (index == null) {
+                index = new StationNameIndex(network);
+                index.load();
+                indexes.put(network, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Adds stations in the background. Locations that are no identified stations are skipped.
+     */
+    public static void addAsync(final NetworkId network, final Collection<Location> locations) {
+        if (network == null || locations.isEmpty())
+            return;
+        final List<Location> copy = new ArrayList<>(locations);
+        executor.execute(() -> get(network).addAll(copy));
+    }
+
+    private StationNameIndex(final NetworkId network) {
+        this.network = network;
+        this.file = new File(Application.getInstance().getFilesDir(),
+                "station-index-" + network.name().toLowerCase(Locale.US) + ".bin");
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void addAll(final Collection<Location> locations) {
+        boolean added = false;
+        for (final Location location : locations)
+            added |= add(location);
+        if (added)
+            scheduleSave();
+    }
+
+    /**
+     * Suggests up to {@code maxResults} stations for the given query, the best first.
+     */
+    public synchronized List<Location> suggest(final String query, final int maxResults) {
+        final String[] queryWords = KeyWordMatcher.splitWords(query);
+        if (queryWords.length == 0 || entries.isEmpty())
+            return new ArrayList<>();
+        final int numEntries = entries.size();
+
+        // prefix matches: every query word must start a word of the entry
+        final float[] scores = new float[numEntries];
+        final int[] matchedWords = new int[numEntries];
+        for (int iWord = 0; iWord < queryWords.length; iWord++) {
+            final String queryWord = queryWords[iWord];
+            for (final Map.Entry<String, IntList> word : entriesByWord
+                    .subMap(queryWord, true, queryWord + Character.MAX_VALUE, false).entrySet()) {
+                final boolean exact = word.getKey().length() == queryWord.length();
+                final IntList ids = word.getValue();
+                for (int i = 0; i < ids.size(); i++) {
+                    final int id = ids.get(i);
+                    if (matchedWords[id] == iWord) {
+                        matchedWords[id] = iWord + 1;
+                        scores[id] += exact ? 2 : 1;
+                    }
+                }
+            }
+        }
+        for (int id = 0; id < numEntries; id++)
+            if (matchedWords[id] < queryWords.length)
+                scores[id] = 0;
+            else
+                scores[id] += 10;
+
+        // fuzzy matches: shared trigrams
+        final int[] queryTrigrams = trigrams(queryWords);
+        if (queryTrigrams.length > 0 && String.join("", queryWords).length() >= 3) {
+            final int[] shared = new int[numEntries];
+            for (final int trigram : queryTrigrams) {
+                final IntList ids = entriesByTrigram.get(trigram);
+                if (ids != null)
+                    for (int i = 0; i < ids.size(); i++)
+                        shared[ids.get(i)]++;
+            }
+            for (int id = 0; id < numEntries; id++) {
+                final float similarity = (float) shared[id] / queryTrigrams.length;
+                if (similarity >= MIN_TRIGRAM_SIMILARITY)
+                    scores[id] = Math.max(scores[id], 10 * similarity);
+            }
+        }
+
+        final PriorityQueue<Integer> top = new PriorityQueue<>(maxResults + 1,
+                (a, b) -> scores[a] != scores[b] ? Float.compare(scores[a], scores[b]) : Integer.compare(b, a));
+        for (int id = 0; id < numEntries; id++) {
+            if (scores[id] <= 0)
+                continue;
+            top.add(id);
+            if (top.size() > maxResults)
+                top.poll();
+        }
+        final Location[] results = new Location[top.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            final int id = top.poll();
+            lastUsed[id] = ++clock;
+            results[i] = entries.get(id);
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    private boolean add(final Location location) {
+        if (location == null || location.type != LocationType.STATION || !location.isIdentified()
+                || location.name == null)
+            return false;
+        final Integer existing = entriesById.get(location.id);
+        if (existing != null) {
+            lastUsed[existing] = ++clock;
+            final Location old = entries.get(existing);
+            // only upgrade entries, e.g. by adding a coordinate, never change their words
+            if (!old.hasCoord() && location.hasCoord() && location.name.equals(old.name)
+                    && (location.place == null ? old.place == null : location.place.equals(old.place))) {
+                entries.set(existing, new Location(LocationType.STATION, location.id, location.coord,
+                        location.place, location.name));
+                return true;
+            }
+            return false;
+        }
+        if (entries.size() >= MAX_ENTRIES)
+            evictLeastRecentlyUsed();
+
+        final int id = entries.size();
+        entries.add(new Location(LocationType.STATION, location.id, location.coord, location.place, location.name));
+        entriesById.put(location.id, id);
+        lastUsed[id] = ++clock;
+        final String[] words = words(location);
+        for (final String word : words) {
+            IntList ids = entriesByWord.get(word);
+            if (ids == null) {
+                ids = new IntList();
+                entriesByWord.put(word, ids);
+            }
+            ids.addAscending(id);
+        }
+        for (final int trigram : trigrams(words)) {
+            IntList ids = entriesByTrigram.get(trigram);
+            if (ids == null) {
+                ids = new IntList();
+                entriesByTrigram.put(trigram, ids);
+            }
+            ids.addAscending(id);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the {@link #EVICT_ENTRIES} least recently used entries. Entry ids are dense, so the remaining entries are
+     * indexed anew, oldest first to keep their order of use.
+     */
+    private void evictLeastRecentlyUsed() {
+        final List<Location> retained = entriesByRecency();
+        retained.subList(0, Math.min(EVICT_ENTRIES, retained.size())).clear();
+        clear();
+        for (final Location location : retained)
+            add(location);
+        log.info("Station index for {}: evicted least recently used entries, {} left", network, entries.size());
+    }
+
+    private List<Location> entriesByRecency() {
+        final Integer[] ids = new Integer[entries.size()];
+        for (int id = 0; id < ids.length; id++)
+            ids[id] = id;
+        Arrays.sort(ids, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+        final List<Location> sorted = new ArrayList<>(ids.length);
+        for (final Integer id : ids)
+            sorted.add(entries.get(id));
+        return sorted;
+    }
+
+    private static String[] words(final Location location) {
+        final String[] nameWords = KeyWordMatcher.splitWords(location.name);
+        if (location.place == null)
+            return nameWords;
+        final String[] placeWords = KeyWordMatcher.splitWords(location.place);
+        final String[] words = Arrays.copyOf(placeWords, placeWords.length + nameWords.length);
+        System.arraycopy(nameWords, 0, words, placeWords.length, nameWords.length);
+        return words;
+    }
+
+    /**
+     * Distinct trigrams of the words, each padded with a leading space so that word beginnings weigh more. Characters
+     * are packed into an int, base 37.
+     */
+    private static int[] trigrams(final String[] words) {
+        final IntList trigrams = new IntList();
+        for (final String word : words) {
+            final String padded = ' ' + word;
+            for (int i = 0; i + 3 <= padded.length(); i++)
+                trigrams.addUnique(code(padded.charAt(i)) * 37 * 37 + code(padded.charAt(i + 1)) * 37
+                        + code(padded.charAt(i + 2)));
+        }
+        return trigrams.toArray();
+    }
+
+    private static int code(final char c) {
+        if (c >= 'a' && c <= 'z')
+            return c - 'a' + 1;
+        if (c >= '0' && c <= '9')
+            return c - '0' + 27;
+        return 0;
+    }
+
+    private void load() {
+        if (file.exists()) {
+            try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (is.readInt() == FILE_VERSION) {
+                    final int count = is.readInt();
+                    for (int i = 0; i < count; i++) {
+                        final String id = is.readUTF();
+                        final String name = is.readUTF();
+                        final String place = is.readUTF();
+                        final int lat = is.readInt();
+                        final int lon = is.readInt();
+                        add(new Location(LocationType.STATION, id,
+                                lat != 0 || lon != 0 ? Point.from1E6(lat, lon) : null,
+                                !place.isEmpty() ? place : null, name));
+                    }
+                }
+            } catch (final IOException x) {
+                log.warn("Could not read " + file + ", rebuilding.", x);
+                clear();
+            }
+        }
+        final int loaded = entries.size();
+
+        // pick up what is known locally anyway
+        for (final FavoriteStationsCache.Entry entry : FavoriteStationsCache.getInstance().entries(network,
+                FavoriteStationsProvider.TYPE_FAVORITE))
+            add(entry.location);
+        addFromQueryHistory();
+
+        log.info("Station index for {}: {} entries loaded, {} total", network, loaded, entries.size());
+        if (entries.size() > loaded)
+            scheduleSave();
+    }
+
+    private void addFromQueryHistory() {
+        final Cursor cursor = Application.getInstance().getContentResolver().query(
+                QueryHistoryProvider.CONTENT_URI().buildUpon().appendPath(network.name()).build(),
+                null, null, null, null);
+        if (cursor == null)
+            return;
+        final String[][] columnNames = {
+                { QueryHistoryProvider.KEY_FROM_TYPE, QueryHistoryProvider.KEY_FROM_ID,
+                        QueryHistoryProvider.KEY_FROM_LAT, QueryHistoryProvider.KEY_FROM_LON,
+                        QueryHistoryProvider.KEY_FROM_PLACE, QueryHistoryProvider.KEY_FROM_NAME },
+                { QueryHistoryProvider.KEY_TO_TYPE, QueryHistoryProvider.KEY_TO_ID,
+                        QueryHistoryProvider.KEY_TO_LAT, QueryHistoryProvider.KEY_TO_LON,
+                        QueryHistoryProvider.KEY_TO_PLACE, QueryHistoryProvider.KEY_TO_NAME } };
+        final int[][] columns = new int[columnNames.length][];
+        for (int i = 0; i < columnNames.length; i++) {
+            columns[i] = new int[columnNames[i].length];
+            for (int j = 0; j < columnNames[i].length; j++)
+                columns[i][j] = cursor.getColumnIndexOrThrow(columnNames[i][j]);
+        }
+        while (cursor.moveToNext()) {
+            for (final int[] c : columns) {
+                final LocationType type = QueryHistoryProvider.convert(cursor.getInt(c[0]));
+                if (type != LocationType.STATION)
+                    continue;
+                final int lat = cursor.getInt(c[2]);
+                final int lon = cursor.getInt(c[3]);
+                add(new Location(type, cursor.getString(c[1]), lat != 0 || lon != 0 ? Point.from1E6(lat, lon) : null,
+                        cursor.getString(c[4]), cursor.getString(c[5])));
+            }
+        }
+        cursor.close();
+    }
+
+    private void clear() {
+        entries.clear();
+        entriesById.clear();
+        entriesByWord.clear();
+        entriesByTrigram.clear();
+    }
+
+    private void scheduleSave() {
+        dirty = true;
+        if (!saveScheduled) {
+            saveScheduled = true;
+            executor.schedule(this::save, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void save() {
+        final List<Location> snapshot;
+        synchronized (this) {
+            saveScheduled = false;
+            if (!dirty)
+                return;
+            dirty = false;
+            // oldest first, so that loading restores the order of use
+            snapshot = entriesByRecency();
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (final DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            os.writeInt(FILE_VERSION);
+            os.writeInt(snapshot.size());
+            for (final Location location : snapshot) {
+                os.writeUTF(location.id);
+                os.writeUTF(location.name);
+                os.writeUTF(location.place != null ? location.place : "");
+                os.writeInt(location.hasCoord() ? location.getLatAs1E6() : 0);
+                os.writeInt(location.hasCoord() ? location.getLonAs1E6() : 0);
+            }
+        } catch (final IOException x) {
+            log.warn("Could not write " + tempFile, x);
+            return;
+        }
+        if (!tempFile.renameTo(file))
+            log.warn("Could not rename {} to {}", tempFile, file);
+    }
+}
@@ -78,11 +78,14 @@ import de.schildbach.oeffi.StationsAware;
 import de.schildbach.oeffi.directions.DirectionsActivity;
 import de.schildbach.oeffi.directions.QueryJourneyRunnable;
 import de.schildbach.oeffi.util.Formats;
+import de.schildbach.oeffi.util.GeoGridIndex;
 import de.schildbach.oeffi.util.GeoUtils;
 import de.schildbach.oeffi.util.KeyWordMatcher;
 import de.schildbach.oeffi.util.TimeSpec;
+import de.schildbach.oeffi.network.NetworkAreaIndex;
 import de.schildbach.oeffi.network.NetworkPickerActivity;
 import de.schildbach.oeffi.network.NetworkProviderFactory;
+import de.schildbach.oeffi.network.NetworkResources;
 import de.schildbach.oeffi.stations.list.JourneyClickListener;
 import de.schildbach.oeffi.stations.list.StationContextMenuItemListener;
 import de.schildbach.oeffi.stations.list.StationsAdapter;
@@ -159,9 +162,14 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     private Date presetTime;
     private final List<Station> stations = new ArrayList<>();
     private final Map<String, Station> stationsMap = new HashMap<>();
-    private final Map<String, Integer> favorites = new HashMap<>();
+    private final GeoGridIndex<Station> stationsIndex = new GeoGridIndex<>(STATIONS_INDEX_CELL_SIZE_E6);
+    private Map<String, Integer> favorites = Collections.emptyMap();
     private Station selectedStation;
     private Point deviceLocation;
+    // device location that station distances were last calculated for
+    private double distancesLatitude = Double.NaN, distancesLongitude = Double.NaN;
+    // networks a switch away from has been offered for already
+    private final Set<NetworkId> networkSwitchOffered = EnumSet.noneOf(NetworkId.class);
     private Location fixedLocation;
     private boolean fixedLocationResolving;
     private Float deviceBearing = null;
@@ -191,6 +199,11 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     private Handler backgroundHandler;
     private BroadcastReceiver connectivityReceiver;
     private BroadcastReceiver tickReceiver;
+    private final FavoriteStationsCache.Listener favoritesListener = networkName -> {
+        if (network != null && (networkName == null || networkName.equals(network.name()))) {
+            refreshFavorites();
+        }
+    };
 
     private int maxDeparturesPerStation;
 
@@ -229,6 +242,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     }
 
     private static final int DIALOG_NEARBY_STATIONS_ERROR = 1;
+    private static final int STATIONS_INDEX_CELL_SIZE_E6 = 5000; // about 500 m
 
     private static final Logger log = LoggerFactory.getLogger(StationsActivity.class);
 
@@ -357,13 +371,14 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                 if (!filter(station, products)) {
                                     i.remove();
                                     stationsMap.remove(station.location.id);
+                                    stationsIndex.remove(station);
                                 }
                             }
 
-                            stationListAdapter.notifyDataSetChanged();
                             getMapView().invalidate();
                         }
 
+                        stationListAdapter.submitStations();
                         updateGUI();
                     });
             popup.showAsDropDown(v);
@@ -536,6 +551,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                         else if (direction == ItemTouchHelper.LEFT
                                 && favState == FavoriteStationsProvider.TYPE_FAVORITE)
                             removeFavorite(location);
+                        // reset the swiped row
                         stationListAdapter.notifyItemChanged(adapterPosition);
                     }
 
@@ -629,6 +645,9 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         super.onStart();
         startBackgroundHandler();
 
+        FavoriteStationsCache.getInstance().addListener(favoritesListener);
+        refreshFavorites();
+
         if (network != null && NetworkProviderFactory.provider(network).hasCapabilities(Capability.DEPARTURES)) {
             startLocationProvider();
 
@@ -641,6 +660,8 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 @Override
                 public void onReceive(final Context context, final Intent intent) {
                     postLoadNextVisible(0);
+                    // relative departure times have changed
+                    stationListAdapter.submitStations();
                 }
             };
             registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
@@ -668,11 +689,12 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
         stations.clear();
         stationsMap.clear();
+        stationsIndex.clear();
         products.clear();
         products.addAll(loadProductFilter());
 
         stationListAdapter.setBaseTime(null);
-        stationListAdapter.notifyDataSetChanged();
+        stationListAdapter.submitStations();
         getMapView().invalidate();
         loading = true;
     }
@@ -682,6 +704,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         setupLocationViews();
 
         resetContent();
+        refreshFavorites();
 
         updateDisclaimerSource(disclaimerSourceView, network, null);
         updateGUI();
@@ -712,6 +735,8 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
         stopLocationProvider();
 
+        FavoriteStationsCache.getInstance().removeListener(favoritesListener);
+
         // cancel update on orientation change
         sensorManager.unregisterListener(orientationListener);
 
@@ -724,6 +749,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
         stations.clear();
         stationsMap.clear();
+        stationsIndex.clear();
 
         stationList.clearOnScrollListeners();
 
@@ -829,10 +855,11 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             } else {
                 i.remove();
                 stationsMap.remove(station.location.id);
+                stationsIndex.remove(station);
             }
         }
 
-        stationListAdapter.notifyDataSetChanged();
+        stationListAdapter.submitStations();
         handler.post(initStationsRunnable);
 
         if (fixedLocation != null) {
@@ -873,11 +900,12 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         if (searchQueryModified) {
             stations.clear();
             stationsMap.clear();
+            stationsIndex.clear();
         }
 
         stationListAdapter.setShowPlaces(searchQuery != null);
         stationListAdapter.setFilterQuery(filterQuery);
-        stationListAdapter.notifyDataSetChanged();
+        stationListAdapter.submitStations();
 
         if (searchQueryModified) {
             handler.post(initStationsRunnable);
@@ -932,11 +960,16 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         }
     }
 
+    private void refreshFavorites() {
+        favorites = FavoriteStationsCache.getInstance().favStates(network);
+        stationListAdapter.submitStations();
+    }
+
     private boolean addFavorite(final Location location) {
         final Uri rowUri = FavoriteUtils.persist(getContentResolver(), FavoriteStationsProvider.TYPE_FAVORITE, network,
                 location);
         if (rowUri != null) {
-            favorites.put(location.id, FavoriteStationsProvider.TYPE_FAVORITE);
+            refreshFavorites();
             postLoadNextVisible(0);
             NearestFavoriteStationWidgetService.scheduleImmediate(this); // refresh app-widget
             return true;
@@ -948,7 +981,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     private boolean removeFavorite(final Location location) {
         final int numRows = FavoriteUtils.delete(getContentResolver(), network, location.id);
         if (numRows > 0) {
-            favorites.remove(location.id);
+            refreshFavorites();
             NearestFavoriteStationWidgetService.scheduleImmediate(this); // refresh app-widget
             return true;
         } else {
@@ -960,7 +993,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         final Uri rowUriIgnored = FavoriteUtils.persist(getContentResolver(), FavoriteStationsProvider.TYPE_IGNORE,
                 network, location);
         if (rowUriIgnored != null) {
-            favorites.put(location.id, FavoriteStationsProvider.TYPE_IGNORE);
+            refreshFavorites();
             NearestFavoriteStationWidgetService.scheduleImmediate(this); // refresh app-widget
             return true;
         } else {
@@ -971,7 +1004,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     private boolean removeIgnore(final Location location) {
         final int numRowsIgnored = FavoriteUtils.delete(getContentResolver(), network, location.id);
         if (numRowsIgnored > 0) {
-            favorites.remove(location.id);
+            refreshFavorites();
             postLoadNextVisible(0);
             NearestFavoriteStationWidgetService.scheduleImmediate(this); // refresh app-widget
             return true;
@@ -1054,6 +1087,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                 }
                             }
 
+                            StationNameIndex.addAsync(network, result.locations);
                             runOnUiThread(() -> mergeIntoStations(freshStations, true));
                         }
                     } catch (final IOException x) {
@@ -1074,24 +1108,21 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         }
 
         private void addFavoriteStationsToResult() {
-            final Map<Location, Integer> favoriteMap = FavoriteUtils.loadAll(getContentResolver(), network);
-            final List<Station> freshStations = new ArrayList<>(favoriteMap.size());
-
-            final float[] distanceBetweenResults = new float[2];
-
-            for (final Map.Entry<Location, Integer> entry : favoriteMap.entrySet()) {
-                final Location location = entry.getKey();
-                final String stationId = location.id;
-                final int favType = entry.getValue();
-                favorites.put(stationId, favType);
-
-                if (favType == FavoriteStationsProvider.TYPE_FAVORITE) {
-                    final Station station = new Station(network, location);
-                    if (deviceLocation != null && location.hasCoord())
-                        station.setDistanceAndBearing(GeoUtils.distanceBetween(deviceLocation, location.coord));
-                    freshStations.add(station);
-                }
+            final List<FavoriteStationsCache.Entry> entries = FavoriteStationsCache.getInstance().entries(network,
+                    FavoriteStationsProvider.TYPE_FAVORITE);
+            final List<Station> freshStations = new ArrayList<>(entries.size());
+            final List<Location> rawLocations = new ArrayList<>(entries.size());
+
+            for (final FavoriteStationsCache.Entry entry : entries) {
+                rawLocations.add(entry.location);
+                final Location location = entry.nickLocation;
+                final Station station = new Station(network, location);
+                if (deviceLocation != null && location.hasCoord())
+                    station.setDistanceAndBearing(GeoUtils.distanceBetween(deviceLocation, location.coord));
+                freshStations.add(station);
             }
+            // index the station names, not the nicknames
+            StationNameIndex.addAsync(network, rawLocations);
             mergeIntoStations(freshStations, false);
         }
 
@@ -1109,6 +1140,8 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                         }
                     }
 
+                    StationNameIndex.addAsync(network,
+                            freshStations.stream().map(station -> station.location).collect(Collectors.toList()));
                     loading = false;
                     mergeIntoStations(freshStations, true);
                 }
@@ -1126,6 +1159,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                 if (updateExisting) {
                     if (freshStation.location != null) {
                         station.location = freshStation.location;
+                        indexStation(station);
                         changed = true;
                     }
                     if (freshStation.hasDistanceAndBearing) {
@@ -1144,6 +1178,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             } else if (filter(freshStation, products)) {
                 stations.add(freshStation);
                 stationsMap.put(freshStation.location.id, freshStation);
+                indexStation(freshStation);
 
                 added = true;
                 changed = true;
@@ -1160,9 +1195,12 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
             int stationToRemove = stations.size() - 1;
             while (stations.size() > Constants.MAX_NUMBER_OF_STOPS && stationToRemove >= 0) {
                 final Integer favState = favorites.get(stations.get(stationToRemove).location.id);
-                if (favState == null || favState != FavoriteStationsProvider.TYPE_FAVORITE)
-                    // remove from list & map at once
-                    stationsMap.remove(stations.remove(stationToRemove).location.id);
+                if (favState == null || favState != FavoriteStationsProvider.TYPE_FAVORITE) {
+                    // remove from list, map & index at once
+                    final Station removed = stations.remove(stationToRemove);
+                    stationsMap.remove(removed.location.id);
+                    stationsIndex.remove(removed);
+                }
 
                 stationToRemove--;
             }
@@ -1171,7 +1209,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         }
 
         if (added || changed) {
-            stationListAdapter.notifyDataSetChanged();
+            stationListAdapter.submitStations();
             getMapView().invalidate();
         }
 
@@ -1184,6 +1222,13 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         updateGUI();
     }
 
+    private void indexStation(final Station station) {
+        if (station.location.hasCoord())
+            stationsIndex.put(station, station.location.getLatAs1E6(), station.location.getLonAs1E6());
+        else
+            stationsIndex.remove(station);
+    }
+
     private static boolean filter(final Station station, final Collection<Product> productFilter) {
         // if station has products declared, use that for matching
         final Set<Product> products = station.location.products;
@@ -1214,16 +1259,45 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         return false;
     }
 
+    private static final Comparator<Station> STATION_ORDER = (station1, station2) -> {
+        // order by distance, stations without distance first
+        if (station1.hasDistanceAndBearing != station2.hasDistanceAndBearing)
+            return station1.hasDistanceAndBearing ? 1 : -1;
+        final int byDistance = Float.compare(station1.distance, station2.distance);
+        if (byDistance != 0)
+            return byDistance;
+
+        // order by product
+        final Product product1 = station1.getRelevantProduct();
+        final Product product2 = station2.getRelevantProduct();
+        if (product1 == product2)
+            return 0;
+        if (product1 == null)
+            return 1;
+        if (product2 == null)
+            return -1;
+        return product1.compareTo(product2);
+    };
+
     private static void sortStations(final List<Station> stations) {
-        Collections.sort(stations, (station1, station2) ->
-                Comparator
-                        // order by distance
-                        .<Station, Boolean>comparing(station -> station.hasDistanceAndBearing)
-                        .thenComparing(station -> station.distance)
-                        // order by product
-                        .thenComparing(Station::getRelevantProduct, Comparator.nullsLast(Product::compareTo))
-                        .compare(station1, station2)
-        );
+        stations.sort(STATION_ORDER);
+    }
+
+    /**
+     * Re-sorts stations that were sorted before their distances changed a little. Each station moves only a few
+     * places, so an insertion pass is linear in practice.
+     */
+    private static void resortStations(final List<Station> stations) {
+        for (int i = 1; i < stations.size(); i++) {
+            final Station station = stations.get(i);
+            int j = i - 1;
+            while (j >= 0 && STATION_ORDER.compare(stations.get(j), station) > 0) {
+                stations.set(j + 1, stations.get(j));
+                j--;
+            }
+            if (j + 1 != i)
+                stations.set(j + 1, station);
+        }
     }
 
     private void postLoadNextVisible(final long delay) {
@@ -1271,9 +1345,13 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
                                     if (result.status == QueryDeparturesResult.Status.OK) {
                                         final ArrayList<Departure> newDepartures = new ArrayList<>();
+                                        final List<Location> seenLocations = new ArrayList<>();
                                         for (final StationDepartures subStationDepartures : result.stationDepartures) {
                                             final String subStationId = subStationDepartures.location.id;
                                             final List<Departure> departures = subStationDepartures.getNonCancelledDepartures();
+                                            seenLocations.add(subStationDepartures.location);
+                                            for (final Departure departure : departures)
+                                                seenLocations.add(departure.destination);
                                             // Trim departures
                                             while (departures.size() > maxDepartures)
                                                 departures.remove(departures.size() - 1);
@@ -1288,6 +1366,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                                 newDepartures.addAll(departures);
                                             }
                                         }
+                                        StationNameIndex.addAsync(network, seenLocations);
                                         if (!newDepartures.isEmpty()) {
                                             final Station requestedStation = stationsMap.get(stationId);
                                             if (requestedStation != null) {
@@ -1297,14 +1376,14 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
                                             }
                                         }
 
-                                        stationListAdapter.notifyDataSetChanged();
+                                        stationListAdapter.submitStations();
                                     } else if (result.status == QueryDeparturesResult.Status.INVALID_STATION) {
                                         final Station resultStation = stationsMap.get(requestedStationId);
                                         if (resultStation != null) {
                                             resultStation.departureQueryStatus = QueryDeparturesResult.Status.INVALID_STATION;
                                             resultStation.updatedAt = new Date();
 
-                                            stationListAdapter.notifyDataSetChanged();
+                                            stationListAdapter.submitStations();
                                         }
                                     } else {
                                         log.info("Got {}", result.toShortString());
@@ -1416,6 +1495,11 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         return stations;
     }
 
+    @Override
+    public final GeoGridIndex<Station> getStationsIndex() {
+        return stationsIndex;
+    }
+
     public final Integer getFavoriteState(final String stationId) {
         return favorites.get(stationId);
     }
@@ -1427,7 +1511,7 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
 
     public final void selectStation(final Station station) {
         selectedStation = station;
-        stationListAdapter.notifyDataSetChanged();
+        stationListAdapter.submitStations();
 
         if (selectedStation != null) {
             // scroll list into view
@@ -1560,20 +1644,16 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
     public boolean onStationContextMenuItemClick(final int adapterPosition, final NetworkId network,
             final Location station, final @Nullable List<Departure> departures, final int menuItemId) {
         if (menuItemId == R.id.station_context_add_favorite) {
-            if (StationsActivity.this.addFavorite(station))
-                stationListAdapter.notifyItemChanged(adapterPosition);
+            StationsActivity.this.addFavorite(station);
             return true;
         } else if (menuItemId == R.id.station_context_remove_favorite) {
-            if (StationsActivity.this.removeFavorite(station))
-                stationListAdapter.notifyItemChanged(adapterPosition);
+            StationsActivity.this.removeFavorite(station);
             return true;
         } else if (menuItemId == R.id.station_context_add_ignore) {
-            if (StationsActivity.this.addIgnore(station))
-                stationListAdapter.notifyItemChanged(adapterPosition);
+            StationsActivity.this.addIgnore(station);
             return true;
         } else if (menuItemId == R.id.station_context_remove_ignore) {
-            if (StationsActivity.this.removeIgnore(station))
-                stationListAdapter.notifyItemChanged(adapterPosition);
+            StationsActivity.this.removeIgnore(station);
             return true;
         } else if (menuItemId == R.id.station_context_show_departures) {
             StationDetailsActivity.start(StationsActivity.this, network, station, presetTime, departures);
@@ -1619,19 +1699,38 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         public void onLocationChanged(final android.location.Location here) {
             log.info("Got relevant location: {}", here);
 
-            deviceLocation = Point.fromDouble(here.getLatitude(), here.getLongitude());
+            final double latitude = here.getLatitude();
+            final double longitude = here.getLongitude();
+            deviceLocation = Point.fromDouble(latitude, longitude);
             stationListAdapter.setDeviceLocation(here);
 
-            // re-calculate distances for sorting
             if (fixedLocation == null) {
-                for (final Station station : stations) {
-                    if (station.location.hasCoord())
-                        station.setDistanceAndBearing(GeoUtils.distanceBetween(here, station.location.coord));
-                }
+                // ignore jitter, the list would just flicker
+                if (Double.isNaN(distancesLatitude) || GeoUtils.fastDistance(distancesLatitude, distancesLongitude,
+                        latitude, longitude) >= Constants.STATIONS_RESORT_DISTANCE) {
+                    distancesLatitude = latitude;
+                    distancesLongitude = longitude;
+
+                    // re-calculate distances for sorting
+                    for (final Station station : stations) {
+                        if (station.location.hasCoord()) {
+                            final double stationLatitude = station.location.coord.getLatAsDouble();
+                            final double stationLongitude = station.location.coord.getLonAsDouble();
+                            station.setDistanceAndBearing(
+                                    GeoUtils.fastDistance(latitude, longitude, stationLatitude, stationLongitude),
+                                    GeoUtils.fastBearing(latitude, longitude, stationLatitude, stationLongitude));
+                        }
+                    }
+                    resortStations(stations);
+
+                    stationListAdapter.submitStations();
 
-                stationListAdapter.notifyDataSetChanged();
+                    handler.post(initStationsRunnable);
 
-                handler.post(initStationsRunnable);
+                    checkNetworkHere(latitude, longitude);
+                }
+            } else {
+                distancesLatitude = Double.NaN;
             }
 
             updateGUI();
@@ -1647,6 +1746,41 @@ public class StationsActivity extends OeffiMainActivity implements StationsAware
         }
     };
 
+    /**
+     * Offers switching networks if the selected network's area is known and the device has left it for another one.
+     */
+    private void checkNetworkHere(final double latitude, final double longitude) {
+        final NetworkId currentNetwork = network;
+        if (currentNetwork == null || networkSwitchOffered.contains(currentNetwork) || backgroundHandler == null)
+            return;
+
+        backgroundHandler.post(() -> {
+            final NetworkAreaIndex networkAreaIndex = NetworkAreaIndex.get();
+            if (!networkAreaIndex.hasArea(currentNetwork)
+                    || networkAreaIndex.contains(currentNetwork, latitude, longitude))
+                return;
+            final List<NetworkId> networksHere = networkAreaIndex.containing(latitude, longitude);
+            if (!networksHere.isEmpty())
+                runOnUiThread(() -> offerNetworkSwitch(currentNetwork, networksHere.get(0)));
+        });
+    }
+
+    private void offerNetworkSwitch(final NetworkId from, final NetworkId to) {
+        if (network != from || isFinishing() || !networkSwitchOffered.add(from))
+            return;
+
+        final DialogBuilder builder = DialogBuilder.get(this);
+        builder.setTitle(R.string.stations_network_switch_title);
+        builder.setMessage(getString(R.string.stations_network_switch_message,
+                NetworkResources.instance(this, to).label));
+        builder.setPositiveButton(R.string.stations_network_switch_switch, (dialog, id) -> {
+            prefs.edit().putString(Constants.PREFS_KEY_NETWORK_PROVIDER, to.name()).apply();
+            checkChangeNetwork();
+        });
+        builder.setNegativeButton(R.string.stations_network_switch_stay, null);
+        builder.show();
+    }
+
     private final SensorEventListener orientationListener = new SensorEventListener() {
         private final float[] accelerometerValues = new float[3];
         private final float[] magnetometerValues = new float[3];
@@ -0,0 +1,86 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import android.text.format.DateUtils;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.QueryDeparturesResult;
+import de.schildbach.pte.dto.StationDepartures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Departures fetched for the nearest favorite station widgets, shared between the refresher and the list service.
+ * Entries younger than {@link #FRESH_MS} are reused by the refresher instead of querying again. The list service
+ * always reads the latest entry.
+ */
+class WidgetDeparturesCache {
+    public static final long FRESH_MS = DateUtils.MINUTE_IN_MILLIS / 2;
+
+    public static final class Entry {
+        public final QueryDeparturesResult result;
+        public final List<Departure> departures;
+        public final long fetchedAt;
+
+        private Entry(final QueryDeparturesResult result, final long fetchedAt) {
+            this.result = result;
+            this.fetchedAt = fetchedAt;
+
+            final List<Departure> departures = new ArrayList<>();
+            if (result.status == QueryDeparturesResult.Status.OK)
+                for (final StationDepartures stationDepartures : result.stationDepartures)
+                    departures.addAll(stationDepartures.getNonCancelledDepartures());
+            this.departures = departures;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public static String key(final NetworkId network, final String stationId) {
+        return network.name() + ':' + stationId;
+    }
+
+    public static Entry put(final String key, final QueryDeparturesResult result) {
+        final Entry entry = new Entry(result, System.currentTimeMillis());
+        entries.put(key, entry);
+        return entry;
+    }
+
+    public static Entry getFresh(final String key) {
+        final Entry entry = entries.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.fetchedAt > FRESH_MS)
+            return null;
+        return entry;
+    }
+
+    public static Entry getLatest(final String key) {
+        return entries.get(key);
+    }
+
+    public static void retainOnly(final Iterable<String> keys) {
+        final List<String> retain = new ArrayList<>();
+        for (final String key : keys)
+            retain.add(key);
+        entries.keySet().retainAll(retain);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.stations;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.location.LocationManager;
+import android.text.format.DateUtils;
+
+import de.schildbach.oeffi.Application;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when the nearest favorite station widgets refresh next, and whether a fresh location fix is needed.
+ * <p>
+ * Widgets are refreshed when the first shown departure has left, within bounds. A location fix is only acquired
+ * when the last one is too old, and that age limit doubles with every fix that shows the device hasn't moved. Leaving
+ * the geofence around the last fix forces an immediate refresh with a fresh fix. The geofence is sized so that the
+ * nearest favorite cannot change while inside it.
+ */
+class WidgetRefreshPolicy {
+    public static final String ACTION_GEOFENCE_EXIT = WidgetRefreshPolicy.class.getName() + ".geofence_exit";
+
+    private static final long MIN_REFRESH_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long MAX_REFRESH_MS = DateUtils.HOUR_IN_MILLIS;
+    public static final long DEFAULT_REFRESH_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long BASE_LOCATION_MAX_AGE_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long MAX_LOCATION_MAX_AGE_MS = 2 * DateUtils.HOUR_IN_MILLIS;
+    private static final float STATIONARY_DISTANCE = 100; // meters
+    private static final float MIN_GEOFENCE_RADIUS = 150; // meters
+    private static final float MAX_GEOFENCE_RADIUS = 2000; // meters
+
+    private static final String PREFS_KEY_LAST_LAT = "nearest_favorite_widget_last_lat";
+    private static final String PREFS_KEY_LAST_LON = "nearest_favorite_widget_last_lon";
+    private static final String PREFS_KEY_LAST_FIX_AT = "nearest_favorite_widget_last_fix_at";
+    private static final String PREFS_KEY_STATIONARY_COUNT = "nearest_favorite_widget_stationary_count";
+    private static final String PREFS_KEY_NEXT_REFRESH_AT = "nearest_favorite_widget_next_refresh_at";
+
+    private static final Logger log = LoggerFactory.getLogger(WidgetRefreshPolicy.class);
+
+    private final SharedPreferences prefs = Application.getInstance().getSharedPreferences();
+
+    /**
+     * Returns the last location fix, if it can still be trusted to be the current location.
+     */
+    public Location reusableLocation() {
+        final long lastFixAt = prefs.getLong(PREFS_KEY_LAST_FIX_AT, 0);
+        if (lastFixAt == 0)
+            return null;
+        final int stationaryCount = prefs.getInt(PREFS_KEY_STATIONARY_COUNT, 0);
+        final long maxAge = Math.min(BASE_LOCATION_MAX_AGE_MS << Math.min(stationaryCount, 8),
+                MAX_LOCATION_MAX_AGE_MS);
+        if (System.currentTimeMillis() - lastFixAt > maxAge)
+            return null;
+
+        final Location location = new Location("cached");
+        location.setLatitude(Double.longBitsToDouble(prefs.getLong(PREFS_KEY_LAST_LAT, 0)));
+        location.setLongitude(Double.longBitsToDouble(prefs.getLong(PREFS_KEY_LAST_LON, 0)));
+        location.setTime(lastFixAt);
+        return location;
+    }
+
+    public void onLocationFix(final Location here) {
+        int stationaryCount = prefs.getInt(PREFS_KEY_STATIONARY_COUNT, 0);
+        if (prefs.getLong(PREFS_KEY_LAST_FIX_AT, 0) != 0) {
+            final float[] distance = new float[1];
+            Location.distanceBetween(Double.longBitsToDouble(prefs.getLong(PREFS_KEY_LAST_LAT, 0)),
+                    Double.longBitsToDouble(prefs.getLong(PREFS_KEY_LAST_LON, 0)), here.getLatitude(),
+                    here.getLongitude(), distance);
+            stationaryCount = distance[0] < STATIONARY_DISTANCE ? stationaryCount + 1 : 0;
+        }
+        log.info("Location fix, stationary for {} fixes", stationaryCount);
+
+        prefs.edit()
+                .putLong(PREFS_KEY_LAST_LAT, Double.doubleToLongBits(here.getLatitude()))
+                .putLong(PREFS_KEY_LAST_LON, Double.doubleToLongBits(here.getLongitude()))
+                .putLong(PREFS_KEY_LAST_FIX_AT, System.currentTimeMillis())
+                .putInt(PREFS_KEY_STATIONARY_COUNT, stationaryCount)
+                .apply();
+    }
+
+    public void onGeofenceExit() {
+        log.info("Geofence exited");
+        prefs.edit().remove(PREFS_KEY_LAST_FIX_AT).putInt(PREFS_KEY_STATIONARY_COUNT, 0).apply();
+    }
+
+    /**
+     * @param firstDepartureAt time of the earliest departure shown on any widget, or 0 if none
+     * @return delay until the next refresh
+     */
+    public long scheduleNextRefresh(final long firstDepartureAt) {
+        final long now = System.currentTimeMillis();
+        final long delay = firstDepartureAt > now
+                ? Math.max(MIN_REFRESH_MS, Math.min(firstDepartureAt - now, MAX_REFRESH_MS))
+                : DEFAULT_REFRESH_MS;
+        prefs.edit().putLong(PREFS_KEY_NEXT_REFRESH_AT, now + delay).apply();
+        return delay;
+    }
+
+    /**
+     * @return delay until the refresh that has been scheduled last, or the default delay if that has passed
+     */
+    public long nextRefreshDelay() {
+        final long delay = prefs.getLong(PREFS_KEY_NEXT_REFRESH_AT, 0) - System.currentTimeMillis();
+        return delay > 0 ? delay : DEFAULT_REFRESH_MS;
+    }
+
+    /**
+     * Places the geofence around the current location.
+     *
+     * @param nearestDistance distance to the nearest favorite
+     * @param secondNearestDistance distance to the second nearest favorite, or {@link Float#NaN} if there is none
+     */
+    public void updateGeofence(final Context context, final Location here, final float nearestDistance,
+            final float secondNearestDistance) {
+        final float radius = Float.isNaN(secondNearestDistance) ? MAX_GEOFENCE_RADIUS
+                : Math.max(MIN_GEOFENCE_RADIUS, Math.min((secondNearestDistance - nearestDistance) / 2,
+                        MAX_GEOFENCE_RADIUS));
+        final LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        final PendingIntent geofenceIntent = geofenceIntent(context);
+        try {
+            locationManager.removeProximityAlert(geofenceIntent);
+            locationManager.addProximityAlert(here.getLatitude(), here.getLongitude(), radius, -1, geofenceIntent);
+            log.info("Geofence placed with radius {} m", radius);
+        } catch (final SecurityException x) {
+            log.info("Cannot place geofence", x);
+        }
+    }
+
+    public void removeGeofence(final Context context) {
+        final LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        try {
+            locationManager.removeProximityAlert(geofenceIntent(context));
+        } catch (final SecurityException x) {
+            log.info("Cannot remove geofence", x);
+        }
+    }
+
+    private static PendingIntent geofenceIntent(final Context context) {
+        final Intent intent = new Intent(context, NearestFavoriteStationWidgetProvider.class);
+        intent.setAction(ACTION_GEOFENCE_EXIT);
+        // mutable, because the location manager fills in whether the geofence was entered or exited
+        return PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_MUTABLE);
+    }
+}
@@ -46,7 +46,6 @@ import de.schildbach.oeffi.stations.StationContextMenu;
 import de.schildbach.oeffi.util.Formats;
 import de.schildbach.oeffi.util.HtmlUtils;
 import de.schildbach.oeffi.util.OverflowTextView;
-import de.schildbach.pte.Standard;
 import de.schildbach.pte.dto.Departure;
 import de.schildbach.pte.dto.Line;
 import de.schildbach.pte.dto.LineDestination;
@@ -57,16 +56,10 @@ import de.schildbach.pte.dto.QueryDeparturesResult;
 import de.schildbach.pte.dto.PTDate;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class StationViewHolder extends RecyclerView.ViewHolder {
     public final View itemFrameView;
@@ -157,11 +150,9 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         final boolean baseIsNow = aBaseTime == null;
         final Date baseTime = baseIsNow ? new Date() : aBaseTime;
 
-        final boolean queryNotOk = station.departureQueryStatus != null
-                && station.departureQueryStatus != QueryDeparturesResult.Status.OK;
+        final boolean queryNotOk = isQueryNotOk(station);
         final boolean isFavorite = favState != null && favState == FavoriteStationsProvider.TYPE_FAVORITE;
-        final boolean isIgnored = favState != null && favState == FavoriteStationsProvider.TYPE_IGNORE;
-        final boolean isGhosted = isIgnored || queryNotOk;
+        final boolean isGhosted = isGhosted(station, favState);
 
         final int colorSignificant = !isGhosted ? this.colorSignificant : colorInsignificant;
         final int colorLessSignificant = !isGhosted ? this.colorLessSignificant : colorInsignificant;
@@ -181,42 +172,13 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         name2View.setTextColor(colorSignificant);
 
         // lines
-        final Set<Line> lines = new TreeSet<>();
-        final Set<Product> products = station.location.products;
-        if (products != null)
-            for (final Product product : products)
-                lines.add(new Line(null, null, product, null, Standard.STYLES.get(product)));
-        final List<LineDestination> stationLines = station.getLines();
-        if (stationLines != null) {
-            for (final LineDestination lineDestination : stationLines) {
-                final Line line = lineDestination.line;
-                lines.add(line);
-                lines.remove(new Line(null, null, line.product, null, Standard.STYLES.get(line.product)));
-            }
-        }
+        final List<Line> lines = station.getLineBadges();
         linesView.setGhosted(isGhosted);
         linesView.setCondenseThreshold(CONDENSE_LINES_THRESHOLD);
         linesView.setLines(!lines.isEmpty() ? lines : null);
 
-        // distance
-        distanceView.setText(station.hasDistanceAndBearing ? Formats.formatDistance(station.distance) : null);
-        distanceView.setVisibility(station.hasDistanceAndBearing ? View.VISIBLE : View.GONE);
-        distanceView.setTextColor(colorSignificant);
-
-        // bearing
-        if (deviceLocation != null && station.hasDistanceAndBearing) {
-            if (!deviceLocation.hasAccuracy()
-                    || (deviceLocation.getAccuracy() / station.distance) < Constants.BEARING_ACCURACY_THRESHOLD)
-                bearingView.setStationBearing(station.bearing);
-            else
-                bearingView.setStationBearing(null);
-            bearingView.setCallback(compassCallback);
-            bearingView.setDisplayRotation(display.getRotation());
-            bearingView.setArrowColor(!isGhosted ? colorArrow : colorInsignificant);
-            bearingView.setVisibility(View.VISIBLE);
-        } else {
-            bearingView.setVisibility(View.GONE);
-        }
+        // distance & bearing
+        bindDistanceAndBearing(station, favState, deviceLocation, compassCallback);
 
         // context button
         contextButton.setVisibility(isActivated ? View.VISIBLE : View.GONE);
@@ -226,21 +188,21 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         } : null);
 
         // departures
-        final List<Departure> stationDepartures = station.getDepartures();
+        final List<Station.DepartureGroup> stationDepartureGroups = station.getDepartureGroups();
 
-        final List<String> messages = new LinkedList<>();
+        final List<String> messages = new ArrayList<>();
         if (queryNotOk) {
             departuresViewGroup.setVisibility(View.GONE);
             departuresStatusView.setVisibility(View.VISIBLE);
             departuresStatusView.setText("("
                     + context.getString(QueryDeparturesRunnable.statusMsgResId(station.departureQueryStatus)) + ")");
-        } else if (stationDepartures != null && (!isGhosted || isActivated)) {
+        } else if (stationDepartureGroups != null && (!isGhosted || isActivated)) {
             int iDepartureView = 0;
 
-            if (!stationDepartures.isEmpty()) {
+            if (!stationDepartureGroups.isEmpty()) {
                 final int maxGroups = isActivated ? maxDepartures : 1;
-                final Map<LineDestination, List<Departure>> departureGroups = groupDeparturesByLineDestination(
-                        stationDepartures, maxGroups, productsFilter);
+                final List<Station.DepartureGroup> departureGroups = filterDepartureGroups(
+                        stationDepartureGroups, maxGroups, productsFilter);
                 if (!departureGroups.isEmpty()) {
                     final int maxDeparturesPerGroup = !isActivated ? 1
                             : 1 + (maxDepartures / departureGroups.size());
@@ -249,11 +211,11 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
                     departuresViewGroup.setVisibility(View.VISIBLE);
                     departuresStatusView.setVisibility(View.GONE);
 
-                    for (final Map.Entry<LineDestination, List<Departure>> departureGroup : departureGroups
-                            .entrySet()) {
-                        int iDeparture = 0;
-                        final int interval = determineInterval(departureGroup.getValue());
-                        for (final Departure departure : departureGroup.getValue()) {
+                    for (final Station.DepartureGroup departureGroup : departureGroups) {
+                        final int interval = departureGroup.interval;
+                        final int numDepartures = Math.min(departureGroup.departures.size(), maxDeparturesPerGroup);
+                        for (int iDeparture = 0; iDeparture < numDepartures; iDeparture++) {
+                            final Departure departure = departureGroup.departures.get(iDeparture);
                             final ViewGroup departureView;
                             final DepartureViewHolder departureViewHolder;
                             if (iDepartureView < departuresChildCount) {
@@ -284,7 +246,7 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
                             // line & destination
                             final LineView lineView = departureViewHolder.line;
                             final OverflowTextView destinationView = departureViewHolder.destination;
-                            final LineDestination lineDestination = departureGroup.getKey();
+                            final LineDestination lineDestination = departureGroup.lineDestination;
                             if (iDeparture == 0) {
                                 lineView.setVisibility(View.VISIBLE);
                                 lineView.setLine(lineDestination.line);
@@ -330,15 +292,13 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
 
                             // message index
                             final TextView messageIndexView = (TextView) departureViewHolder.messageIndex;
-                            if (departure.message != null || departure.line.message != null) {
+                            final String message = departureGroup.messages.get(iDeparture);
+                            if (message != null) {
                                 messageIndexView.setVisibility(View.VISIBLE);
 
                                 final String indexText;
 
                                 if (isActivated) {
-                                    final String message = Stream.of(departure.message, departure.line.message)
-                                            .filter(Objects::nonNull)
-                                            .collect(Collectors.joining("\n"));
                                     final int index = messages.indexOf(message);
                                     if (index == -1) {
                                         messages.add(message);
@@ -399,9 +359,6 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
                             } else {
                                 positionView.setVisibility(View.GONE);
                             }
-
-                            if (++iDeparture == maxDeparturesPerGroup)
-                                break;
                         }
                     }
 
@@ -454,46 +411,61 @@ public class StationViewHolder extends RecyclerView.ViewHolder {
         });
     }
 
-    private Map<LineDestination, List<Departure>> groupDeparturesByLineDestination(final List<Departure> departures,
-            final int maxGroups, @Nullable final Set<Product> productsFilter) {
-        final Map<LineDestination, List<Departure>> departureGroups = new LinkedHashMap<>();
-        for (final Departure departure : departures) {
-            if (productsFilter != null && departure.line.product != null
-                    && !productsFilter.contains(departure.line.product))
-                continue;
-            final LineDestination lineDestination = new LineDestination(departure.line, departure.destination);
-            List<Departure> departureGroup = departureGroups.get(lineDestination);
-            if (departureGroup == null) {
-                if (departureGroups.size() == maxGroups)
-                    continue;
-                departureGroup = new LinkedList<>();
-                departureGroups.put(lineDestination, departureGroup);
-            }
-            departureGroup.add(departure);
+    /**
+     * Binds only the distance and bearing, for rows of which nothing else changed.
+     */
+    public void bindDistanceAndBearing(
+            final Station station, final Integer favState, final android.location.Location deviceLocation,
+            final CompassNeedleView.Callback compassCallback) {
+        final boolean isGhosted = isGhosted(station, favState);
+
+        // distance
+        distanceView.setText(station.hasDistanceAndBearing ? Formats.formatDistance(station.distance) : null);
+        distanceView.setVisibility(station.hasDistanceAndBearing ? View.VISIBLE : View.GONE);
+        distanceView.setTextColor(!isGhosted ? colorSignificant : colorInsignificant);
+
+        // bearing
+        if (deviceLocation != null && station.hasDistanceAndBearing) {
+            if (!deviceLocation.hasAccuracy()
+                    || (deviceLocation.getAccuracy() / station.distance) < Constants.BEARING_ACCURACY_THRESHOLD)
+                bearingView.setStationBearing(station.bearing);
+            else
+                bearingView.setStationBearing(null);
+            bearingView.setCallback(compassCallback);
+            bearingView.setDisplayRotation(display.getRotation());
+            bearingView.setArrowColor(!isGhosted ? colorArrow : colorInsignificant);
+            bearingView.setVisibility(View.VISIBLE);
+        } else {
+            bearingView.setVisibility(View.GONE);
         }
-        return departureGroups;
     }
 
-    private int determineInterval(final List<Departure> departures) {
-        if (departures.size() < 3)
-            return 0;
-        int interval = 0;
-        PTDate lastPlannedTime = null;
-        for (final Departure departure : departures) {
-            final PTDate plannedTime = departure.plannedTime;
-            if (plannedTime == null)
-                return 0;
-            if (lastPlannedTime != null) {
-                final int diff = (int) ((plannedTime.getTime() - lastPlannedTime.getTime())
-                        / DateUtils.MINUTE_IN_MILLIS);
-                if (interval == 0)
-                    interval = diff;
-                else if (Math.abs(diff - interval) > 1)
-                    return 0;
-            }
-            lastPlannedTime = plannedTime;
+    private static boolean isQueryNotOk(final Station station) {
+        return station.departureQueryStatus != null
+                && station.departureQueryStatus != QueryDeparturesResult.Status.OK;
+    }
+
+    private static boolean isGhosted(final Station station, final Integer favState) {
+        final boolean isIgnored = favState != null && favState == FavoriteStationsProvider.TYPE_IGNORE;
+        return isIgnored || isQueryNotOk(station);
+    }
+
+    private static List<Station.DepartureGroup> filterDepartureGroups(
+            final List<Station.DepartureGroup> departureGroups, final int maxGroups,
+            @Nullable final Set<Product> productsFilter) {
+        if (productsFilter == null && departureGroups.size() <= maxGroups)
+            return departureGroups;
+        final List<Station.DepartureGroup> filteredGroups = new ArrayList<>(
+                Math.min(departureGroups.size(), maxGroups));
+        for (final Station.DepartureGroup departureGroup : departureGroups) {
+            if (filteredGroups.size() == maxGroups)
+                break;
+            final Product product = departureGroup.getProduct();
+            if (productsFilter != null && product != null && !productsFilter.contains(product))
+                continue;
+            filteredGroups.add(departureGroup);
         }
-        return interval;
+        return filteredGroups;
     }
 
     private void onContextClick(final View contextView, final Station station, final Integer favState) {
@@ -18,23 +18,42 @@
 package de.schildbach.oeffi.stations.list;
 
 import android.content.Context;
+import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import de.schildbach.oeffi.R;
 import de.schildbach.oeffi.StationsAware;
 import de.schildbach.oeffi.stations.CompassNeedleView;
 import de.schildbach.oeffi.stations.Station;
 import de.schildbach.oeffi.util.KeyWordMatcher;
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Departure;
+import de.schildbach.pte.dto.LineDestination;
+import de.schildbach.pte.dto.Location;
 import de.schildbach.pte.dto.Product;
+import de.schildbach.pte.dto.QueryDeparturesResult;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import static de.schildbach.pte.util.Preconditions.checkArgument;
 
+/**
+ * Adapter for the stations list. The list shown is an immutable snapshot of the stations, taken by
+ * {@link #submitStations()} and diffed against the previous one off the main thread, so that only changed rows get
+ * rebound. Rows of which only the distance changed are rebound with {@link #PAYLOAD_DISTANCE}.
+ */
 public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> implements CompassNeedleView.Callback {
+    public static final Object PAYLOAD_DISTANCE = "distance";
+
     private final Context context;
     private final int maxDepartures;
     private final Set<Product> productsFilter;
@@ -50,6 +69,7 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
     private KeyWordMatcher.Query filterQuery;
 
     private final LayoutInflater inflater;
+    private final AsyncListDiffer<Row> differ = new AsyncListDiffer<>(this, ROW_DIFF);
 
     public StationsAdapter(
             final Context context, final int maxDepartures, final Set<Product> productsFilter,
@@ -88,9 +108,28 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
         this.showPlaces = showPlaces;
     }
 
+    /**
+     * Takes a snapshot of the stations and of everything else that affects their rows, and updates the list to it.
+     * Needs to be called whenever any of that changed.
+     */
+    public void submitStations() {
+        final List<Station> stations = stationsAware.getStations();
+        final long minute = baseTime == null ? System.currentTimeMillis() / DateUtils.MINUTE_IN_MILLIS : 0;
+        // the filter is modified in place, so rows need a copy of it
+        final Set<Product> products = EnumSet.noneOf(Product.class);
+        products.addAll(productsFilter);
+        final List<Row> rows = new ArrayList<>(stations.size());
+        for (final Station station : stations)
+            rows.add(new Row(station, station.keyWordMatch(filterQuery),
+                    stationsAware.isSelectedStation(station.location.id),
+                    stationsAware.getFavoriteState(station.location.id), showPlaces, baseTime, minute,
+                    products, deviceLocation));
+        differ.submitList(rows);
+    }
+
     @Override
     public int getItemCount() {
-        return stationsAware.getStations().size();
+        return differ.getCurrentList().size();
     }
 
     @Override
@@ -101,8 +140,7 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
 
     public Station getItem(final int position) {
         checkArgument(position != RecyclerView.NO_POSITION);
-        final List<Station> stations = stationsAware.getStations();
-        return stations.get(position);
+        return differ.getCurrentList().get(position).station;
     }
 
     @Override
@@ -114,10 +152,21 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
     @Override
     public void onBindViewHolder(final StationViewHolder holder, final int position) {
         checkArgument(position != RecyclerView.NO_POSITION);
-        final Station station = getItem(position);
-        final boolean isVisible = station.keyWordMatch(filterQuery);
-        final Integer favState = stationsAware.getFavoriteState(station.location.id);
-        holder.bind(stationsAware, isVisible, station, baseTime, productsFilter, showPlaces, favState, deviceLocation, this);
+        final Row row = differ.getCurrentList().get(position);
+        holder.bind(stationsAware, row.isVisible, row.station, row.baseTime, row.products, row.showPlaces,
+                row.favState, row.deviceLocation, this);
+    }
+
+    @Override
+    public void onBindViewHolder(final StationViewHolder holder, final int position, final List<Object> payloads) {
+        checkArgument(position != RecyclerView.NO_POSITION);
+        if (payloads.isEmpty() || !payloads.stream().allMatch(payload -> payload == PAYLOAD_DISTANCE)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        final Row row = differ.getCurrentList().get(position);
+        if (row.isVisible)
+            holder.bindDistanceAndBearing(row.station, row.favState, row.deviceLocation, this);
     }
 
     public Float getDeviceBearing() {
@@ -127,4 +176,82 @@ public class StationsAdapter extends RecyclerView.Adapter<StationViewHolder> imp
     public boolean isFaceDown() {
         return faceDown;
     }
+
+    private static final class Row {
+        final Station station;
+        final NetworkId network;
+        final String id;
+        final Location location;
+        final List<Departure> departures;
+        final List<LineDestination> lines;
+        final QueryDeparturesResult.Status departureQueryStatus;
+        final Date updatedAt;
+        final boolean hasDistanceAndBearing;
+        final float distance;
+        final float bearing;
+        final boolean isVisible;
+        final boolean isActivated;
+        final Integer favState;
+        final boolean showPlaces;
+        final Date baseTime;
+        final long minute;
+        final Set<Product> products;
+        final android.location.Location deviceLocation;
+
+        Row(final Station station, final boolean isVisible, final boolean isActivated, final Integer favState,
+                final boolean showPlaces, final Date baseTime, final long minute, final Set<Product> products,
+                final android.location.Location deviceLocation) {
+            this.station = station;
+            this.network = station.network;
+            this.id = station.location.id;
+            this.location = station.location;
+            this.departures = station.getDepartures();
+            this.lines = station.getLines();
+            this.departureQueryStatus = station.departureQueryStatus;
+            this.updatedAt = station.updatedAt;
+            this.hasDistanceAndBearing = station.hasDistanceAndBearing;
+            this.distance = station.distance;
+            this.bearing = station.bearing;
+            this.isVisible = isVisible;
+            this.isActivated = isActivated;
+            this.favState = favState;
+            this.showPlaces = showPlaces;
+            this.baseTime = baseTime;
+            this.minute = minute;
+            this.products = products;
+            this.deviceLocation = deviceLocation;
+        }
+
+        boolean sameExceptDistance(final Row other) {
+            // departures and lines are replaced rather than modified, so identity is enough
+            return location == other.location && departures == other.departures && lines == other.lines
+                    && departureQueryStatus == other.departureQueryStatus
+                    && Objects.equals(updatedAt, other.updatedAt) && isVisible == other.isVisible
+                    && isActivated == other.isActivated && Objects.equals(favState, other.favState)
+                    && showPlaces == other.showPlaces && Objects.equals(baseTime, other.baseTime)
+                    && minute == other.minute && products.equals(other.products);
+        }
+
+        boolean sameDistance(final Row other) {
+            return hasDistanceAndBearing == other.hasDistanceAndBearing && distance == other.distance
+                    && bearing == other.bearing && deviceLocation == other.deviceLocation;
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<Row> ROW_DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull final Row oldRow, @NonNull final Row newRow) {
+            return oldRow.network == newRow.network && Objects.equals(oldRow.id, newRow.id);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull final Row oldRow, @NonNull final Row newRow) {
+            return oldRow.sameExceptDistance(newRow) && oldRow.sameDistance(newRow);
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull final Row oldRow, @NonNull final Row newRow) {
+            return oldRow.sameExceptDistance(newRow) ? PAYLOAD_DISTANCE : null;
+        }
+    };
 }
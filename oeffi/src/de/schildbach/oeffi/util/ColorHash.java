@@ -22,11 +22,10 @@ import android.graphics.Color;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 // compare to https://github.com/unhappychoice/color-hash.kt
@@ -59,23 +58,19 @@ public class ColorHash {
         }
 
         public String toHex() {
-            List<Integer> colors = new ArrayList<>();
-            colors.add(red);
-            colors.add(green);
-            colors.add(blue);
-            Collections.reverse(colors);
-
-            StringBuilder hexString = new StringBuilder("#");
-            for (int color : colors) {
-                if (color < 16) {
-                    hexString.append("0").append(Integer.toHexString(color));
-                } else {
-                    hexString.append(Integer.toHexString(color));
-                }
-            }
+            final StringBuilder hexString = new StringBuilder(7).append('#');
+            appendHex(hexString, blue);
+            appendHex(hexString, green);
+            appendHex(hexString, red);
             return hexString.toString();
         }
 
+        private static void appendHex(final StringBuilder hexString, final int color) {
+            if (color < 16)
+                hexString.append('0');
+            hexString.append(Integer.toHexString(color));
+        }
+
         public Color toColor() {
             return Color.valueOf(red / 256f, green / 256f, blue / 256f);
         }
@@ -96,58 +91,54 @@ public class ColorHash {
             this.lightness = lightness;
         }
 
-        public RGB toRGB() {
-            final double h = hue / 360.0;
+        public double getHue() {
+            return hue;
+        }
 
-            final double q;
-            if (lightness < 0.5) {
-                q = lightness * (1.0 + saturation);
-            } else {
-                q = lightness + saturation - lightness * saturation;
-            }
+        public double getSaturation() {
+            return saturation;
+        }
 
-            final double p = 2.0 * lightness - q;
-
-            final List<Double> rgbs = new ArrayList<>();
-            for (double color : new double[]{h + 1.0 / 3.0, h, h - 1.0 / 3.0}) {
-                final double co;
-                if (color < 0) {
-                    co = color + 1;
-                } else if (color > 1) {
-                    co = color - 1;
-                } else {
-                    co = color;
-                }
-
-                final double c;
-                if (co < 1.0 / 6.0) {
-                    c = p + (q - p) * 6.0 * co;
-                } else if (co < 0.5) {
-                    c = q;
-                } else if (co < 2.0 / 3.0) {
-                    c = p + (q - p) * 6.0 * (2.0 / 3.0 - co);
-                } else {
-                    c = p;
-                }
-                rgbs.add(Math.max(0.0, Math.round(c * 255)));
-            }
+        public double getLightness() {
+            return lightness;
+        }
 
-            final RGB rgb = new RGB(rgbs.get(0).intValue(), rgbs.get(1).intValue(), rgbs.get(2).intValue());
+        public RGB toRGB() {
+            final int argb = toARGB();
+            final RGB rgb = new RGB((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
 //            log.debug("H={} S={} L={}  -->  R={} G={} B={}", hue, saturation, lightness, rgb.red, rgb.green, rgb.blue);
             return rgb;
         }
 
+        public int toARGB() {
+            return hslToARGB(hue, saturation, lightness);
+        }
+
         public int toColor() {
             float[] array = new float[]{(float) hue, (float) saturation, (float) lightness};
             return Color.HSVToColor(array);
         }
     }
 
-    private final List<Double> lightness;
-    private final List<Double> saturation;
+    private static final class CacheEntry {
+        final String string;
+        final int argb;
+
+        CacheEntry(final String string, final int argb) {
+            this.string = string;
+            this.argb = argb;
+        }
+    }
+
+    private static final int CACHE_SIZE = 512; // must be a power of two
+
+    private final double[] lightness;
+    private final double[] saturation;
     private final int minHue;
     private final int maxHue;
     private final StringHasher stringHasher;
+    // direct mapped, entries are immutable so slots can be read and replaced without locking
+    private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
 
     public static final long SEED = 131L;
     public static final long SEED2 = 137L;
@@ -176,8 +167,8 @@ public class ColorHash {
             final int minHue,
             final int maxHue,
             StringHasher stringHasher) {
-        this.lightness = lightness;
-        this.saturation = saturation;
+        this.lightness = toPrimitive(lightness);
+        this.saturation = toPrimitive(saturation);
         this.minHue = minHue;
         this.maxHue = maxHue;
         this.stringHasher = stringHasher;
@@ -185,19 +176,11 @@ public class ColorHash {
 
     public HSL toHSL(final String string) {
         long hash = stringHasher.stringToHash(string) & Long.MAX_VALUE;
-
-        final long hueVal = hash % 997;
-        double hue = (((double) hueVal / 997.0) * (double)(maxHue - minHue) + (double)minHue) % 360.0;
+        final double hue = hue(hash);
         hash = hash / 997;
-
-        double sat = saturation.get((int) (hash % saturation.size()));
-//        sat = 0.95;
-
-        hash = hash / saturation.size();
-
-        double light = lightness.get((int) (hash % lightness.size()));
-//        light = 0.9;
-
+        final double sat = saturation[(int) (hash % saturation.length)];
+        hash = hash / saturation.length;
+        final double light = lightness[(int) (hash % lightness.length)];
 //        log.debug("\"{}\": H={} S={} L={}", string, hue, sat, light);
         return new HSL(hue, sat, light);
     }
@@ -206,9 +189,98 @@ public class ColorHash {
         return toHSL(string).toRGB();
     }
 
+    /**
+     * Returns the color for a string, memoized for recently seen strings.
+     */
     public int toARGB(final String string) {
-        return toRGB(string).toARGB();
-//        return toHSL(string).toColor();
+        final int slot = cacheSlot(string);
+        final CacheEntry entry = cache[slot];
+        if (entry != null && entry.string.equals(string))
+            return entry.argb;
+
+        final int argb = computeARGB(string);
+        cache[slot] = new CacheEntry(string, argb);
+        return argb;
+    }
+
+    /**
+     * Colors a list of strings in one pass, for example the lines or destinations of a departure list.
+     *
+     * @return colors in the order of the strings
+     */
+    public int[] toARGB(final List<String> strings) {
+        final int[] argbs = new int[strings.size()];
+        for (int i = 0; i < argbs.length; i++)
+            argbs[i] = toARGB(strings.get(i));
+        return argbs;
+    }
+
+    private int computeARGB(final String string) {
+        long hash = stringHasher.stringToHash(string) & Long.MAX_VALUE;
+        final double hue = hue(hash);
+        hash = hash / 997;
+        final double sat = saturation[(int) (hash % saturation.length)];
+        hash = hash / saturation.length;
+        final double light = lightness[(int) (hash % lightness.length)];
+        return hslToARGB(hue, sat, light);
+    }
+
+    private double hue(final long hash) {
+        final long hueVal = hash % 997;
+        return (((double) hueVal / 997.0) * (double) (maxHue - minHue) + (double) minHue) % 360.0;
+    }
+
+    private static int cacheSlot(final String string) {
+        final int h = string.hashCode();
+        return (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+    }
+
+    static int hslToARGB(final double hue, final double saturation, final double lightness) {
+        final double h = hue / 360.0;
+
+        final double q;
+        if (lightness < 0.5) {
+            q = lightness * (1.0 + saturation);
+        } else {
+            q = lightness + saturation - lightness * saturation;
+        }
+
+        final double p = 2.0 * lightness - q;
+
+        final int red = channel(p, q, h + 1.0 / 3.0);
+        final int green = channel(p, q, h);
+        final int blue = channel(p, q, h - 1.0 / 3.0);
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int channel(final double p, final double q, final double color) {
+        final double co;
+        if (color < 0) {
+            co = color + 1;
+        } else if (color > 1) {
+            co = color - 1;
+        } else {
+            co = color;
+        }
+
+        final double c;
+        if (co < 1.0 / 6.0) {
+            c = p + (q - p) * 6.0 * co;
+        } else if (co < 0.5) {
+            c = q;
+        } else if (co < 2.0 / 3.0) {
+            c = p + (q - p) * 6.0 * (2.0 / 3.0 - co);
+        } else {
+            c = p;
+        }
+        return (int) Math.max(0L, Math.round(c * 255));
+    }
+
+    private static double[] toPrimitive(final List<Double> values) {
+        final double[] primitives = new double[values.size()];
+        for (int i = 0; i < primitives.length; i++)
+            primitives[i] = values.get(i);
+        return primitives;
     }
 
     public String toHexString(final String string) {
@@ -236,19 +308,19 @@ public class ColorHash {
         return acc;
     }
 
-    private static final MessageDigest md5;
-    static {
+    // message digests are not thread safe
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
         try {
-            md5 = MessageDigest.getInstance("MD5");
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-    }
+    });
 
     public static long md5Hash(final String string) {
+        final MessageDigest md5 = ColorHash.md5.get();
         md5.reset();
-        md5.update(string.getBytes());
-        final byte[] bytes = md5.digest();
+        final byte[] bytes = md5.digest(string.getBytes(StandardCharsets.UTF_8));
         long hash =
                 ((bytes[1] & 0xFFL) << 56) |
                 ((bytes[2] & 0xFFL) << 48) |
@@ -20,6 +20,7 @@ package de.schildbach.oeffi.util;
 import android.content.Context;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
+import android.util.SparseArray;
 import de.schildbach.oeffi.Constants;
 import de.schildbach.oeffi.R;
 import de.schildbach.pte.dto.Line;
@@ -32,6 +33,80 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 
 public final class Formats {
+    private static final int KIND_DATE = 0;
+    private static final int KIND_TIME = 1;
+
+    /**
+     * Per thread cache of date and time formatters, one per pattern kind and effective offset. Formatters are
+     * rebuilt after {@link #invalidateFormats()}, so looking one up does not query the locale or the 24 hour
+     * setting. Each formatter remembers its most recent results by local minute, as neither pattern resolves
+     * anything finer.
+     */
+    private static final class FormatCache {
+        private int generation = -1;
+        private final SparseArray<CachedFormat> formats = new SparseArray<>();
+
+        CachedFormat get(final Context context, final int kind, final int effectiveOffset) {
+            final int generation = formatsGeneration;
+            if (generation != this.generation) {
+                formats.clear();
+                this.generation = generation;
+            }
+
+            // effective offsets stay well within +/- 2^30 ms
+            final int key = effectiveOffset * 2 + kind;
+            CachedFormat format = formats.get(key);
+            if (format == null) {
+                final java.text.DateFormat dateFormat = kind == KIND_TIME
+                        ? DateFormat.getTimeFormat(context) : DateFormat.getDateFormat(context);
+                dateFormat.setTimeZone(TimeZoneSelector.getTimeZoneForEffectiveOffset(effectiveOffset));
+                format = new CachedFormat(dateFormat);
+                formats.put(key, format);
+            }
+            return format;
+        }
+    }
+
+    private static final class CachedFormat {
+        private static final int MEMO_SIZE = 64; // power of two
+
+        final java.text.DateFormat dateFormat;
+        private final long[] memoMinutes = new long[MEMO_SIZE];
+        private final String[] memoStrings = new String[MEMO_SIZE];
+
+        CachedFormat(final java.text.DateFormat dateFormat) {
+            this.dateFormat = dateFormat;
+        }
+
+        String format(final long time, final int effectiveOffset) {
+            final long localMinute = Math.floorDiv(time + effectiveOffset, DateUtils.MINUTE_IN_MILLIS);
+            final int slot = (int) localMinute & (MEMO_SIZE - 1);
+            final String memo = memoStrings[slot];
+            if (memo != null && memoMinutes[slot] == localMinute)
+                return memo;
+            final String string = dateFormat.format(time);
+            memoMinutes[slot] = localMinute;
+            memoStrings[slot] = string;
+            return string;
+        }
+    }
+
+    private static final ThreadLocal<FormatCache> formatCache = ThreadLocal.withInitial(FormatCache::new);
+    private static volatile int formatsGeneration = 0;
+
+    /**
+     * Drops all cached formatters, to be called after the locale or the 24 hour setting has changed.
+     */
+    public static void invalidateFormats() {
+        formatsGeneration++;
+    }
+
+    private static String format(final TimeZoneSelector timeZoneSelector, final int kind, final long time,
+            final int offset) {
+        final int effectiveOffset = timeZoneSelector.getOffset(time, offset);
+        return formatCache.get().get(timeZoneSelector.context, kind, effectiveOffset).format(time, effectiveOffset);
+    }
+
     public static String formatDate(final TimeZoneSelector timeZoneSelector, final PTDate timestamp) {
         return formatDate(timeZoneSelector, timestamp.getTime(), timestamp.getOffset());
     }
@@ -44,13 +119,7 @@ public final class Formats {
         // return DateUtils.formatDateTime(context, time,
         //         DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_ABBREV_WEEKDAY
         //                 | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_ABBREV_MONTH);
-        return getDateFormat(timeZoneSelector, time, offset).format(time);
-    }
-
-    public static java.text.DateFormat getDateFormat(final TimeZoneSelector timeZoneSelector, final long time, final int offset) {
-        final java.text.DateFormat dateFormat = DateFormat.getDateFormat(timeZoneSelector.context);
-        dateFormat.setTimeZone(timeZoneSelector.getTimeZoneForOffset(time, offset));
-        return dateFormat;
+        return format(timeZoneSelector, KIND_DATE, time, offset);
     }
 
     public static String formatDate(
@@ -120,13 +189,7 @@ public final class Formats {
     }
 
     public static String formatTime(final TimeZoneSelector timeZoneSelector, final long time, final int offset) {
-        return getTimeFormat(timeZoneSelector, time, offset).format(time);
-    }
-
-    public static java.text.DateFormat getTimeFormat(final TimeZoneSelector timeZoneSelector, final long time, final int offset) {
-        final java.text.DateFormat timeFormat = DateFormat.getTimeFormat(timeZoneSelector.context);
-        timeFormat.setTimeZone(timeZoneSelector.getTimeZoneForOffset(time, offset));
-        return timeFormat;
+        return format(timeZoneSelector, KIND_TIME, time, offset);
     }
 
     public static String formatTime(final TimeZoneSelector timeZoneSelector, final long now, final long time, final int offset) {
@@ -0,0 +1,249 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Spatial index bucketing items into a grid of fixed-size lat/lon cells, for k-nearest and bounding box queries.
+ * Coordinates are in microdegrees, like {@link de.schildbach.pte.dto.Point}. Not thread-safe.
+ */
+public class GeoGridIndex<T> {
+    public static final class Neighbour<T> implements Comparable<Neighbour<T>> {
+        public final T item;
+        public final float distance;
+
+        private Neighbour(final T item, final float distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(final Neighbour<T> other) {
+            return Float.compare(this.distance, other.distance);
+        }
+    }
+
+    private static final class Node<T> {
+        final T item;
+        final int latE6, lonE6;
+        final long cell;
+
+        Node(final T item, final int latE6, final int lonE6, final long cell) {
+            this.item = item;
+            this.latE6 = latE6;
+            this.lonE6 = lonE6;
+            this.cell = cell;
+        }
+    }
+
+    private static final double EARTH_RADIUS_METERS = 6371009;
+    private static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    private final int cellSizeE6;
+    private final Map<Long, List<Node<T>>> cells = new HashMap<>();
+    private final Map<T, Node<T>> nodes = new HashMap<>();
+    private int minCellLat = Integer.MAX_VALUE, maxCellLat = Integer.MIN_VALUE;
+    private int minCellLon = Integer.MAX_VALUE, maxCellLon = Integer.MIN_VALUE;
+
+    public GeoGridIndex(final int cellSizeE6) {
+        if (cellSizeE6 <= 0)
+            throw new IllegalArgumentException("cellSizeE6: " + cellSizeE6);
+        this.cellSizeE6 = cellSizeE6;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    public boolean contains(final T item) {
+        return nodes.containsKey(item);
+    }
+
+    public void clear() {
+        cells.clear();
+        nodes.clear();
+        minCellLat = minCellLon = Integer.MAX_VALUE;
+        maxCellLat = maxCellLon = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Adds an item, or moves it if it is already contained.
+     */
+    public void put(final T item, final int latE6, final int lonE6) {
+        final Node<T> existing = nodes.get(item);
+        if (existing != null) {
+            if (existing.latE6 == latE6 && existing.lonE6 == lonE6)
+                return;
+            remove(item);
+        }
+
+        final int cellLat = cellIndex(latE6);
+        final int cellLon = cellIndex(lonE6);
+        final long cell = cellKey(cellLat, cellLon);
+        final Node<T> node = new Node<>(item, latE6, lonE6, cell);
+        nodes.put(item, node);
+        List<Node<T>> bucket = cells.get(cell);
+        if (bucket == null) {
+            bucket = new ArrayList<>(4);
+            cells.put(cell, bucket);
+        }
+        bucket.add(node);
+
+        minCellLat = Math.min(minCellLat, cellLat);
+        maxCellLat = Math.max(maxCellLat, cellLat);
+        minCellLon = Math.min(minCellLon, cellLon);
+        maxCellLon = Math.max(maxCellLon, cellLon);
+    }
+
+    public boolean remove(final T item) {
+        final Node<T> node = nodes.remove(item);
+        if (node == null)
+            return false;
+        final List<Node<T>> bucket = cells.get(node.cell);
+        bucket.remove(node);
+        if (bucket.isEmpty())
+            cells.remove(node.cell);
+        // bounds are not shrunk, they only limit the search
+        return true;
+    }
+
+    /**
+     * Finds up to {@code k} items nearest to the given coordinate and not farther away than {@code maxDistance}
+     * meters, sorted by ascending distance.
+     */
+    public List<Neighbour<T>> nearest(final int latE6, final int lonE6, final int k, final float maxDistance,
+            final Predicate<T> filter) {
+        if (k <= 0 || nodes.isEmpty())
+            return Collections.emptyList();
+
+        final List<Neighbour<T>> candidates = new ArrayList<>();
+        final int centerLat = cellIndex(latE6);
+        final int centerLon = cellIndex(lonE6);
+        final int maxRing = Math.max(
+                Math.max(Math.abs(centerLat - minCellLat), Math.abs(maxCellLat - centerLat)),
+                Math.max(Math.abs(centerLon - minCellLon), Math.abs(maxCellLon - centerLon)));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // everything outside the rings scanned so far is at least this far away
+            final float bound = ringLowerBoundMeters(latE6, ring);
+            if (bound > maxDistance)
+                break;
+            if (candidates.size() >= k) {
+                Collections.sort(candidates);
+                if (candidates.get(k - 1).distance <= bound)
+                    break;
+            }
+
+            for (int cellLat = centerLat - ring; cellLat <= centerLat + ring; cellLat++) {
+                if (cellLat < minCellLat || cellLat > maxCellLat)
+                    continue;
+                final boolean edgeRow = cellLat == centerLat - ring || cellLat == centerLat + ring;
+                final int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                for (int cellLon = centerLon - ring; cellLon <= centerLon + ring; cellLon += step) {
+                    final List<Node<T>> bucket = cells.get(cellKey(cellLat, cellLon));
+                    if (bucket == null)
+                        continue;
+                    for (final Node<T> node : bucket) {
+                        if (filter != null && !filter.test(node.item))
+                            continue;
+                        final float distance = distanceMeters(latE6, lonE6, node.latE6, node.lonE6);
+                        if (distance <= maxDistance)
+                            candidates.add(new Neighbour<>(node.item, distance));
+                    }
+                }
+            }
+        }
+
+        Collections.sort(candidates);
+        return candidates.size() > k ? new ArrayList<>(candidates.subList(0, k)) : candidates;
+    }
+
+    /**
+     * Collects all items within the given bounding box. Does not handle boxes crossing the antimeridian.
+     */
+    public void within(final int minLatE6, final int minLonE6, final int maxLatE6, final int maxLonE6,
+            final List<T> result) {
+        final int fromLat = Math.max(cellIndex(minLatE6), minCellLat);
+        final int toLat = Math.min(cellIndex(maxLatE6), maxCellLat);
+        final int fromLon = Math.max(cellIndex(minLonE6), minCellLon);
+        final int toLon = Math.min(cellIndex(maxLonE6), maxCellLon);
+        if (fromLat > toLat || fromLon > toLon)
+            return;
+
+        if ((long) (toLat - fromLat + 1) * (toLon - fromLon + 1) > cells.size()) {
+            // box covers more cells than are occupied, so iterate the occupied ones
+            for (final List<Node<T>> bucket : cells.values())
+                collectWithin(bucket, minLatE6, minLonE6, maxLatE6, maxLonE6, result);
+        } else {
+            for (int cellLat = fromLat; cellLat <= toLat; cellLat++) {
+                for (int cellLon = fromLon; cellLon <= toLon; cellLon++) {
+                    final List<Node<T>> bucket = cells.get(cellKey(cellLat, cellLon));
+                    if (bucket != null)
+                        collectWithin(bucket, minLatE6, minLonE6, maxLatE6, maxLonE6, result);
+                }
+            }
+        }
+    }
+
+    private void collectWithin(final List<Node<T>> bucket, final int minLatE6, final int minLonE6,
+            final int maxLatE6, final int maxLonE6, final List<T> result) {
+        for (final Node<T> node : bucket)
+            if (node.latE6 >= minLatE6 && node.latE6 <= maxLatE6 && node.lonE6 >= minLonE6 && node.lonE6 <= maxLonE6)
+                result.add(node.item);
+    }
+
+    private int cellIndex(final int coordE6) {
+        return Math.floorDiv(coordE6, cellSizeE6);
+    }
+
+    private static long cellKey(final int cellLat, final int cellLon) {
+        return ((long) cellLat << 32) | (cellLon & 0xffffffffL);
+    }
+
+    private float ringLowerBoundMeters(final int latE6, final int ring) {
+        // the query point may lie anywhere in its cell, so only the rings in between count
+        if (ring <= 1)
+            return 0;
+        final double degrees = (double) (ring - 1) * cellSizeE6 / 1E6;
+        // longitude degrees shrink towards the poles, so use the most poleward latitude reachable
+        final double poleward = Math.min(89.0, Math.abs(latE6 / 1E6) + degrees);
+        return (float) (degrees * METERS_PER_DEGREE * Math.cos(Math.toRadians(poleward)));
+    }
+
+    /**
+     * Great-circle distance in meters, using the haversine formula.
+     */
+    public static float distanceMeters(final int lat1E6, final int lon1E6, final int lat2E6, final int lon2E6) {
+        final double lat1 = Math.toRadians(lat1E6 / 1E6);
+        final double lat2 = Math.toRadians(lat2E6 / 1E6);
+        final double sinDLat = Math.sin((lat2 - lat1) / 2);
+        final double sinDLon = Math.sin(Math.toRadians((lon2E6 - lon1E6) / 1E6) / 2);
+        final double a = sinDLat * sinDLat + Math.cos(lat1) * Math.cos(lat2) * sinDLon * sinDLon;
+        return (float) (2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a))));
+    }
+}
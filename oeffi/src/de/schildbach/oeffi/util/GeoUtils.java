@@ -26,6 +26,8 @@ import androidx.annotation.FloatRange;
 import de.schildbach.pte.dto.Point;
 
 public class GeoUtils {
+    private static final double EARTH_RADIUS_METERS = 6371009;
+
     public static class DistanceResult {
         public float distanceInMeters;
         public float initialBearing;
@@ -73,4 +75,39 @@ public class GeoUtils {
         requireNonNull(start);
         return distanceBetween(start.getLatitude(), start.getLongitude(), end);
     }
+
+    /**
+     * Approximates the distance by projecting onto an equirectangular plane at the mean latitude. Accurate to well
+     * below a percent for the few kilometers between nearby stations, at a fraction of the cost of
+     * {@link #distanceBetween(double, double, double, double)}, and without allocating.
+     */
+    public static float fastDistance(final double startLatitude, final double startLongitude,
+            final double endLatitude, final double endLongitude) {
+        final double x = deltaLongitude(startLongitude, endLongitude)
+                * Math.cos(Math.toRadians((startLatitude + endLatitude) / 2));
+        final double y = Math.toRadians(endLatitude - startLatitude);
+        return (float) (Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS);
+    }
+
+    /**
+     * Approximates the initial bearing the same way as {@link #fastDistance(double, double, double, double)}.
+     *
+     * @return bearing in degrees east of true north, between -180 and 180
+     */
+    public static float fastBearing(final double startLatitude, final double startLongitude,
+            final double endLatitude, final double endLongitude) {
+        final double x = deltaLongitude(startLongitude, endLongitude)
+                * Math.cos(Math.toRadians((startLatitude + endLatitude) / 2));
+        final double y = Math.toRadians(endLatitude - startLatitude);
+        return (float) Math.toDegrees(Math.atan2(x, y));
+    }
+
+    private static double deltaLongitude(final double startLongitude, final double endLongitude) {
+        double delta = endLongitude - startLongitude;
+        if (delta > 180)
+            delta -= 360;
+        else if (delta < -180)
+            delta += 360;
+        return Math.toRadians(delta);
+    }
 }
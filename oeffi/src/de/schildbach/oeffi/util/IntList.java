@@ -0,0 +1,61 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, for posting lists of ids. Not thread-safe.
+ */
+public final class IntList {
+    private int[] values = new int[2];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public int get(final int index) {
+        return values[index];
+    }
+
+    public void add(final int value) {
+        if (size == values.length)
+            values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * Adds a value that is not smaller than the last one added, unless it is equal to that.
+     */
+    public void addAscending(final int value) {
+        if (size == 0 || values[size - 1] != value)
+            add(value);
+    }
+
+    public void addUnique(final int value) {
+        for (int i = 0; i < size; i++)
+            if (values[i] == value)
+                return;
+        add(value);
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -18,23 +18,49 @@
 package de.schildbach.oeffi.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
+/**
+ * Matches queries against searchable items by words. All words are interned into one shared dictionary, so that
+ * items only hold token ids. Each query word is resolved once to the set of tokens containing it, using trigram
+ * postings of the dictionary, after which matching an item is a lookup per item token.
+ */
 public final class KeyWordMatcher {
     private static final boolean USE_OR_MATCHING = false; // false uses "AND" matching
 
+    private static final Dictionary dictionary = new Dictionary();
+
     public static class SearchableItem {
         private SearchableItem() {}
 
-        private final List<String> keyWords = new ArrayList<>();
+        private int[] tokens = new int[4];
+        private int numTokens = 0;
 
         public void addIndexableText(final String text) {
-            addKeyWordsFromText(text, keyWords);
+            if (text == null || text.isEmpty())
+                return;
+            for (final String word : splitWords(text))
+                addToken(dictionary.intern(word));
         }
 
         public void addIndexableString(final String string) {
-            addStringAsKeyword(string, keyWords);
+            if (string == null || string.isEmpty())
+                return;
+            addToken(dictionary.intern(string.toLowerCase()));
+        }
+
+        private void addToken(final int token) {
+            for (int i = 0; i < numTokens; i++)
+                if (tokens[i] == token)
+                    return;
+            if (numTokens == tokens.length)
+                tokens = Arrays.copyOf(tokens, numTokens * 2);
+            tokens[numTokens++] = token;
         }
     }
 
@@ -44,11 +70,24 @@ public final class KeyWordMatcher {
         }
 
         private Query(final String query) {
-            this.queryStrings = new ArrayList<>();
-            addKeyWordsFromText(query, queryStrings);
+            this.queryStrings = query != null && !query.isEmpty() ? splitWords(query) : new String[0];
+            this.matchingTokens = new BitSet[queryStrings.length];
+            for (int i = 0; i < queryStrings.length; i++)
+                matchingTokens[i] = new BitSet();
         }
 
-        private final List<String> queryStrings;
+        private final String[] queryStrings;
+        private final BitSet[] matchingTokens;
+        private int resolvedTokens = 0;
+
+        private synchronized void resolve() {
+            final int dictionarySize = dictionary.size();
+            if (resolvedTokens == dictionarySize)
+                return;
+            for (int i = 0; i < queryStrings.length; i++)
+                dictionary.findContaining(queryStrings[i], resolvedTokens, matchingTokens[i]);
+            resolvedTokens = dictionarySize;
+        }
     }
 
     public static class Match {
@@ -72,72 +111,113 @@ public final class KeyWordMatcher {
     private static final Pattern patternNoWordChars = Pattern.compile("[^\\sa-z0-9]+");
     private static final Pattern patternSpaces = Pattern.compile("\\s+");
 
-    private static void addKeyWordsFromText(final String text, final List<String> keyWords) {
-        if (text == null || text.isEmpty())
-            return;
+    /**
+     * Splits text into lower case words, folding umlauts and ß to ASCII and dropping all other non-word characters.
+     */
+    public static String[] splitWords(final String text) {
         final String lowerCaseAscii = text
                 .toLowerCase()
                 .replace("ä", "ae")
                 .replace("ö", "oe")
                 .replace("ü", "ue")
                 .replace("ß", "ss");
-        final String wordsBySpaces = patternNoWordChars.matcher(lowerCaseAscii).replaceAll(" ");
-        addWordArrayToList(patternSpaces.split(wordsBySpaces), keyWords);
-    }
-
-    private static void addStringAsKeyword(final String string, final List<String> keyWords) {
-        if (string == null || string.isEmpty())
-            return;
-        keyWords.add(string.toLowerCase());
-    }
-
-    private static void addWordArrayToList(final String[] words, final List<String> keyWords) {
-        for (final String word : words)
-            keyWords.add(word);
+        final String wordsBySpaces = patternNoWordChars.matcher(lowerCaseAscii).replaceAll(" ").trim();
+        return wordsBySpaces.isEmpty() ? new String[0] : patternSpaces.split(wordsBySpaces);
     }
 
     private static Match match(final SearchableItem item, final Query query) {
-        final List<String> queryStrings = query.queryStrings;
-        if (queryStrings.isEmpty())
+        final String[] queryStrings = query.queryStrings;
+        if (queryStrings.length == 0)
             return new Match(true, 1);
+        query.resolve();
 
-        boolean matches;
+        final int[] itemTokens = item.tokens;
+        final int numItemTokens = item.numTokens;
+
+        boolean matches = !USE_OR_MATCHING;
         int score = 0;
+        for (int q = 0; q < queryStrings.length; q++) {
+            final BitSet matchingTokens = query.matchingTokens[q];
+            final int queryStringLength = queryStrings[q].length();
+            boolean queryMatches = false;
+            for (int t = 0; t < numItemTokens; t++) {
+                if (matchingTokens.get(itemTokens[t])) {
+                    queryMatches = true;
+                    score += queryStringLength;
+                    if (queryStringLength == dictionary.length(itemTokens[t]))
+                        score += 10;
+                }
+            }
+            if (USE_OR_MATCHING)
+                matches |= queryMatches;
+            else
+                matches &= queryMatches;
+        }
 
-        if (USE_OR_MATCHING) {
-            matches = false;
-            for (final String itemKeyWord : item.keyWords) {
-                final int itemKeyWordLength = itemKeyWord.length();
-                boolean itemMatches = false;
-                for (final String queryString : queryStrings) {
-                    final int queryStringLength = queryString.length();
-                    if (itemKeyWord.contains(queryString)) {
-                        itemMatches = true;
-                        score += queryStringLength;
-                        if (queryStringLength == itemKeyWordLength)
-                            score += 10;
-                    }
+        return new Match(matches, score);
+    }
+
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> tokens = new ArrayList<>();
+        private final Map<Long, IntList> tokensByTrigram = new HashMap<>();
+
+        synchronized int intern(final String token) {
+            final Integer existing = ids.get(token);
+            if (existing != null)
+                return existing;
+            final int id = tokens.size();
+            tokens.add(token);
+            ids.put(token, id);
+            for (int i = 0; i + 3 <= token.length(); i++) {
+                final long trigram = trigram(token, i);
+                IntList postings = tokensByTrigram.get(trigram);
+                if (postings == null) {
+                    postings = new IntList();
+                    tokensByTrigram.put(trigram, postings);
                 }
-                matches |= itemMatches;
+                postings.addAscending(id);
             }
-        } else {
-            matches = true;
-            for (final String queryString : queryStrings) {
-                final int queryStringLength = queryString.length();
-                boolean queryMatches = false;
-                for (final String itemKeyWord : item.keyWords) {
-                    final int itemKeyWordLength = itemKeyWord.length();
-                    if (itemKeyWord.contains(queryString)) {
-                        queryMatches = true;
-                        score += queryStringLength;
-                        if (queryStringLength == itemKeyWordLength)
-                            score += 10;
-                    }
+            return id;
+        }
+
+        synchronized int size() {
+            return tokens.size();
+        }
+
+        synchronized int length(final int id) {
+            return tokens.get(id).length();
+        }
+
+        /**
+         * Sets the ids of all tokens containing the given word, starting from the given id.
+         */
+        synchronized void findContaining(final String word, final int fromId, final BitSet result) {
+            final int size = tokens.size();
+            if (word.length() >= 3 && size - fromId > 64) {
+                // any token containing the word contains its rarest trigram
+                IntList rarest = null;
+                for (int i = 0; i + 3 <= word.length(); i++) {
+                    final IntList postings = tokensByTrigram.get(trigram(word, i));
+                    if (postings == null)
+                        return;
+                    if (rarest == null || postings.size() < rarest.size())
+                        rarest = postings;
                 }
-                matches &= queryMatches;
+                for (int i = 0; i < rarest.size(); i++) {
+                    final int id = rarest.get(i);
+                    if (id >= fromId && tokens.get(id).contains(word))
+                        result.set(id);
+                }
+            } else {
+                for (int id = fromId; id < size; id++)
+                    if (tokens.get(id).contains(word))
+                        result.set(id);
             }
         }
 
-        return new Match(matches, score);
+        private static long trigram(final String s, final int index) {
+            return ((long) s.charAt(index) << 32) | ((long) s.charAt(index + 1) << 16) | s.charAt(index + 2);
+        }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+/**
+ * Douglas–Peucker simplification of planar polylines, given as interleaved coordinates {@code x0, y0, x1, y1, ...}.
+ * <p>
+ * Rather than simplifying once per tolerance, {@link #significance(double[])} runs Douglas–Peucker once down to zero
+ * tolerance and records for each point the largest tolerance at which it is still kept. Simplifying to any tolerance
+ * is then a linear selection, which makes it cheap to prepare several levels of detail of the same polyline.
+ */
+public final class PolylineSimplifier {
+    private PolylineSimplifier() {
+    }
+
+    /**
+     * @param xy interleaved coordinates
+     * @return per point, the tolerance below which Douglas–Peucker keeps it; infinite for the end points
+     */
+    public static double[] significance(final double[] xy) {
+        final int numPoints = xy.length / 2;
+        final double[] significance = new double[numPoints];
+        if (numPoints == 0)
+            return significance;
+        significance[0] = Double.POSITIVE_INFINITY;
+        significance[numPoints - 1] = Double.POSITIVE_INFINITY;
+        if (numPoints < 3)
+            return significance;
+
+        // explicit stack of segments, each with the significance of the split that created it
+        final int[] stackFrom = new int[numPoints];
+        final int[] stackTo = new int[numPoints];
+        final double[] stackCap = new double[numPoints];
+        int stackSize = 0;
+        stackFrom[stackSize] = 0;
+        stackTo[stackSize] = numPoints - 1;
+        stackCap[stackSize] = Double.POSITIVE_INFINITY;
+        stackSize++;
+
+        while (stackSize > 0) {
+            stackSize--;
+            final int from = stackFrom[stackSize];
+            final int to = stackTo[stackSize];
+            final double cap = stackCap[stackSize];
+            if (to - from < 2)
+                continue;
+
+            int farthest = -1;
+            double maxDistance = -1;
+            for (int i = from + 1; i < to; i++) {
+                final double distance = segmentDistance(xy, i, from, to);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            // a point is only reached if all splits above it were made, so it can't outlive them
+            final double pointSignificance = Math.min(maxDistance, cap);
+            significance[farthest] = pointSignificance;
+
+            stackFrom[stackSize] = from;
+            stackTo[stackSize] = farthest;
+            stackCap[stackSize] = pointSignificance;
+            stackSize++;
+            stackFrom[stackSize] = farthest;
+            stackTo[stackSize] = to;
+            stackCap[stackSize] = pointSignificance;
+            stackSize++;
+        }
+
+        return significance;
+    }
+
+    /**
+     * @param significance as returned by {@link #significance(double[])}
+     * @return indices of the points kept at the given tolerance, in order
+     */
+    public static int[] select(final double[] significance, final double tolerance) {
+        int count = 0;
+        for (final double s : significance)
+            if (s > tolerance)
+                count++;
+        final int[] indices = new int[count];
+        int j = 0;
+        for (int i = 0; i < significance.length; i++)
+            if (significance[i] > tolerance)
+                indices[j++] = i;
+        return indices;
+    }
+
+    /**
+     * Simplifies a polyline to a single tolerance.
+     *
+     * @return interleaved coordinates of the kept points
+     */
+    public static double[] simplify(final double[] xy, final double tolerance) {
+        final int[] indices = select(significance(xy), tolerance);
+        final double[] simplified = new double[indices.length * 2];
+        for (int i = 0; i < indices.length; i++) {
+            simplified[i * 2] = xy[indices[i] * 2];
+            simplified[i * 2 + 1] = xy[indices[i] * 2 + 1];
+        }
+        return simplified;
+    }
+
+    /**
+     * @return distance of point {@code i} to the segment from point {@code from} to point {@code to}
+     */
+    static double segmentDistance(final double[] xy, final int i, final int from, final int to) {
+        final double px = xy[i * 2], py = xy[i * 2 + 1];
+        final double ax = xy[from * 2], ay = xy[from * 2 + 1];
+        final double bx = xy[to * 2], by = xy[to * 2 + 1];
+        final double dx = bx - ax, dy = by - ay;
+        final double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        if (t < 0)
+            t = 0;
+        else if (t > 1)
+            t = 1;
+        final double ex = px - (ax + t * dx), ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
@@ -22,6 +22,7 @@ import android.content.Context;
 import java.util.Date;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.schildbach.oeffi.network.NetworkProviderFactory;
 import de.schildbach.pte.NetworkId;
@@ -30,6 +31,9 @@ import de.schildbach.pte.dto.PTDate;
 public class TimeZoneSelector {
     private static final String VARIABLE_TIMEZONE_ID = "?";
 
+    // fixed offset time zones are immutable in practice and shared across all selectors
+    private static final ConcurrentHashMap<Integer, TimeZone> timeZonesByOffset = new ConcurrentHashMap<>();
+
     public enum Source {
         LOCATION,
         NETWORK,
@@ -95,7 +99,16 @@ public class TimeZoneSelector {
     }
 
     public TimeZone getTimeZoneForOffset(final long time, final int offset) {
-        return new SimpleTimeZone(getOffset(time, offset), VARIABLE_TIMEZONE_ID);
+        return getTimeZoneForEffectiveOffset(getOffset(time, offset));
+    }
+
+    /**
+     * @param effectiveOffset offset from UTC in milliseconds, as returned by {@link #getOffset(long, int)}
+     * @return a shared time zone with that fixed offset, which must not be modified
+     */
+    public static TimeZone getTimeZoneForEffectiveOffset(final int effectiveOffset) {
+        return timeZonesByOffset.computeIfAbsent(effectiveOffset,
+                o -> new SimpleTimeZone(o, VARIABLE_TIMEZONE_ID));
     }
 
     public TimeZone getInputTimeZone() {
@@ -47,10 +47,18 @@ public class AutoCompleteLocationAdapter extends BaseAdapter implements Filterab
     private boolean filterStations, filterAddresses, filterPois;
 
     private List<Location> locations = new LinkedList<>();
+    private final LocationSuggestionsStream suggestionsStream;
 
     public AutoCompleteLocationAdapter(final LocationView locationView, final NetworkId network) {
         this.locationView = locationView;
         this.network = network;
+        this.suggestionsStream = new LocationSuggestionsStream(network, (constraint, suggestions) -> {
+            // network results, merged with the local ones published before
+            if (suggestions.isEmpty())
+                resetFilters();
+            locations = suggestions;
+            notifyDataSetChanged();
+        });
     }
 
     public Activity getActivity() {
@@ -132,6 +140,8 @@ public class AutoCompleteLocationAdapter extends BaseAdapter implements Filterab
         return searchProviderId;
     }
 
+    private static final Object KEEP_PREVIOUS_RESULTS = new Object();
+
     public class LocationFilter extends Filter {
         @Override
         protected FilterResults performFiltering(final CharSequence constraint) {
@@ -140,26 +150,39 @@ public class AutoCompleteLocationAdapter extends BaseAdapter implements Filterab
             if (filterStations) suggestedLocationTypes.add(LocationType.STATION);
             if (filterAddresses) suggestedLocationTypes.add(LocationType.ADDRESS);
             if (filterPois) suggestedLocationTypes.add(LocationType.POI);
-            final List<Location> results = LocationSuggestionsCollector.collectSuggestions(
-                    constraint, suggestedLocationTypes, network, searchProviderId);
-            if (results != null) {
+            final List<Location> results = suggestionsStream.request(
+                    constraint, suggestedLocationTypes, searchProviderId);
+            final String normalizedConstraint = LocationSuggestionsCollector.normalizeConstraint(constraint);
+            final boolean awaitNetwork = normalizedConstraint != null
+                    && LocationSuggestionsCollector.isNetworkQueryable(normalizedConstraint);
+            if (results != null && results.isEmpty() && awaitNetwork) {
+                // keep showing the previous results, as network results are still to come
+                filterResults.values = KEEP_PREVIOUS_RESULTS;
+            } else if (results != null) {
                 filterResults.values = results;
                 filterResults.count = results.size();
             }
-            if (filterResults.count == 0)
+            if (filterResults.count == 0 && !awaitNetwork)
                 resetFilters();
             return filterResults;
         }
 
         @Override
         protected void publishResults(final CharSequence constraint, final FilterResults filterResults) {
-            if (filterResults.values != null) {
+            if (filterResults.values == KEEP_PREVIOUS_RESULTS) {
+                // the count is reported after publishing, and a count of 0 would dismiss the dropdown
+                filterResults.count = locations.size();
+            } else if (filterResults.values != null) {
                 locations = (List<Location>) filterResults.values;
                 notifyDataSetChanged();
             }
         }
     }
 
+    public void cancelSuggestions() {
+        suggestionsStream.cancel();
+    }
+
     public void resetFilters() {
         filterStations = false;
         filterAddresses = false;
@@ -0,0 +1,124 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.locationview;
+
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.schildbach.oeffi.Constants;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+
+/**
+ * LRU cache of network location suggestions, keyed by search provider, normalized query and location types. A query
+ * missing from the cache can still be answered from a cached shorter prefix of it, as long as that result was not
+ * truncated by the requested maximum number of locations, because then it contains everything the longer query
+ * could match.
+ */
+class LocationSuggestionsCache {
+    private static final int MAX_ENTRIES = 64;
+    private static final long MAX_AGE_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final class Entry {
+        final List<Location> locations;
+        final boolean complete;
+        final long createdAt;
+
+        Entry(final List<Location> locations, final boolean complete, final long createdAt) {
+            this.locations = locations;
+            this.complete = complete;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public static String normalizeQuery(final String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Constants.DEFAULT_LOCALE);
+    }
+
+    /**
+     * @param providerName name of the network or location search provider
+     * @param normalizedQuery query as returned by {@link #normalizeQuery(String)}
+     * @return cached or refined suggestions, or {@code null} if the network needs to be queried
+     */
+    public static synchronized List<Location> get(final String providerName, final String normalizedQuery,
+            final Set<LocationType> locationTypes, final int minQueryLength) {
+        final long now = System.currentTimeMillis();
+        final String typesKey = typesKey(locationTypes);
+
+        final Entry exact = entries.get(key(providerName, typesKey, normalizedQuery));
+        if (exact != null && now - exact.createdAt <= MAX_AGE_MS)
+            return exact.locations;
+
+        // try prefixes, the longest first, as their results need the least filtering
+        final String[] tokens = normalizedQuery.split(" ");
+        for (int length = normalizedQuery.length() - 1; length >= minQueryLength; length--) {
+            final Entry prefix = entries.get(key(providerName, typesKey, normalizedQuery.substring(0, length)));
+            if (prefix == null || !prefix.complete || now - prefix.createdAt > MAX_AGE_MS)
+                continue;
+            final List<Location> refined = new ArrayList<>();
+            for (final Location location : prefix.locations)
+                if (matchesAllTokens(location, tokens))
+                    refined.add(location);
+            // the provider may match fuzzily, so an empty refinement is no proof of absence
+            return !refined.isEmpty() ? refined : null;
+        }
+
+        return null;
+    }
+
+    public static synchronized void put(final String providerName, final String normalizedQuery,
+            final Set<LocationType> locationTypes, final List<Location> locations, final int maxLocations) {
+        entries.put(key(providerName, typesKey(locationTypes), normalizedQuery),
+                new Entry(Collections.unmodifiableList(new ArrayList<>(locations)),
+                        locations.size() < maxLocations, System.currentTimeMillis()));
+    }
+
+    private static boolean matchesAllTokens(final Location location, final String[] tokens) {
+        final String name = location.name != null ? location.name.toLowerCase(Constants.DEFAULT_LOCALE) : "";
+        final String place = location.place != null ? location.place.toLowerCase(Constants.DEFAULT_LOCALE) : "";
+        for (final String token : tokens)
+            if (!name.contains(token) && !place.contains(token))
+                return false;
+        return true;
+    }
+
+    private static String typesKey(final Set<LocationType> locationTypes) {
+        final StringBuilder key = new StringBuilder();
+        for (final LocationType type : new TreeSet<>(locationTypes))
+            key.append(type.name()).append(',');
+        return key.toString();
+    }
+
+    private static String key(final String providerName, final String typesKey, final String normalizedQuery) {
+        return providerName + '|' + typesKey + '|' + normalizedQuery;
+    }
+}
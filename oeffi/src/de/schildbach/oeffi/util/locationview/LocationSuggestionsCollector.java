@@ -8,7 +8,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import de.schildbach.oeffi.Application;
@@ -16,7 +15,9 @@ import de.schildbach.oeffi.Constants;
 import de.schildbach.oeffi.directions.QueryHistoryProvider;
 import de.schildbach.oeffi.network.LocationSearchProviderFactory;
 import de.schildbach.oeffi.network.NetworkProviderFactory;
+import de.schildbach.oeffi.stations.FavoriteStationsCache;
 import de.schildbach.oeffi.stations.FavoriteStationsProvider;
+import de.schildbach.oeffi.stations.StationNameIndex;
 import de.schildbach.pte.provider.locationsearch.LocationSearchProvider;
 import de.schildbach.pte.provider.locationsearch.LocationSearchProviderId;
 import de.schildbach.pte.NetworkId;
@@ -26,6 +27,9 @@ import de.schildbach.pte.dto.Point;
 import de.schildbach.pte.dto.SuggestLocationsResult;
 
 public class LocationSuggestionsCollector {
+    private static final int MIN_NETWORK_CONSTRAINT_LENGTH = 3;
+    private static final int MAX_SUGGESTIONS = 30;
+    private static final int MAX_INDEX_SUGGESTIONS = 10;
     private static final Logger log = LoggerFactory.getLogger(LocationSuggestionsCollector.class);
 
     public static List<Location> collectSuggestions(
@@ -33,97 +37,112 @@ public class LocationSuggestionsCollector {
             final AbstractSet<LocationType> suggestedLocationTypes,
             final NetworkId network,
             final LocationSearchProviderId searchProviderId) {
+        final String constraint = normalizeConstraint(aConstraint);
+        if (constraint == null)
+            return null;
+        addDefaultLocationTypes(suggestedLocationTypes);
+        try {
+            final SuggestionCandidates localResults = collectLocalSuggestions(constraint, network);
+            final List<Location> networkResults = collectNetworkSuggestions(constraint,
+                    network, searchProviderId, suggestedLocationTypes);
+            return mergeSuggestions(localResults, networkResults, suggestedLocationTypes);
+        } catch (final IOException ioe) {
+            log.error("collectSuggestions failed", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * @return the trimmed constraint, or {@code null} if there is nothing to search for
+     */
+    public static String normalizeConstraint(final CharSequence aConstraint) {
         if (aConstraint == null)
             return null;
         final String constraint = aConstraint.toString().trim();
         if (constraint.isEmpty())
             return null;
+        return constraint;
+    }
+
+    public static void addDefaultLocationTypes(final AbstractSet<LocationType> suggestedLocationTypes) {
         if (suggestedLocationTypes.isEmpty()) {
             suggestedLocationTypes.add(LocationType.STATION);
             suggestedLocationTypes.add(LocationType.ADDRESS);
             suggestedLocationTypes.add(LocationType.POI);
         }
-        final boolean selectStations = suggestedLocationTypes.contains(LocationType.STATION);
-        final boolean selectAddresses = suggestedLocationTypes.contains(LocationType.ADDRESS);
-        final boolean selectPOIs = suggestedLocationTypes.contains(LocationType.POI);
-        try {
-            final List<Location> results = new LinkedList<>();
-
-            loadResultsFromFavoriteStations(constraint, network, results);
-            loadResultsFromQueryHistory(constraint, network, results);
-            loadResultsFromNetworkProvider(constraint,
-                    network, searchProviderId,
-                    suggestedLocationTypes,
-                    results);
-
-            final List<Location> filteredResults = new ArrayList<>();
-            for (final Location location : results) {
-                boolean use = false;
-                switch (location.type) {
-                    case STATION: use = selectStations; break;
-                    case ADDRESS: use = selectAddresses; break;
-                    case POI: use = selectPOIs; break;
-                }
-                if (use)
-                    filteredResults.add(location);
-            }
-
-            if (!filteredResults.isEmpty())
-                return filteredResults;
+    }
 
-            return results;
-        } catch (final IOException ioe) {
-            log.error("collectSuggestions failed", ioe);
-            return null;
-        }
+    /**
+     * Collects suggestions from favorite stations, the query history and the offline station index. These are
+     * available instantly.
+     */
+    public static SuggestionCandidates collectLocalSuggestions(final String constraint, final NetworkId network) {
+        final SuggestionCandidates results = new SuggestionCandidates();
+        loadResultsFromFavoriteStations(constraint, network, results);
+        loadResultsFromQueryHistory(constraint, network, results);
+        loadResultsFromStationIndex(constraint, network, results);
+        return results;
     }
 
-    private static void loadResultsFromFavoriteStations(
+    /**
+     * Collects suggestions from the network provider, or the alternate search provider if given. Blocks for a
+     * network round trip.
+     *
+     * @return suggestions in the order of the provider, empty if the constraint is too short to query for
+     */
+    public static List<Location> collectNetworkSuggestions(
             final String constraint,
             final NetworkId network,
-            final List<Location> results) {
-        final Cursor cursor = Application.getInstance().getContentResolver().query(
-                FavoriteStationsProvider.CONTENT_URI(), null,
-                FavoriteStationsProvider.KEY_TYPE + "=? AND "
-                        + FavoriteStationsProvider.KEY_STATION_NETWORK + "=?",
-                new String[] { String.valueOf(FavoriteStationsProvider.TYPE_FAVORITE), network.name() },
-                null);
+            final LocationSearchProviderId searchProviderId,
+            final AbstractSet<LocationType> suggestedLocationTypes) throws IOException {
+        final List<Location> results = new ArrayList<>();
+        loadResultsFromNetworkProvider(constraint,
+                network, searchProviderId,
+                suggestedLocationTypes,
+                results);
+        return results;
+    }
 
-        if (cursor == null)
-            return;
+    public static boolean isNetworkQueryable(final String constraint) {
+        return constraint.length() >= MIN_NETWORK_CONSTRAINT_LENGTH;
+    }
 
-        final int typeC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_TYPE);
-        final int idC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_ID);
-        final int latC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_LAT);
-        final int lonC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_LON);
-        final int placeC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_PLACE);
-        final int nameC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NAME);
-        final int nickNameC = cursor.getColumnIndexOrThrow(FavoriteStationsProvider.KEY_STATION_NICKNAME);
+    /**
+     * Merges local and network suggestions and ranks them, keeping only the suggested location types. If that
+     * leaves nothing, the best suggestions of all types are returned.
+     */
+    public static List<Location> mergeSuggestions(
+            final SuggestionCandidates localResults,
+            final List<Location> networkResults,
+            final AbstractSet<LocationType> suggestedLocationTypes) {
+        final SuggestionCandidates candidates = new SuggestionCandidates(localResults);
+        int rank = 0;
+        for (final Location location : networkResults)
+            candidates.addNetwork(location, rank++);
+        return candidates.top(suggestedLocationTypes, MAX_SUGGESTIONS);
+    }
 
+    private static void loadResultsFromFavoriteStations(
+            final String constraint,
+            final NetworkId network,
+            final SuggestionCandidates results) {
         final String lowerCaseConstraint = constraint.toLowerCase(Constants.DEFAULT_LOCALE);
 
-        while (cursor.moveToNext()) {
-            final String name = cursor.getString(nameC);
-            final String place = cursor.getString(placeC);
-            final String nickName = cursor.getString(nickNameC);
-            if (namePartMatches(name, lowerCaseConstraint)
-                    || namePartMatches(place, lowerCaseConstraint)
+        for (final FavoriteStationsCache.Entry entry : FavoriteStationsCache.getInstance().entries(network,
+                FavoriteStationsProvider.TYPE_FAVORITE)) {
+            final Location raw = entry.location;
+            final String nickName = entry.nickName;
+            if (namePartMatches(raw.name, lowerCaseConstraint)
+                    || namePartMatches(raw.place, lowerCaseConstraint)
                     || namePartMatches(nickName, lowerCaseConstraint)) {
-                final LocationType type = LocationType.valueOf(cursor.getString(typeC));
-                final String id = cursor.getString(idC);
-                final int lat = cursor.getInt(latC);
-                final int lon = cursor.getInt(lonC);
-                final Point coord = lat != 0 || lon != 0 ? Point.from1E6(lat, lon) : null;
                 final Location location;
                 if (nickName != null)
-                    location = new Location(type, id, coord, null, "★ " + nickName);
+                    location = new Location(raw.type, raw.id, raw.coord, null, "★ " + nickName);
                 else
-                    location = new Location(type, id, coord, place, name);
-                if (!results.contains(location))
-                    results.add(location);
+                    location = raw;
+                results.addFavorite(location);
             }
         }
-        cursor.close();
     }
 
     private static boolean namePartMatches(final String namePart, final String lowerCaseConstraint) {
@@ -133,7 +152,7 @@ public class LocationSuggestionsCollector {
     private static void loadResultsFromQueryHistory(
             final String constraint,
             final NetworkId network,
-            final List<Location> results) {
+            final SuggestionCandidates results) {
         final Cursor cursor = Application.getInstance().getContentResolver().query(
                 QueryHistoryProvider.CONTENT_URI().buildUpon()
                         .appendPath(network.name())
@@ -157,10 +176,14 @@ public class LocationSuggestionsCollector {
         final int toLonC = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_LON);
         final int toPlaceC = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_PLACE);
         final int toNameC = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TO_NAME);
+        final int timesQueriedC = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_TIMES_QUERIED);
+        final int lastQueriedC = cursor.getColumnIndexOrThrow(QueryHistoryProvider.KEY_LAST_QUERIED);
 
         final String lowerCaseConstraint = constraint.toLowerCase(Constants.DEFAULT_LOCALE);
 
         while (cursor.moveToNext()) {
+            final int timesQueried = cursor.getInt(timesQueriedC);
+            final long lastQueried = cursor.getLong(lastQueriedC);
             final String fromName = cursor.getString(fromNameC);
             if (fromName.toLowerCase(Constants.DEFAULT_LOCALE).contains(lowerCaseConstraint)) {
                 final LocationType fromType = QueryHistoryProvider
@@ -173,8 +196,7 @@ public class LocationSuggestionsCollector {
                 final String fromPlace = cursor.getString(fromPlaceC);
                 final Location location = new Location(fromType, fromId, fromCoord, fromPlace,
                         fromName);
-                if (!results.contains(location))
-                    results.add(location);
+                results.addHistory(location, timesQueried, lastQueried);
             }
             final String toName = cursor.getString(toNameC);
             if (toName.toLowerCase(Constants.DEFAULT_LOCALE).contains(lowerCaseConstraint)) {
@@ -187,13 +209,21 @@ public class LocationSuggestionsCollector {
                         : null;
                 final String toPlace = cursor.getString(toPlaceC);
                 final Location location = new Location(toType, toId, toCoord, toPlace, toName);
-                if (!results.contains(location))
-                    results.add(location);
+                results.addHistory(location, timesQueried, lastQueried);
             }
         }
         cursor.close();
     }
 
+    private static void loadResultsFromStationIndex(
+            final String constraint,
+            final NetworkId network,
+            final SuggestionCandidates results) {
+        int rank = 0;
+        for (final Location location : StationNameIndex.get(network).suggest(constraint, MAX_INDEX_SUGGESTIONS))
+            results.addIndexed(location, rank++);
+    }
+
     private static void loadResultsFromNetworkProvider(
             final String constraint,
             final NetworkId network,
@@ -202,20 +232,26 @@ public class LocationSuggestionsCollector {
             final List<Location> results
     ) throws IOException {
         final int constraintLength = constraint.length();
-        if (constraintLength >= 3) {
+        if (isNetworkQueryable(constraint)) {
             final int maxLocations = constraintLength >= 8 ? 15 : constraintLength * 2;
-            final LocationSearchProvider locationSearchProvider = searchProviderId != null
-                    ? LocationSearchProviderFactory.provider(searchProviderId)
-                    : NetworkProviderFactory.provider(network);
-            final SuggestLocationsResult suggestLocationsResult = locationSearchProvider
-                    .suggestLocations(constraint, suggestedLocationTypes, maxLocations);
-            if (suggestLocationsResult.status == SuggestLocationsResult.Status.OK) {
-                final List<Location> foundLocations = suggestLocationsResult.getLocations();
-                for (final Location location : foundLocations) {
-                    if (!results.contains(location))
-                        results.add(location);
+            final String providerName = searchProviderId != null ? searchProviderId.name() : network.name();
+            final String normalizedConstraint = LocationSuggestionsCache.normalizeQuery(constraint);
+            List<Location> foundLocations = LocationSuggestionsCache.get(providerName, normalizedConstraint,
+                    suggestedLocationTypes, MIN_NETWORK_CONSTRAINT_LENGTH);
+            if (foundLocations == null) {
+                final LocationSearchProvider locationSearchProvider = searchProviderId != null
+                        ? LocationSearchProviderFactory.provider(searchProviderId)
+                        : NetworkProviderFactory.provider(network);
+                final SuggestLocationsResult suggestLocationsResult = locationSearchProvider
+                        .suggestLocations(constraint, suggestedLocationTypes, maxLocations);
+                if (suggestLocationsResult.status == SuggestLocationsResult.Status.OK) {
+                    foundLocations = suggestLocationsResult.getLocations();
+                    LocationSuggestionsCache.put(providerName, normalizedConstraint, suggestedLocationTypes,
+                            foundLocations, maxLocations);
                 }
             }
+            if (foundLocations != null)
+                results.addAll(foundLocations);
         }
     }
 }
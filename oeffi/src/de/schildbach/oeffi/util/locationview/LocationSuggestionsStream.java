@@ -0,0 +1,153 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.locationview;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.schildbach.pte.NetworkId;
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+import de.schildbach.pte.provider.locationsearch.LocationSearchProviderId;
+
+/**
+ * Streams location suggestions for one input field. Local suggestions are returned right away, while the network
+ * query is debounced and its merged results are delivered later. Each request supersedes the previous one: its
+ * pending network query is cancelled, and the results of a network query already running are discarded when it
+ * completes, as provider calls cannot be aborted.
+ */
+public class LocationSuggestionsStream {
+    public interface Listener {
+        /**
+         * Called on the main thread, once per request that queried the network and has not been superseded.
+         */
+        void onSuggestions(String constraint, List<Location> suggestions);
+    }
+
+    private static final long NETWORK_DEBOUNCE_MS = 300;
+
+    private static final ExecutorService networkExecutor = Executors.newCachedThreadPool();
+    private static final Logger log = LoggerFactory.getLogger(LocationSuggestionsStream.class);
+
+    private final NetworkId network;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int generation = 0;
+    private Runnable pendingQuery = null;
+
+    public LocationSuggestionsStream(final NetworkId network, final Listener listener) {
+        this.network = network;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts a new request, superseding the previous one. May be called from any thread.
+     *
+     * @return local suggestions, or {@code null} if the constraint is empty
+     */
+    public List<Location> request(
+            final CharSequence aConstraint,
+            final AbstractSet<LocationType> suggestedLocationTypes,
+            final LocationSearchProviderId searchProviderId) {
+        final int requestGeneration = supersede();
+        final String constraint = LocationSuggestionsCollector.normalizeConstraint(aConstraint);
+        if (constraint == null)
+            return null;
+        LocationSuggestionsCollector.addDefaultLocationTypes(suggestedLocationTypes);
+        final EnumSet<LocationType> locationTypes = EnumSet.copyOf(suggestedLocationTypes);
+
+        final SuggestionCandidates localResults = LocationSuggestionsCollector.collectLocalSuggestions(constraint,
+                network);
+        if (LocationSuggestionsCollector.isNetworkQueryable(constraint)) {
+            final Runnable query = () -> queryNetwork(requestGeneration, constraint, locationTypes, searchProviderId,
+                    localResults);
+            synchronized (this) {
+                if (requestGeneration == generation) {
+                    pendingQuery = () -> startQuery(requestGeneration, query);
+                    handler.postDelayed(pendingQuery, NETWORK_DEBOUNCE_MS);
+                }
+            }
+        }
+        return LocationSuggestionsCollector.mergeSuggestions(localResults, Collections.emptyList(), locationTypes);
+    }
+
+    /**
+     * Cancels the current request, if any.
+     */
+    public void cancel() {
+        supersede();
+    }
+
+    private synchronized int supersede() {
+        if (pendingQuery != null) {
+            handler.removeCallbacks(pendingQuery);
+            pendingQuery = null;
+        }
+        return ++generation;
+    }
+
+    private synchronized void startQuery(final int requestGeneration, final Runnable query) {
+        if (requestGeneration != generation)
+            return;
+        pendingQuery = null;
+        networkExecutor.execute(query);
+    }
+
+    private void queryNetwork(
+            final int requestGeneration,
+            final String constraint,
+            final EnumSet<LocationType> locationTypes,
+            final LocationSearchProviderId searchProviderId,
+            final SuggestionCandidates localResults) {
+        List<Location> networkResults;
+        try {
+            networkResults = LocationSuggestionsCollector.collectNetworkSuggestions(constraint, network,
+                    searchProviderId, locationTypes);
+        } catch (final IOException x) {
+            if (isCurrent(requestGeneration))
+                log.info("suggesting locations for '{}' failed: {}", constraint, x.toString());
+            // still publish the local results, so the listener stops waiting for this request
+            networkResults = Collections.emptyList();
+        }
+        if (!isCurrent(requestGeneration))
+            return;
+
+        final List<Location> suggestions = LocationSuggestionsCollector.mergeSuggestions(localResults,
+                networkResults, locationTypes);
+        handler.post(() -> {
+            if (isCurrent(requestGeneration))
+                listener.onSuggestions(constraint, suggestions);
+        });
+    }
+
+    private synchronized boolean isCurrent(final int requestGeneration) {
+        return requestGeneration == generation;
+    }
+}
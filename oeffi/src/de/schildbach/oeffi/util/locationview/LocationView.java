@@ -236,6 +236,10 @@ public class LocationView extends LinearLayout implements LocationHelper.Callbac
             if (location == null)
                 return;
 
+            // late network results are of no interest anymore
+            if (autoCompleteLocationAdapter != null)
+                autoCompleteLocationAdapter.cancelSuggestions();
+
             setLocation(location);
 
             fireChanged();
@@ -0,0 +1,168 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util.locationview;
+
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import de.schildbach.pte.dto.Location;
+import de.schildbach.pte.dto.LocationType;
+
+/**
+ * Location suggestions from all sources, de-duplicated and scored. The score fuses whether a location is a favorite,
+ * how often and how recently it was queried, and its rank in the network results, or else in the offline station
+ * index.
+ */
+public class SuggestionCandidates {
+    private static final double SCORE_FAVORITE = 100;
+    private static final double SCORE_HISTORY_PER_DOUBLING = 10;
+    private static final double SCORE_HISTORY_RECENT = 40;
+    private static final long HISTORY_RECENCY_HALF_LIFE_MS = 14 * DateUtils.DAY_IN_MILLIS;
+    private static final double SCORE_NETWORK_TOP = 30;
+    private static final double SCORE_INDEX_TOP = 20;
+
+    private static final class Candidate {
+        final Location location;
+        final int sequence;
+        boolean favorite = false;
+        int timesQueried = 0;
+        long lastQueried = 0;
+        int networkRank = -1;
+        int indexRank = -1;
+
+        Candidate(final Location location, final int sequence) {
+            this.location = location;
+            this.sequence = sequence;
+        }
+
+        double score(final long now) {
+            double score = 0;
+            if (favorite)
+                score += SCORE_FAVORITE;
+            if (timesQueried > 0)
+                score += SCORE_HISTORY_PER_DOUBLING * Math.log(1 + timesQueried) / Math.log(2);
+            if (lastQueried > 0)
+                score += SCORE_HISTORY_RECENT
+                        * Math.pow(0.5, (double) Math.max(now - lastQueried, 0) / HISTORY_RECENCY_HALF_LIFE_MS);
+            if (networkRank >= 0)
+                score += SCORE_NETWORK_TOP / (1 + networkRank);
+            else if (indexRank >= 0)
+                score += SCORE_INDEX_TOP / (1 + indexRank);
+            return score;
+        }
+    }
+
+    private static final class Scored {
+        final Candidate candidate;
+        final double score;
+
+        Scored(final Candidate candidate, final double score) {
+            this.candidate = candidate;
+            this.score = score;
+        }
+    }
+
+    // worst first, ties going to the candidate seen first
+    private static final Comparator<Scored> WORST_FIRST = (a, b) -> {
+        final int byScore = Double.compare(a.score, b.score);
+        return byScore != 0 ? byScore : Integer.compare(b.candidate.sequence, a.candidate.sequence);
+    };
+
+    private final Map<Location, Candidate> candidates = new HashMap<>();
+
+    public SuggestionCandidates() {
+    }
+
+    public SuggestionCandidates(final SuggestionCandidates other) {
+        for (final Candidate otherCandidate : other.candidates.values()) {
+            final Candidate candidate = new Candidate(otherCandidate.location, otherCandidate.sequence);
+            candidate.favorite = otherCandidate.favorite;
+            candidate.timesQueried = otherCandidate.timesQueried;
+            candidate.lastQueried = otherCandidate.lastQueried;
+            candidate.networkRank = otherCandidate.networkRank;
+            candidate.indexRank = otherCandidate.indexRank;
+            candidates.put(candidate.location, candidate);
+        }
+    }
+
+    public void addFavorite(final Location location) {
+        candidate(location).favorite = true;
+    }
+
+    public void addHistory(final Location location, final int timesQueried, final long lastQueried) {
+        final Candidate candidate = candidate(location);
+        candidate.timesQueried += timesQueried;
+        candidate.lastQueried = Math.max(candidate.lastQueried, lastQueried);
+    }
+
+    public void addNetwork(final Location location, final int rank) {
+        final Candidate candidate = candidate(location);
+        if (candidate.networkRank < 0 || rank < candidate.networkRank)
+            candidate.networkRank = rank;
+    }
+
+    public void addIndexed(final Location location, final int rank) {
+        final Candidate candidate = candidate(location);
+        if (candidate.indexRank < 0 || rank < candidate.indexRank)
+            candidate.indexRank = rank;
+    }
+
+    /**
+     * Returns the best {@code k} candidates of the given location types, best first. If there are none of these
+     * types, the best {@code k} of all types are returned.
+     */
+    public List<Location> top(final Set<LocationType> locationTypes, final int k) {
+        final long now = System.currentTimeMillis();
+        final List<Location> top = top(locationTypes, k, now);
+        return !top.isEmpty() ? top : top(null, k, now);
+    }
+
+    private List<Location> top(final Set<LocationType> locationTypes, final int k, final long now) {
+        final PriorityQueue<Scored> heap = new PriorityQueue<>(k + 1, WORST_FIRST);
+        for (final Candidate candidate : candidates.values()) {
+            if (locationTypes != null && !locationTypes.contains(candidate.location.type))
+                continue;
+            heap.add(new Scored(candidate, candidate.score(now)));
+            if (heap.size() > k)
+                heap.poll();
+        }
+
+        final List<Location> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty())
+            top.add(heap.poll().candidate.location);
+        Collections.reverse(top);
+        return top;
+    }
+
+    private Candidate candidate(final Location location) {
+        Candidate candidate = candidates.get(location);
+        if (candidate == null) {
+            candidate = new Candidate(location, candidates.size());
+            candidates.put(location, candidate);
+        }
+        return candidate;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Microbenchmark of {@link ColorHash}, to be run as a plain JVM program. Compares the previous implementation, which
+ * boxed every channel and hashed every call, to the primitive path with and without memoization. Colors a departure
+ * list of 40 entries with 12 distinct strings, as a station list does on every bind.
+ */
+public class ColorHashBenchmark {
+    private static final int WARMUP_ROUNDS = 20_000;
+    private static final int ROUNDS = 100_000;
+
+    public static void main(final String[] args) {
+        final ColorHash colorHash = new ColorHash(
+                Arrays.asList(0.25, 0.32, 0.39, 0.45, 0.49),
+                Arrays.asList(0.50, 0.60, 0.70, 0.80, 0.90),
+                0, 360,
+                ColorHash::md5Hash);
+        final List<String> departures = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            departures.add("Destination " + (i % 12));
+
+        run("boxed, uncached", () -> {
+            int sum = 0;
+            for (final String string : departures)
+                sum += legacyToARGB(colorHash.toHSL(string));
+            return sum;
+        });
+        run("primitive, uncached", () -> {
+            int sum = 0;
+            for (final String string : departures)
+                sum += colorHash.toHSL(string).toARGB();
+            return sum;
+        });
+        run("primitive, memoized", () -> {
+            int sum = 0;
+            for (final String string : departures)
+                sum += colorHash.toARGB(string);
+            return sum;
+        });
+        run("bulk, memoized", () -> {
+            int sum = 0;
+            for (final int argb : colorHash.toARGB(departures))
+                sum += argb;
+            return sum;
+        });
+    }
+
+    private interface Pass {
+        int run();
+    }
+
+    private static void run(final String name, final Pass pass) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            sink += pass.run();
+
+        final long startBytes = allocatedBytes();
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            sink += pass.run();
+        final long nanos = System.nanoTime() - startNanos;
+        final long bytes = allocatedBytes() - startBytes;
+
+        System.out.printf("%-22s %8.0f ns/list %10d bytes/list   (%d)%n", name, (double) nanos / ROUNDS,
+                bytes / ROUNDS, sink);
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threadBean).getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    // the implementation before channels were computed on primitives
+    private static int legacyToARGB(final ColorHash.HSL hsl) {
+        final double hue = hsl.getHue(), saturation = hsl.getSaturation(), lightness = hsl.getLightness();
+        final double h = hue / 360.0;
+        final double q = lightness < 0.5 ? lightness * (1.0 + saturation)
+                : lightness + saturation - lightness * saturation;
+        final double p = 2.0 * lightness - q;
+        final List<Double> rgbs = new ArrayList<>();
+        for (final double color : new double[] { h + 1.0 / 3.0, h, h - 1.0 / 3.0 }) {
+            final double co = color < 0 ? color + 1 : color > 1 ? color - 1 : color;
+            final double c;
+            if (co < 1.0 / 6.0)
+                c = p + (q - p) * 6.0 * co;
+            else if (co < 0.5)
+                c = q;
+            else if (co < 2.0 / 3.0)
+                c = p + (q - p) * 6.0 * (2.0 / 3.0 - co);
+            else
+                c = p;
+            rgbs.add(Math.max(0.0, Math.round(c * 255)));
+        }
+        return new ColorHash.RGB(rgbs.get(0).intValue(), rgbs.get(1).intValue(), rgbs.get(2).intValue()).toARGB();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ColorHashTest {
+    private static final ColorHash COLOR_HASH = new ColorHash(
+            Arrays.asList(0.25, 0.32, 0.39, 0.45, 0.49),
+            Arrays.asList(0.50, 0.60, 0.70, 0.80, 0.90),
+            0, 360,
+            ColorHash::md5Hash);
+
+    @Test
+    public void knownColors() {
+        // values as computed by the previous, boxing implementation
+        Assert.assertEquals(0xFF791606, COLOR_HASH.toARGB("Berlin Hauptbahnhof"));
+        Assert.assertEquals(0xFF107093, COLOR_HASH.toARGB("S1"));
+        Assert.assertEquals(0xFFDA0B67, COLOR_HASH.toARGB("U2"));
+        Assert.assertEquals(0xFF43289F, COLOR_HASH.toARGB("RE7"));
+        Assert.assertEquals(0xFF194E66, COLOR_HASH.toARGB(""));
+        Assert.assertEquals(0xFF95328D, COLOR_HASH.toARGB("München Marienplatz"));
+        Assert.assertEquals(0xFFE06CAE, new ColorHash().toARGB("Berlin Hauptbahnhof"));
+        Assert.assertEquals("#8b7318", COLOR_HASH.toHexString("Alexanderplatz"));
+    }
+
+    @Test
+    public void memoizedMatchesComputed() {
+        for (int i = 0; i < 5000; i++) {
+            final String string = "stop" + i;
+            final int argb = COLOR_HASH.toARGB(string);
+            Assert.assertEquals(string, COLOR_HASH.toHSL(string).toRGB().toARGB(), argb);
+            Assert.assertEquals(string, argb, COLOR_HASH.toARGB(string));
+        }
+    }
+
+    @Test
+    public void bulk() {
+        final List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            strings.add("line" + (i % 7));
+        final int[] argbs = COLOR_HASH.toARGB(strings);
+        Assert.assertEquals(strings.size(), argbs.length);
+        for (int i = 0; i < argbs.length; i++)
+            Assert.assertEquals(COLOR_HASH.toARGB(strings.get(i)), argbs[i]);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import java.util.Random;
+
+/**
+ * Microbenchmark of {@link PolylineSimplifier}, to be run as a plain JVM program. Uses a random walk of 5000 points in
+ * normalized Web Mercator with steps of about 100 m, like a long distance train leg at fine resolution, and the levels
+ * the map prepares: half a pixel at every other zoom level from 4 to 16.
+ */
+public class PolylineSimplifierBenchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int ROUNDS = 1_000;
+    private static final int NUM_POINTS = 5000;
+    private static final int[] ZOOM_LEVELS = { 4, 6, 8, 10, 12, 14, 16 };
+
+    public static void main(final String[] args) {
+        final Random random = new Random(42);
+        final double[] xy = new double[NUM_POINTS * 2];
+        double x = 0.5, y = 0.3, heading = 0;
+        for (int i = 0; i < NUM_POINTS; i++) {
+            heading += random.nextGaussian() * 0.3;
+            x += Math.cos(heading) * 0.0000025;
+            y += Math.sin(heading) * 0.0000025;
+            xy[i * 2] = x;
+            xy[i * 2 + 1] = y;
+        }
+        final double[] tolerances = new double[ZOOM_LEVELS.length];
+        for (int i = 0; i < ZOOM_LEVELS.length; i++)
+            tolerances[i] = 0.5 / (256.0 * (1 << ZOOM_LEVELS[i]));
+
+        final double[] significance = PolylineSimplifier.significance(xy);
+        for (int i = 0; i < ZOOM_LEVELS.length; i++)
+            System.out.printf("zoom %2d: %5d of %d points%n", ZOOM_LEVELS[i],
+                    PolylineSimplifier.select(significance, tolerances[i]).length, NUM_POINTS);
+
+        run("simplify per level", () -> {
+            int sum = 0;
+            for (final double tolerance : tolerances)
+                sum += PolylineSimplifier.simplify(xy, tolerance).length / 2;
+            return sum;
+        });
+        run("significance + select", () -> {
+            final double[] s = PolylineSimplifier.significance(xy);
+            int sum = 0;
+            for (final double tolerance : tolerances)
+                sum += PolylineSimplifier.select(s, tolerance).length;
+            return sum;
+        });
+        run("select only", () -> {
+            int sum = 0;
+            for (final double tolerance : tolerances)
+                sum += PolylineSimplifier.select(significance, tolerance).length;
+            return sum;
+        });
+    }
+
+    private interface Pass {
+        int run();
+    }
+
+    private static void run(final String name, final Pass pass) {
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            sink += pass.run();
+
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++)
+            sink += pass.run();
+        final long nanos = System.nanoTime() - startNanos;
+
+        System.out.printf("%-22s %10.0f ns/path   (%d)%n", name, (double) nanos / ROUNDS, sink);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.oeffi.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PolylineSimplifierTest {
+    private static final double[] TOLERANCES = { 0, 0.001, 0.01, 0.05, 0.2, 1, 10 };
+
+    @Test
+    public void degenerate() {
+        Assert.assertEquals(0, PolylineSimplifier.simplify(new double[0], 1).length);
+        Assert.assertArrayEquals(new double[] { 1, 2 }, PolylineSimplifier.simplify(new double[] { 1, 2 }, 1), 0);
+        Assert.assertArrayEquals(new double[] { 1, 2, 3, 4 },
+                PolylineSimplifier.simplify(new double[] { 1, 2, 3, 4 }, 1), 0);
+    }
+
+    @Test
+    public void straightLineCollapses() {
+        final double[] xy = new double[100 * 2];
+        for (int i = 0; i < 100; i++) {
+            xy[i * 2] = i;
+            xy[i * 2 + 1] = i * 0.5;
+        }
+        Assert.assertArrayEquals(new double[] { 0, 0, 99, 49.5 }, PolylineSimplifier.simplify(xy, 1e-9), 0);
+    }
+
+    @Test
+    public void keepsCorner() {
+        final double[] xy = { 0, 0, 1, 0, 2, 0, 2, 1, 2, 2 };
+        Assert.assertArrayEquals(new double[] { 0, 0, 2, 0, 2, 2 }, PolylineSimplifier.simplify(xy, 0.1), 0);
+    }
+
+    @Test
+    public void reducesDenseCurve() {
+        // quarter circle of radius 1, sampled at 1000 points
+        final int numPoints = 1000;
+        final double[] xy = new double[numPoints * 2];
+        for (int i = 0; i < numPoints; i++) {
+            final double angle = Math.PI / 2 * i / (numPoints - 1);
+            xy[i * 2] = Math.cos(angle);
+            xy[i * 2 + 1] = Math.sin(angle);
+        }
+        final double[] significance = PolylineSimplifier.significance(xy);
+        Assert.assertEquals(numPoints, PolylineSimplifier.select(significance, 0).length);
+        final int fine = PolylineSimplifier.select(significance, 0.0001).length;
+        final int coarse = PolylineSimplifier.select(significance, 0.01).length;
+        Assert.assertTrue("fine: " + fine, fine < 100);
+        Assert.assertTrue("coarse: " + coarse, coarse < 15);
+        Assert.assertTrue(coarse < fine);
+    }
+
+    @Test
+    public void errorBound() {
+        final double[] xy = randomWalk(new Random(42), 2000);
+        final double[] significance = PolylineSimplifier.significance(xy);
+        for (final double tolerance : TOLERANCES) {
+            final int[] indices = PolylineSimplifier.select(significance, tolerance);
+            Assert.assertEquals(0, indices[0]);
+            Assert.assertEquals(xy.length / 2 - 1, indices[indices.length - 1]);
+            for (int k = 1; k < indices.length; k++)
+                for (int i = indices[k - 1] + 1; i < indices[k]; i++)
+                    Assert.assertTrue("tolerance " + tolerance + ", point " + i,
+                            PolylineSimplifier.segmentDistance(xy, i, indices[k - 1], indices[k]) <= tolerance);
+        }
+    }
+
+    @Test
+    public void levelsAreNested() {
+        final double[] xy = randomWalk(new Random(7), 1000);
+        final double[] significance = PolylineSimplifier.significance(xy);
+        int[] previous = PolylineSimplifier.select(significance, TOLERANCES[0]);
+        for (int t = 1; t < TOLERANCES.length; t++) {
+            final int[] indices = PolylineSimplifier.select(significance, TOLERANCES[t]);
+            Assert.assertTrue(indices.length <= previous.length);
+            for (final int index : indices)
+                Assert.assertTrue(Arrays.binarySearch(previous, index) >= 0);
+            previous = indices;
+        }
+    }
+
+    @Test
+    public void matchesRecursiveDouglasPeucker() {
+        final Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            final double[] xy = randomWalk(random, 50 + random.nextInt(500));
+            final double[] significance = PolylineSimplifier.significance(xy);
+            for (final double tolerance : TOLERANCES) {
+                final boolean[] keep = new boolean[xy.length / 2];
+                keep[0] = true;
+                keep[keep.length - 1] = true;
+                recursiveDouglasPeucker(xy, 0, keep.length - 1, tolerance, keep);
+                final int[] indices = PolylineSimplifier.select(significance, tolerance);
+                int count = 0;
+                for (int i = 0; i < keep.length; i++)
+                    if (keep[i])
+                        Assert.assertEquals("tolerance " + tolerance, i, indices[count++]);
+                Assert.assertEquals(count, indices.length);
+            }
+        }
+    }
+
+    private static void recursiveDouglasPeucker(final double[] xy, final int from, final int to,
+            final double tolerance, final boolean[] keep) {
+        int farthest = -1;
+        double maxDistance = -1;
+        for (int i = from + 1; i < to; i++) {
+            final double distance = PolylineSimplifier.segmentDistance(xy, i, from, to);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0 && maxDistance > tolerance) {
+            keep[farthest] = true;
+            recursiveDouglasPeucker(xy, from, farthest, tolerance, keep);
+            recursiveDouglasPeucker(xy, farthest, to, tolerance, keep);
+        }
+    }
+
+    static double[] randomWalk(final Random random, final int numPoints) {
+        final double[] xy = new double[numPoints * 2];
+        double x = 0, y = 0, heading = 0;
+        for (int i = 0; i < numPoints; i++) {
+            heading += random.nextGaussian() * 0.3;
+            x += Math.cos(heading) * 0.01;
+            y += Math.sin(heading) * 0.01;
+            xy[i * 2] = x;
+            xy[i * 2 + 1] = y;
+        }
+        return xy;
+    }
+}